@@ -3,8 +3,10 @@ package com.citacita;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
 
-@SpringBootApplication
+// R2DBC 连接池由 R2dbcConfig 按需创建，避免自动配置的 ConnectionFactory 顶替 MyBatis 的 DataSource
+@SpringBootApplication(exclude = R2dbcAutoConfiguration.class)
 @MapperScan("com.citacita.mapper")
 public class CitacitaBackendApplication {
 	
@@ -0,0 +1,132 @@
+package com.citacita.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把调用方标识写入 Reactor Context，供按客户端公平排队等下游逻辑读取。
+ * <p>
+ * 默认使用连接的远端地址。X-Forwarded-For 可以由客户端任意伪造，只有直接连接方在
+ * {@code citacita.client-key.trusted-proxies}（IP 或 CIDR，逗号分隔）中时才读取：从右往左跳过可信代理，
+ * 取第一个不可信的地址。不要同时开启 {@code server.forward-headers-strategy}，否则远端地址已被未校验的头覆盖。
+ */
+@Component
+public class ClientKeyWebFilter implements WebFilter {
+
+    public static final String CONTEXT_KEY = "citacita.client";
+
+    private final List<Cidr> trustedProxies;
+
+    public ClientKeyWebFilter(@Value("${citacita.client-key.trusted-proxies:}") List<String> trustedProxies) {
+        List<Cidr> parsed = new ArrayList<>();
+        for (String proxy : trustedProxies) {
+            if (!proxy.isBlank()) {
+                parsed.add(Cidr.parse(proxy.trim()));
+            }
+        }
+        this.trustedProxies = List.copyOf(parsed);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String clientKey = resolve(exchange.getRequest());
+        return chain.filter(exchange).contextWrite(context -> context.put(CONTEXT_KEY, clientKey));
+    }
+
+    String resolve(ServerHttpRequest request) {
+        InetSocketAddress remote = request.getRemoteAddress();
+        if (remote == null) {
+            return "unknown";
+        }
+        String client = remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+        if (!isTrusted(client)) {
+            return client;
+        }
+        List<String> forwarded = request.getHeaders().getValuesAsList("X-Forwarded-For");
+        for (int i = forwarded.size() - 1; i >= 0; i--) {
+            String hop = forwarded.get(i).trim();
+            if (hop.isEmpty()) {
+                continue;
+            }
+            if (!isTrusted(hop)) {
+                return hop;
+            }
+            client = hop;
+        }
+        return client;
+    }
+
+    private boolean isTrusted(String address) {
+        if (trustedProxies.isEmpty()) {
+            return false;
+        }
+        byte[] bytes = Cidr.literal(address);
+        if (bytes == null) {
+            return false;
+        }
+        for (Cidr proxy : trustedProxies) {
+            if (proxy.contains(bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record Cidr(byte[] network, int prefixLength) {
+
+        static Cidr parse(String value) {
+            int slash = value.indexOf('/');
+            String host = slash >= 0 ? value.substring(0, slash) : value;
+            byte[] network = literal(host);
+            if (network == null) {
+                throw new IllegalArgumentException("citacita.client-key.trusted-proxies 只支持 IP 或 CIDR: " + value);
+            }
+            int prefixLength = slash >= 0 ? Integer.parseInt(value.substring(slash + 1)) : network.length * 8;
+            return new Cidr(network, prefixLength);
+        }
+
+        /**
+         * 只解析 IP 字面量（不做 DNS 查询），不是 IP 时返回 null
+         */
+        static byte[] literal(String address) {
+            if (address.isEmpty() || !(Character.digit(address.charAt(0), 16) >= 0 || address.charAt(0) == ':')
+                    || !address.chars().allMatch(c -> Character.digit(c, 16) >= 0 || c == '.' || c == ':')) {
+                return null;
+            }
+            try {
+                return InetAddress.getByName(address).getAddress();
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+
+        boolean contains(byte[] address) {
+            if (address.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (address[i] != network[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = prefixLength % 8;
+            if (remainingBits == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - remainingBits);
+            return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.citacita.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import java.time.Duration;
+
+/**
+ * 可选的 R2DBC 非阻塞数据访问（{@code citacita.data.access=r2dbc} 时启用）。
+ * <p>
+ * 连接池不注册为 ConnectionFactory Bean：Spring Boot 检测到 ConnectionFactory 后会跳过 DataSource
+ * 自动配置，而 MyBatis（RAG 缓存、写操作等）仍然依赖 JDBC 数据源。
+ * 本地测试可以把 URL 换成 r2dbc:h2:mem:///citacita 等任意已在类路径上的驱动。
+ */
+@Configuration
+@ConditionalOnProperty(name = "citacita.data.access", havingValue = "r2dbc")
+@Slf4j
+public class R2dbcConfig {
+
+    private ConnectionPool connectionPool;
+
+    @Bean
+    public DatabaseClient databaseClient(
+            @Value("${citacita.r2dbc.url}") String url,
+            @Value("${citacita.r2dbc.username:${spring.datasource.username:}}") String username,
+            @Value("${citacita.r2dbc.password:${spring.datasource.password:}}") String password,
+            @Value("${citacita.r2dbc.pool.initial-size:2}") int initialSize,
+            @Value("${citacita.r2dbc.pool.max-size:20}") int maxSize,
+            @Value("${citacita.r2dbc.pool.max-idle-time:PT30M}") Duration maxIdleTime) {
+        ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(url).mutate();
+        if (!username.isEmpty()) {
+            options.option(ConnectionFactoryOptions.USER, username);
+        }
+        if (!password.isEmpty()) {
+            options.option(ConnectionFactoryOptions.PASSWORD, password);
+        }
+        ConnectionPoolConfiguration poolConfiguration = ConnectionPoolConfiguration
+                .builder(ConnectionFactories.get(options.build()))
+                .name("citacita-r2dbc")
+                .initialSize(initialSize)
+                .maxSize(maxSize)
+                .maxIdleTime(maxIdleTime)
+                .build();
+        this.connectionPool = new ConnectionPool(poolConfiguration);
+        log.info("已启用 R2DBC 数据访问, 连接池上限: {}", maxSize);
+        return DatabaseClient.create(connectionPool);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (connectionPool != null) {
+            connectionPool.dispose();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.citacita.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reactor 调度器配置：阻塞的 JDBC/MyBatis 调用和 CPU 密集的解析工作都不能在 Netty 事件循环线程上执行。
+ * <ul>
+ *     <li>jdbcScheduler：用于所有数据库访问，{@code citacita.scheduler.jdbc.mode} 可选
+ *         bounded-elastic（有界线程池，默认）或 virtual（Java 21 虚拟线程）</li>
+ *     <li>cpuScheduler：固定大小的并行线程池，用于简历解析、内存检索等计算</li>
+ * </ul>
+ */
+@Configuration
+@Slf4j
+public class SchedulerConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler jdbcScheduler(
+            @Value("${citacita.scheduler.jdbc.mode:bounded-elastic}") String mode,
+            @Value("${citacita.scheduler.jdbc.threads:20}") int threads,
+            @Value("${citacita.scheduler.jdbc.queue-size:1000}") int queueSize) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                log.info("jdbcScheduler 使用虚拟线程");
+                return Schedulers.fromExecutorService(executor, "jdbc-virtual");
+            }
+            log.warn("当前 JVM ({}) 不支持虚拟线程，jdbcScheduler 回退为有界线程池", Runtime.version());
+        }
+        return Schedulers.newBoundedElastic(threads, queueSize, "jdbc");
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler cpuScheduler(@Value("${citacita.scheduler.cpu.threads:0}") int threads) {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return Schedulers.newParallel("cpu", parallelism);
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器，使项目仍可在 Java 17 上编译运行
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
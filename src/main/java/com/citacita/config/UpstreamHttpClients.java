@@ -0,0 +1,112 @@
+package com.citacita.config;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 为每个上游服务（openai、speech、tts、stt）创建独立的 Reactor Netty 连接池和 HttpClient，
+ * 避免流式对话占满连接后影响语音接口。
+ * <p>
+ * 配置项按 {@code citacita.http.upstream.<名称>.<参数>} 读取，未配置时回退到
+ * {@code citacita.http.upstream.default.<参数>}，再回退到下面的默认值：
+ * <ul>
+ *     <li>max-connections（200）、pending-acquire-max-count（1000）、pending-acquire-timeout（PT10S）</li>
+ *     <li>max-idle-time（PT30S，低于 Azure 负载均衡的空闲断开时间）、max-life-time（PT10M）、evict-interval（PT30S）</li>
+ *     <li>connect-timeout（PT5S）、response-timeout（PT60S，两次读取之间的最长间隔，流式响应同样适用）、write-timeout（PT30S）</li>
+ *     <li>http2（true，仅 https 端点通过 ALPN 协商）、compress（true）</li>
+ * </ul>
+ * 连接池与请求指标以 reactor.netty.* 名称注册到 Micrometer 全局注册表。
+ */
+@Component
+@Slf4j
+public class UpstreamHttpClients {
+
+    private static final String PREFIX = "citacita.http.upstream.";
+
+    private final Environment environment;
+    private final Map<String, ConnectionProvider> providers = new ConcurrentHashMap<>();
+
+    public UpstreamHttpClients(Environment environment) {
+        this.environment = environment;
+    }
+
+    public ClientHttpConnector connector(String upstream, String baseUrl) {
+        return new ReactorClientHttpConnector(httpClient(upstream, baseUrl));
+    }
+
+    public HttpClient httpClient(String upstream, String baseUrl) {
+        ConnectionProvider provider = providers.computeIfAbsent(upstream, this::newConnectionProvider);
+
+        Duration connectTimeout = duration(upstream, "connect-timeout", Duration.ofSeconds(5));
+        Duration responseTimeout = duration(upstream, "response-timeout", Duration.ofSeconds(60));
+        Duration writeTimeout = duration(upstream, "write-timeout", Duration.ofSeconds(30));
+        boolean http2 = property(upstream, "http2", Boolean.class, true)
+                && baseUrl != null && baseUrl.startsWith("https://");
+
+        HttpClient client = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(responseTimeout)
+                .doOnConnected(connection -> connection.addHandlerLast(
+                        new WriteTimeoutHandler(writeTimeout.toMillis(), TimeUnit.MILLISECONDS)))
+                .compress(property(upstream, "compress", Boolean.class, true))
+                // Azure 接口路径固定，去掉查询参数后作为 uri 标签，基数可控
+                .metrics(true, uri -> {
+                    int query = uri.indexOf('?');
+                    return query >= 0 ? uri.substring(0, query) : uri;
+                });
+        if (http2) {
+            client = client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+
+        log.info("上游 {} HttpClient: http2={}, connectTimeout={}, responseTimeout={}",
+                upstream, http2, connectTimeout, responseTimeout);
+        return client;
+    }
+
+    private ConnectionProvider newConnectionProvider(String upstream) {
+        return ConnectionProvider.builder("azure-" + upstream)
+                .maxConnections(property(upstream, "max-connections", Integer.class, 200))
+                .pendingAcquireMaxCount(property(upstream, "pending-acquire-max-count", Integer.class, 1000))
+                .pendingAcquireTimeout(duration(upstream, "pending-acquire-timeout", Duration.ofSeconds(10)))
+                .maxIdleTime(duration(upstream, "max-idle-time", Duration.ofSeconds(30)))
+                .maxLifeTime(duration(upstream, "max-life-time", Duration.ofMinutes(10)))
+                .evictInBackground(duration(upstream, "evict-interval", Duration.ofSeconds(30)))
+                .metrics(true)
+                .build();
+    }
+
+    private Duration duration(String upstream, String key, Duration defaultValue) {
+        return property(upstream, key, Duration.class, defaultValue);
+    }
+
+    private <T> T property(String upstream, String key, Class<T> type, T defaultValue) {
+        for (String scope : List.of(upstream, "default")) {
+            T value = environment.getProperty(PREFIX + scope + "." + key, type);
+            if (value != null) {
+                return value;
+            }
+        }
+        return defaultValue;
+    }
+
+    @PreDestroy
+    public void dispose() {
+        providers.values().forEach(ConnectionProvider::dispose);
+    }
+}
@@ -1,46 +1,205 @@
 package com.citacita.controller;
 
+import com.citacita.dto.JobBatchDTO;
+import com.citacita.dto.JobBatchRequest;
 import com.citacita.dto.JobDTO;
+import com.citacita.dto.JobPageDTO;
 import com.citacita.dto.ResultDTO;
 import com.citacita.entity.MascoJob;
+import com.citacita.repository.ReactiveMascoJobRepository;
+import com.citacita.service.BlockingCallExecutor;
 import com.citacita.service.JobService;
+import com.citacita.service.TaxonomyResponseCache;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/job")
+@Slf4j
 public class JobController {
     @Resource
     private JobService skillService;
 
+    // MyBatis 调用是阻塞的，统一交给 BlockingCallExecutor 执行（按端点限流并记录耗时）
+    @Resource
+    private BlockingCallExecutor blockingCallExecutor;
+
+    // citacita.data.access=r2dbc 时存在。只有 MASCO 快照加载之前（currentVersion() == 0）列表、详情、批量查询才走非阻塞驱动，
+    // 快照一旦可用就以内存视图和响应缓存为准；模糊搜索没有快照视图，始终走这里
+    @Resource
+    private ObjectProvider<ReactiveMascoJobRepository> reactiveJobRepository;
+
+    // 静态分类数据按快照版本预序列化，带 ETag 支持 304
+    @Resource
+    private TaxonomyResponseCache taxonomyResponseCache;
+
+    @Value("${citacita.job.batch.max-size:50}")
+    private int maxBatchSize;
+
+    // 流式导出从打开游标到写完最后一行的总时长上限，超时后中断响应并关闭游标
+    @Value("${citacita.job.stream.timeout:PT2M}")
+    private Duration streamTimeout;
+
 
     @GetMapping("/getJobListByLangAndMajorGroupCode")
-    public ResultDTO<List<JobDTO>> getJobListByLangAndMajorGroupCode(@RequestParam(name = "lang", defaultValue = "en") String lang, String majorGroupCode) {
-        List<JobDTO> rows = skillService.getJobListByLangAndId(lang, majorGroupCode);
-        return ResultDTO.success(rows);
+    public Mono<ResponseEntity<?>> getJobListByLangAndMajorGroupCode(@RequestParam(name = "lang", defaultValue = "en") String lang, String majorGroupCode, ServerWebExchange exchange) {
+        String cacheKey = taxonomyResponseCache.jobListKey(lang, majorGroupCode);
+        ResponseEntity<?> cached = taxonomyResponseCache.lookup(exchange, cacheKey);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        ReactiveMascoJobRepository repository = reactiveRepositoryWithoutSnapshot();
+        if (repository != null) {
+            long version = taxonomyResponseCache.currentVersion();
+            return repository.findByMajorGroupCode(lang, majorGroupCode).collectList()
+                    .map(rows -> taxonomyResponseCache.store(exchange, cacheKey, version, rows));
+        }
+        return blockingCallExecutor.execute("job.list", () -> {
+            long version = taxonomyResponseCache.currentVersion();
+            List<JobDTO> rows = skillService.getJobListByLangAndId(lang, majorGroupCode);
+            return taxonomyResponseCache.store(exchange, cacheKey, version, rows);
+        });
     }
 
     @GetMapping("/getDetailJobByLangAndUnitGroupCode")
-    public ResultDTO<JobDTO> getDetailJobByLangAndUnitGroupCode(@RequestParam(name = "lang", defaultValue = "en") String lang, String unitGroupCode) {
-        JobDTO data = skillService.getDetailJobByLangAndUnitGroupCode(lang, unitGroupCode);
-        return ResultDTO.success(data);
+    public Mono<ResultDTO<JobDTO>> getDetailJobByLangAndUnitGroupCode(@RequestParam(name = "lang", defaultValue = "en") String lang, String unitGroupCode) {
+        ReactiveMascoJobRepository repository = reactiveRepositoryWithoutSnapshot();
+        if (repository != null) {
+            return repository.findByUnitGroupCode(lang, unitGroupCode)
+                    .map(ResultDTO::success)
+                    .defaultIfEmpty(ResultDTO.success(null));
+        }
+        return blockingCallExecutor.execute("job.detail", () -> {
+            JobDTO data = skillService.getDetailJobByLangAndUnitGroupCode(lang, unitGroupCode);
+            return ResultDTO.success(data);
+        });
+    }
+
+    /**
+     * 批量获取工作详情（替代逐个调用 getDetailJobByLangAndUnitGroupCode）。
+     * 请求中的代码先去重：items 按每个代码第一次出现的顺序返回，重复的代码只返回一次；
+     * 不存在的代码不会出现在 items 中，而是列在 missing 里，调用方据此区分“查无此项”和“重复请求”
+     */
+    @PostMapping("/getDetailJobsByLangAndUnitGroupCodes")
+    public Mono<ResultDTO<JobBatchDTO>> getDetailJobsByLangAndUnitGroupCodes(@RequestBody JobBatchRequest request) {
+        List<String> codes = request.getUnitGroupCodes();
+        if (codes == null || codes.isEmpty()) {
+            return Mono.just(ResultDTO.success(new JobBatchDTO(List.of(), List.of())));
+        }
+        if (codes.size() > maxBatchSize) {
+            return Mono.just(ResultDTO.error(400, "unitGroupCodes size must not exceed " + maxBatchSize));
+        }
+        String lang = request.getLang() != null ? request.getLang() : "en";
+        ReactiveMascoJobRepository repository = reactiveRepositoryWithoutSnapshot();
+        if (repository != null) {
+            List<String> distinctCodes = codes.stream().filter(Objects::nonNull).distinct().toList();
+            return repository.findByUnitGroupCodes(lang, distinctCodes)
+                    .collectMap(JobDTO::getUnitGroupCode)
+                    .map(byCode -> {
+                        List<JobDTO> items = distinctCodes.stream().map(byCode::get).filter(Objects::nonNull).toList();
+                        List<String> missing = distinctCodes.stream().filter(code -> !byCode.containsKey(code)).toList();
+                        return ResultDTO.success(new JobBatchDTO(items, missing));
+                    });
+        }
+        return blockingCallExecutor.execute("job.batch", () ->
+                ResultDTO.success(skillService.getDetailJobsByLangAndUnitGroupCodes(lang, codes)));
     }
 
     @GetMapping("/autoCompleteJobByLangAndUnitGroupTitle")
-    public ResultDTO<List<JobDTO>> getJobListByLangAndUnitGroupTitle(@RequestParam(name = "lang", defaultValue = "en") String lang, String unitGroupTitle) {
-        List<JobDTO> rows = skillService.getJobListByLangAndUnitGroupTitle(lang, unitGroupTitle);
-        return ResultDTO.success(rows);
+    public Mono<ResultDTO<List<JobDTO>>> getJobListByLangAndUnitGroupTitle(@RequestParam(name = "lang", defaultValue = "en") String lang, String unitGroupTitle) {
+        // 模糊搜索没有快照视图，两种模式下都直接查库
+        ReactiveMascoJobRepository repository = reactiveJobRepository.getIfAvailable();
+        if (repository != null) {
+            return repository.findByUnitGroupTitle(lang, unitGroupTitle).collectList().map(ResultDTO::success);
+        }
+        return blockingCallExecutor.execute("job.autocomplete", () -> {
+            List<JobDTO> rows = skillService.getJobListByLangAndUnitGroupTitle(lang, unitGroupTitle);
+            return ResultDTO.success(rows);
+        });
     }
 
     @GetMapping("/getAllJobs")
-    public ResultDTO<List<?>> getAllJobs() {
-        List<MascoJob> rows = skillService.getAllJobs();
-        return ResultDTO.success(rows);
+    public Mono<ResponseEntity<?>> getAllJobs(ServerWebExchange exchange) {
+        ResponseEntity<?> cached = taxonomyResponseCache.lookup(exchange, "job.all");
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return blockingCallExecutor.execute("job.all", () -> {
+            long version = taxonomyResponseCache.currentVersion();
+            List<MascoJob> rows = skillService.getAllJobs();
+            return taxonomyResponseCache.store(exchange, "job.all", version, rows);
+        });
+    }
+
+    /**
+     * 键集分页版 getAllJobs：按语言投影，fields 为逗号分隔的字段名（如 unitGroupTitle,skillLevel）
+     */
+    @GetMapping("/getJobPage")
+    public Mono<ResultDTO<JobPageDTO>> getJobPage(@RequestParam(name = "lang", defaultValue = "en") String lang,
+                                                  @RequestParam(name = "after", required = false) String after,
+                                                  @RequestParam(name = "limit", defaultValue = "50") int limit,
+                                                  @RequestParam(name = "fields", required = false) String fields) {
+        int pageSize = Math.max(1, Math.min(limit, 500));
+        Set<String> selectedFields = parseFields(fields);
+        return blockingCallExecutor.execute("job.page", () -> {
+            JobPageDTO page = skillService.getJobPage(lang, after, pageSize, selectedFields);
+            return ResultDTO.success(page);
+        });
+    }
+
+    /**
+     * 流式版 getAllJobs：NDJSON，每行一条记录，边从数据库游标读取边写出。
+     * 每个打开的流占用一个连接和一个 JDBC 线程，并发数受端点 job.stream 的许可限制（citacita.blocking.limits.job.stream），
+     * 整个流超过 citacita.job.stream.timeout 时中断
+     */
+    @GetMapping(value = "/streamAllJobs", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<JobDTO> streamAllJobs(@RequestParam(name = "lang", defaultValue = "en") String lang,
+                                      @RequestParam(name = "fields", required = false) String fields) {
+        Set<String> selectedFields = parseFields(fields);
+        // 每一行的超时都指向同一个截止时间，超时会取消上游，游标随之关闭
+        Mono<Long> deadline = Mono.delay(streamTimeout).cache();
+        return blockingCallExecutor.stream("job.stream", () -> skillService.streamJobs(lang, selectedFields))
+                .timeout(deadline, row -> deadline)
+                .doOnError(TimeoutException.class, e -> log.warn("流式导出超过 {}，中断响应", streamTimeout));
+    }
+
+    /**
+     * R2DBC 只在 MASCO 快照尚未加载时使用（启动阶段、或快照一直没刷新成功）；快照可用时走内存视图，结果按快照版本进入响应缓存。
+     * 因此正常运行时 R2DBC 基本不承接这些接口的流量，只有模糊搜索例外
+     */
+    private ReactiveMascoJobRepository reactiveRepositoryWithoutSnapshot() {
+        return taxonomyResponseCache.currentVersion() == 0 ? reactiveJobRepository.getIfAvailable() : null;
+    }
+
+    private static Set<String> parseFields(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return Set.of();
+        }
+        return Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toSet());
     }
 
 
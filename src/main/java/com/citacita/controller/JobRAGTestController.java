@@ -3,6 +3,7 @@ package com.citacita.controller;
 import com.citacita.entity.MascoJob;
 import com.citacita.service.EnhancedFAQRAGService;
 import com.citacita.service.MascoJobDatabaseService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
@@ -17,6 +18,7 @@ import java.util.Optional;
 @RestController
 @RequestMapping("/api/test")
 @CrossOrigin(origins = "*") // 开发环境允许跨域
+@Slf4j
 public class JobRAGTestController {
     
     @Autowired
@@ -30,10 +32,10 @@ public class JobRAGTestController {
      */
     @GetMapping("/rag")
     public Mono<String> testRAG(@RequestParam String query) {
-        System.out.println("测试RAG查询: " + query);
+        log.debug("测试RAG查询: {}", query);
         return ragService.retrieveRelevantContent(query)
-            .doOnNext(result -> System.out.println("RAG结果长度: " + result.length()))
-            .doOnError(error -> System.err.println("RAG查询错误: " + error.getMessage()));
+            .doOnNext(result -> log.debug("RAG结果长度: {}", result.length()))
+            .doOnError(error -> log.warn("RAG查询错误: {}", error.getMessage()));
     }
     
     /**
@@ -44,10 +46,10 @@ public class JobRAGTestController {
             @RequestParam String query,
             @RequestParam(defaultValue = "en") String lang,
             @RequestParam(defaultValue = "5") int limit) {
-        System.out.println("测试工作搜索: " + query + ", 语言: " + lang);
+        log.debug("测试工作搜索: {}, 语言: {}", query, lang);
         return jobService.searchJobs(query, lang, limit)
-            .doOnNext(jobs -> System.out.println("找到工作数量: " + jobs.size()))
-            .doOnError(error -> System.err.println("工作搜索错误: " + error.getMessage()));
+            .doOnNext(jobs -> log.debug("找到工作数量: {}", jobs.size()))
+            .doOnError(error -> log.warn("工作搜索错误: {}", error.getMessage()));
     }
     
     /**
@@ -57,10 +59,10 @@ public class JobRAGTestController {
     public Mono<Optional<MascoJob>> getJobByCode(
             @PathVariable String code,
             @RequestParam(defaultValue = "en") String lang) {
-        System.out.println("获取工作详情: " + code + ", 语言: " + lang);
+        log.debug("获取工作详情: {}, 语言: {}", code, lang);
         return jobService.getJobByCode(code, lang)
-            .doOnNext(job -> System.out.println("工作详情存在: " + job.isPresent()))
-            .doOnError(error -> System.err.println("获取工作详情错误: " + error.getMessage()));
+            .doOnNext(job -> log.debug("工作详情存在: {}", job.isPresent()))
+            .doOnError(error -> log.warn("获取工作详情错误: {}", error.getMessage()));
     }
     
     /**
@@ -70,10 +72,10 @@ public class JobRAGTestController {
     public Mono<List<MascoJob>> getJobsByMajorGroup(
             @PathVariable String code,
             @RequestParam(defaultValue = "en") String lang) {
-        System.out.println("获取专业组工作: " + code + ", 语言: " + lang);
+        log.debug("获取专业组工作: {}, 语言: {}", code, lang);
         return jobService.getJobsByMajorGroupCode(code, lang)
-            .doOnNext(jobs -> System.out.println("专业组工作数量: " + jobs.size()))
-            .doOnError(error -> System.err.println("获取专业组工作错误: " + error.getMessage()));
+            .doOnNext(jobs -> log.debug("专业组工作数量: {}", jobs.size()))
+            .doOnError(error -> log.warn("获取专业组工作错误: {}", error.getMessage()));
     }
     
     /**
@@ -81,7 +83,7 @@ public class JobRAGTestController {
      */
     @GetMapping("/stats")
     public Mono<String> getStats() {
-        System.out.println("获取统计信息");
+        log.debug("获取统计信息");
         return jobService.getStatistics()
             .map(stats -> String.format("""
                 数据库统计信息:
@@ -92,8 +94,8 @@ public class JobRAGTestController {
                 stats.getTotalJobs(), 
                 stats.getMajorGroupCount(), 
                 stats.getSubMajorGroupCount()))
-            .doOnNext(result -> System.out.println("统计信息获取成功"))
-            .doOnError(error -> System.err.println("获取统计信息错误: " + error.getMessage()));
+            .doOnNext(result -> log.debug("统计信息获取成功"))
+            .doOnError(error -> log.warn("获取统计信息错误: {}", error.getMessage()));
     }
     
     /**
@@ -101,10 +103,10 @@ public class JobRAGTestController {
      */
     @GetMapping("/refresh-cache")
     public Mono<String> refreshCache() {
-        System.out.println("刷新缓存请求");
+        log.info("刷新缓存请求");
         return jobService.refreshCache()
-            .doOnNext(result -> System.out.println("缓存刷新结果: " + result))
-            .doOnError(error -> System.err.println("缓存刷新错误: " + error.getMessage()));
+            .doOnNext(result -> log.info("缓存刷新结果: {}", result))
+            .doOnError(error -> log.warn("缓存刷新错误: {}", error.getMessage()));
     }
     
     /**
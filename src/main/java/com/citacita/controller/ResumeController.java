@@ -1,13 +1,17 @@
 package com.citacita.controller;
 
+import com.citacita.dto.ChatDelta;
 import com.citacita.dto.ChatRequest;
 import com.citacita.dto.ResumeAnalysisResult;
+import com.citacita.service.ChatDeltaParser;
+import com.citacita.service.ChatStreamRelay;
 import com.citacita.service.ResumeAnalyzerService;
 import com.citacita.service.ResumeChatService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.FormFieldPart;
 import org.springframework.http.codec.multipart.Part;
@@ -30,6 +34,8 @@ public class ResumeController {
     private final ResumeAnalyzerService resumeAnalyzerService;
     private final ResumeChatService resumeChatService;
     private final ObjectMapper objectMapper;
+    private final ChatDeltaParser chatDeltaParser;
+    private final ChatStreamRelay chatStreamRelay;
     
     @PostMapping(value = "/resume-analyze", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public Mono<Map<String, Object>> analyzeResume(ServerWebExchange exchange) {
@@ -89,17 +95,31 @@ public class ResumeController {
     }
     
     @PostMapping(value = "/resume-chat", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> resumeChat(@RequestBody ChatRequest request) {
+    public Flux<ServerSentEvent<String>> resumeChat(@RequestBody ChatRequest request) {
         if (request.getMessages() == null || request.getMessages().isEmpty()) {
-            return Flux.just("data: {\"error\":\"消息列表不能为空\"}\n\n");
+            return Flux.just(ServerSentEvent.builder(chatDeltaParser.toChunk(ChatDelta.ofError("消息列表不能为空"))).build());
         }
         
-        // 直接返回service结果，不做任何额外处理
-        return resumeChatService.streamChat(request)
+        Map<String, Object> body;
+        try {
+            body = resumeChatService.buildRequestBody(request);
+        } catch (Exception e) {
+            log.error("ResumeChatService 处理失败: ", e);
+            return Flux.just(chatDeltaParser.toChunk(ChatDelta.ofContent("处理请求失败")), chatDeltaParser.toChunk(ChatDelta.ofDone()))
+                    .map(chunk -> ServerSentEvent.builder(chunk).build());
+        }
+        
+        Flux<ChatDelta> deltas = resumeChatService.streamChat(body)
                 .onErrorResume(e -> {
                     log.error("简历聊天失败", e);
-                    return Flux.just("data: {\"error\":\"简历聊天失败\"}\n\ndata: [DONE]\n\n");
+                    return Flux.just(ChatDelta.ofError("简历聊天失败"), ChatDelta.ofDone());
                 });
+        // 每个增量写成一条 data 行，包成 ServerSentEvent 是为了能发送心跳注释
+        return chatStreamRelay.relay("resume-chat", chatStreamRelay.completionBudget(body),
+                generated -> deltas
+                        .doOnNext(delta -> generated.accept(chatDeltaParser.completionTokens(delta)))
+                        .map(delta -> ServerSentEvent.builder(chatDeltaParser.toChunk(delta)).build()),
+                () -> ServerSentEvent.<String>builder().comment("ping").build());
     }
         
     @GetMapping("/health")
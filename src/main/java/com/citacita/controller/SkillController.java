@@ -2,12 +2,19 @@ package com.citacita.controller;
 
 import com.citacita.dto.ResultDTO;
 import com.citacita.dto.SkillLevelDTO;
+import com.citacita.repository.ReactiveSkillLevelRepository;
+import com.citacita.service.BlockingCallExecutor;
 import com.citacita.service.SkillService;
+import com.citacita.service.TaxonomyResponseCache;
 import jakarta.annotation.Resource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -17,17 +24,58 @@ public class SkillController {
     @Resource
     private SkillService skillService;
 
+    // MyBatis 调用是阻塞的，统一交给 BlockingCallExecutor 执行（按端点限流并记录耗时）
+    @Resource
+    private BlockingCallExecutor blockingCallExecutor;
+
+    // citacita.data.access=r2dbc 时存在：MASCO 快照未加载时查询直接走非阻塞驱动，快照可用时仍以内存视图和响应缓存为准
+    @Resource
+    private ObjectProvider<ReactiveSkillLevelRepository> reactiveSkillRepository;
+
+    // 静态分类数据按快照版本预序列化，带 ETag 支持 304
+    @Resource
+    private TaxonomyResponseCache taxonomyResponseCache;
+
 
     @GetMapping("/getSkillLevelByLang")
-    public ResultDTO<List<SkillLevelDTO>> getSkillLevelByLang(@RequestParam(name = "lang", defaultValue = "en") String lang) {
-        List<SkillLevelDTO> rows = skillService.getSkillsByLang(lang);
-        return ResultDTO.success(rows);
+    public Mono<ResponseEntity<?>> getSkillLevelByLang(@RequestParam(name = "lang", defaultValue = "en") String lang, ServerWebExchange exchange) {
+        String cacheKey = taxonomyResponseCache.skillListKey(lang);
+        ResponseEntity<?> cached = taxonomyResponseCache.lookup(exchange, cacheKey);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        ReactiveSkillLevelRepository repository = reactiveRepositoryWithoutSnapshot();
+        if (repository != null) {
+            long version = taxonomyResponseCache.currentVersion();
+            return repository.findByLang(lang).collectList()
+                    .map(rows -> taxonomyResponseCache.store(exchange, cacheKey, version, rows));
+        }
+        return blockingCallExecutor.execute("skill.list", () -> {
+            long version = taxonomyResponseCache.currentVersion();
+            List<SkillLevelDTO> rows = skillService.getSkillsByLang(lang);
+            return taxonomyResponseCache.store(exchange, cacheKey, version, rows);
+        });
     }
 
     @GetMapping("/getSkillLevelByLangAndId")
-    public ResultDTO<SkillLevelDTO> getSkillLevelByLangAndId(@RequestParam(name = "lang", defaultValue = "en") String lang, @RequestParam(name = "majorGroupCode") String majorGroupCode) {
-        SkillLevelDTO skillLevel = skillService.getSkillLevelByLangAndId(lang, majorGroupCode);
-        return ResultDTO.success(skillLevel);
+    public Mono<ResultDTO<SkillLevelDTO>> getSkillLevelByLangAndId(@RequestParam(name = "lang", defaultValue = "en") String lang, @RequestParam(name = "majorGroupCode") String majorGroupCode) {
+        ReactiveSkillLevelRepository repository = reactiveRepositoryWithoutSnapshot();
+        if (repository != null) {
+            return repository.findByLangAndMajorGroupCode(lang, majorGroupCode)
+                    .map(ResultDTO::success)
+                    .defaultIfEmpty(ResultDTO.success(null));
+        }
+        return blockingCallExecutor.execute("skill.detail", () -> {
+            SkillLevelDTO skillLevel = skillService.getSkillLevelByLangAndId(lang, majorGroupCode);
+            return ResultDTO.success(skillLevel);
+        });
+    }
+
+    /**
+     * R2DBC 只在 MASCO 快照尚未加载时使用；快照可用时走内存视图，结果按快照版本进入响应缓存
+     */
+    private ReactiveSkillLevelRepository reactiveRepositoryWithoutSnapshot() {
+        return taxonomyResponseCache.currentVersion() == 0 ? reactiveSkillRepository.getIfAvailable() : null;
     }
 
 }
\ No newline at end of file
@@ -1,8 +1,20 @@
 package com.citacita.controller;
 
+import com.citacita.dto.ChatDelta;
 import com.citacita.service.AzureStreamService;
-import com.citacita.service.EnhancedFAQRAGService;
+import com.citacita.service.BudgetedRagRetriever;
+import com.citacita.service.ChatDeltaParser;
+import com.citacita.service.ChatStreamRelay;
+import com.citacita.service.ConversationCompactor;
+import com.citacita.service.ConversationLanguageCache;
+import com.citacita.service.SemanticAnswerCache;
+import com.citacita.service.UpstreamUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -11,51 +23,174 @@ import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api")
+@Slf4j
 public class StreamChatController {
 
+    // RAG 调试输出，按采样率记录（见 logback-spring.xml）
+    private static final Logger RAG_DEBUG = LoggerFactory.getLogger("com.citacita.rag.debug");
+
     private final AzureStreamService azureStreamService;
-    private final EnhancedFAQRAGService ragService;
+    private final BudgetedRagRetriever ragRetriever;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final ConversationLanguageCache conversationLanguageCache;
+    private final ChatDeltaParser chatDeltaParser;
+    private final ChatStreamRelay chatStreamRelay;
+    private final ConversationCompactor conversationCompactor;
 
     public StreamChatController(AzureStreamService azureStreamService,
-                                EnhancedFAQRAGService ragService) {
+                                BudgetedRagRetriever ragRetriever,
+                                SemanticAnswerCache semanticAnswerCache,
+                                ConversationLanguageCache conversationLanguageCache,
+                                ChatDeltaParser chatDeltaParser,
+                                ChatStreamRelay chatStreamRelay,
+                                ConversationCompactor conversationCompactor) {
         this.azureStreamService = azureStreamService;
-        this.ragService = ragService;
+        this.ragRetriever = ragRetriever;
+        this.semanticAnswerCache = semanticAnswerCache;
+        this.conversationLanguageCache = conversationLanguageCache;
+        this.chatDeltaParser = chatDeltaParser;
+        this.chatStreamRelay = chatStreamRelay;
+        this.conversationCompactor = conversationCompactor;
     }
 
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    // 透传模式：上游 SSE 字节直接转发给客户端；关闭后回退为逐条解码再由 Spring 重新编码
+    @Value("${citacita.chat.passthrough.enabled:true}")
+    private boolean passthrough;
+
     /**
      * Chat Completions SSE - 带 RAG 增强
      */
     @PostMapping(value = "/stream-chat", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> streamChat(@RequestBody Map<String, Object> body) {
+    public Flux<DataBuffer> streamChat(@RequestBody Map<String, Object> body,
+                                   @RequestHeader(value = "X-Conversation-Id", required = false) String conversationId) {
+        // 客户端断开时取消沿链路传到上游请求；空闲时发心跳，慢客户端的缓冲有上限
+        return chatStreamRelay.relay("stream-chat", chatStreamRelay.completionBudget(body),
+                generated -> chatDeltaParser.tapCompletionTokens(answerChat(body, conversationId), generated),
+                () -> DefaultDataBufferFactory.sharedInstance.wrap(HEARTBEAT));
+    }
+
+    private Flux<DataBuffer> answerChat(Map<String, Object> body, String conversationId) {
         // 1. 提取用户最新消息
         String userQuery = extractLatestUserMessage(body);
 
         // 2. 如果没有用户消息，直接调用原始服务
         if (userQuery == null || userQuery.trim().isEmpty()) {
-            return azureStreamService.streamChat(body);
+            return withFallback(relayChat(conversationCompactor.compact("stream-chat", conversationId, body)),
+                    null, extractLanguageFromRequest(body));
         }
 
-        // 3. 从前端获取语言设置
-        String frontendLanguage = extractLanguageFromRequest(body);
+        // 3. 结合前端语言设置、会话历史和当前消息解析本轮语言（使用完整历史）
+        String language = resolveLanguage(body, conversationId);
+        boolean cacheable = semanticAnswerCache.isCacheable(body);
 
-        // 4. 进行 RAG 检索，然后注入内容
-        return ragService.retrieveRelevantContent(userQuery)
-                .map(ragContent -> injectRAGContent(body, ragContent, frontendLanguage))
-                .flatMapMany(enhancedBody -> azureStreamService.streamChat(enhancedBody))
+        // 4. 压缩历史后进行 RAG 检索，然后注入内容（单轮问题可命中语义缓存）
+        Map<String, Object> compacted = conversationCompactor.compact("stream-chat", conversationId, body);
+        // 只有 RAG 检索失败才降级到原始聊天；上游聊天本身的错误不在这里重发请求
+        // 检索有时限，超时使用缓存或部分上下文，不再等待数据库检索
+        return ragRetriever.retrieve(userQuery, language)
+                .map(Optional::of)
                 .onErrorResume(error -> {
-                    // RAG 失败时，降级到原始聊天
-                    System.err.println("RAG failed, fallback to normal chat: " + error.getMessage());
-                    return azureStreamService.streamChat(body);
+                    log.warn("RAG failed, fallback to normal chat: {}", error.getMessage());
+                    return Mono.just(Optional.empty());
+                })
+                .flatMapMany(rag -> {
+                    if (rag.isEmpty()) {
+                        return withFallback(relayChat(compacted), null, language);
+                    }
+                    String ragContent = rag.get();
+                    Map<String, Object> enhancedBody = injectRAGContent(compacted, ragContent, language);
+                    Flux<DataBuffer> answer;
+                    if (!cacheable) {
+                        answer = relayChat(enhancedBody);
+                    } else {
+                        // 语义缓存需要按条记录回答，走字符串解码路径
+                        answer = toServerSentEvents(semanticAnswerCache.lookupOrRecord(language,
+                                Objects.toString(body.get("model"), null),
+                                userQuery, ragContent, () -> azureStreamService.streamChat(enhancedBody)));
+                    }
+                    return withFallback(answer, ragContent, language);
                 });
     }
 
+    /**
+     * 上游在首个事件前不可用（重试耗尽、熔断打开或本地配额不足）时，直接返回提示语和检索到的资料
+     */
+    private Flux<DataBuffer> withFallback(Flux<DataBuffer> answer, String ragContent, String language) {
+        return answer.onErrorResume(UpstreamUnavailableException.class, error -> {
+            log.warn("OpenAI unavailable, answering without the model: {}", error.getMessage());
+            return toServerSentEvents(ragOnlyAnswer(ragContent, language));
+        });
+    }
+
+    /**
+     * 不经过模型的降级回答：提示语 + 检索资料，格式与上游 chunk 一致
+     */
+    private Flux<String> ragOnlyAnswer(String ragContent, String language) {
+        String notice = switch (language) {
+            case "chinese" -> "AI 助手暂时繁忙，以下是与您的问题相关的资料：";
+            case "malay" -> "Pembantu AI sedang sibuk. Berikut ialah maklumat yang berkaitan dengan soalan anda:";
+            default -> "The AI assistant is busy right now. Here is information related to your question:";
+        };
+        String content = (ragContent == null || ragContent.isBlank()) ? notice : notice + "\n\n" + ragContent;
+        ChatDelta finish = new ChatDelta();
+        finish.setFinishReason("stop");
+        return Flux.just(
+                chatDeltaParser.toChunk(ChatDelta.ofContent(content)),
+                chatDeltaParser.toChunk(finish),
+                chatDeltaParser.toChunk(ChatDelta.ofDone()));
+    }
+
+    private Flux<DataBuffer> relayChat(Map<String, Object> body) {
+        return passthrough
+                ? azureStreamService.streamChatRaw(body)
+                : toServerSentEvents(azureStreamService.streamChat(body));
+    }
+
+    /**
+     * 按 Spring SSE 编码器的格式把每条数据写成 data: 行
+     */
+    private static Flux<DataBuffer> toServerSentEvents(Flux<String> chunks) {
+        return chunks.map(chunk -> {
+            StringBuilder event = new StringBuilder(chunk.length() + 8);
+            for (String line : chunk.split("\n", -1)) {
+                event.append("data:").append(line).append('\n');
+            }
+            event.append('\n');
+            return DefaultDataBufferFactory.sharedInstance.wrap(event.toString().getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    /**
+     * 解析本轮对话语言，返回后端语言标识（english / chinese / malay）
+     */
+    private String resolveLanguage(Map<String, Object> body, String conversationId) {
+        try {
+            @SuppressWarnings("unchecked")
+            List<Map<String, String>> messages = (List<Map<String, String>>) body.get("messages");
+            Object frontendLang = body.get("language");
+            return conversationLanguageCache
+                    .resolve(conversationId, frontendLang instanceof String ? (String) frontendLang : null, messages)
+                    .getKey();
+        } catch (Exception e) {
+            log.warn("Error resolving conversation language: {}", e.getMessage());
+            return extractLanguageFromRequest(body);
+        }
+    }
+
     /**
      * 将前端语言代码映射到后端语言标识
      */
@@ -82,7 +217,7 @@ public class StreamChatController {
                 return mapFrontendLanguageToBackend(frontendLang);
             }
         } catch (Exception e) {
-            System.err.println("Error extracting language from request: " + e.getMessage());
+            log.warn("Error extracting language from request: {}", e.getMessage());
         }
 
         // 默认返回英语
@@ -109,95 +244,95 @@ public class StreamChatController {
                 }
             }
         } catch (Exception e) {
-            System.err.println("Error extracting user message: " + e.getMessage());
+            log.warn("Error extracting user message: {}", e.getMessage());
         }
 
         return null;
     }
 
     /**
-     * 将 RAG 内容注入到消息体中 - 现在使用前端传来的语言设置
+     * 将 RAG 内容注入到消息体中 - 现在使用前端传来的语言设置。
+     * 布局：[固定系统前缀] + 原始消息（前端的系统消息和历史原样保留）+ [RAG 资料] + 最新用户消息。
+     * 前缀对同一语言逐字节相同，历史也不再被改写，上游的提示词前缀缓存可以覆盖到最新一轮之前的全部内容。
      */
     private Map<String, Object> injectRAGContent(Map<String, Object> originalBody, String ragContent, String language) {
-        // 深拷贝原始 body
         Map<String, Object> enhancedBody = new HashMap<>(originalBody);
 
         @SuppressWarnings("unchecked")
         List<Map<String, String>> originalMessages = (List<Map<String, String>>) originalBody.get("messages");
-        List<Map<String, String>> enhancedMessages = new ArrayList<>();
+        List<Map<String, String>> enhancedMessages = new ArrayList<>(originalMessages.size() + 2);
 
-        // 复制所有消息
-        for (Map<String, String> msg : originalMessages) {
-            enhancedMessages.add(new HashMap<>(msg));
-        }
+        enhancedMessages.add(systemMessage(systemPrefix(language)));
+        enhancedMessages.addAll(originalMessages);
 
-        // 使用前端传来的语言设置注入 RAG 内容
-        injectAsSystemMessage(enhancedMessages, ragContent, language);
-        // 使用前端传来的语言设置注入 RAG 内容
-        injectAsSystemMessage(enhancedMessages, ragContent, language);
+        // RAG 资料作为单独的系统消息放在最新用户消息之前
+        int latestUser = enhancedMessages.size();
+        for (int i = enhancedMessages.size() - 1; i > 0; i--) {
+            if ("user".equals(enhancedMessages.get(i).get("role"))) {
+                latestUser = i;
+                break;
+            }
+        }
+        enhancedMessages.add(latestUser, systemMessage(getReferenceLabel(language) + "\n" + ragContent));
 
         enhancedBody.put("messages", enhancedMessages);
 
-        // 调试：打印使用的语言和增强后的消息
-        System.out.println("=== Using Frontend Language: " + language + " ===");
-        // 调试：打印使用的语言和增强后的消息
-        System.out.println("=== Using Frontend Language: " + language + " ===");
-        System.out.println("=== RAG Enhanced Messages ===");
-        enhancedMessages.forEach(msg ->
-                System.out.println(msg.get("role") + ": " +
-                        (msg.get("content").length() > 300 ?
-                                msg.get("content").substring(0, 300) + "..." :
-                                msg.get("content"))
-                )
-        );
+        // 调试：打印使用的语言和增强后的消息（仅在 DEBUG 级别且被采样时才会格式化）
+        RAG_DEBUG.debug("RAG Enhanced Messages (language={}):\n{}", language, lazy(() -> summarizeMessages(enhancedMessages)));
 
         return enhancedBody;
     }
 
-    private void injectAsSystemMessage(List<Map<String, String>> messages, String ragContent, String language) {
-        boolean hasSystemMessage = messages.stream()
-                .anyMatch(msg -> "system".equals(msg.get("role")));
-
-        String systemContent = generateSystemContent(ragContent, language);
-
-        if (hasSystemMessage) {
-            for (Map<String, String> msg : messages) {
-                if ("system".equals(msg.get("role"))) {
-                    // 如果已有系统消息，追加RAG内容
-                    String existingContent = msg.get("content");
-                    String languageInstruction = getLanguageInstruction(language);
-
-                    systemContent = existingContent + "\n\n" + languageInstruction + "\n\n" +
-                            getReferenceLabel(language) + "\n" + ragContent;
-                    msg.put("content", systemContent);
-                    break;
-                }
+    private String summarizeMessages(List<Map<String, String>> messages) {
+        StringBuilder summary = new StringBuilder();
+        for (Map<String, String> msg : messages) {
+            String content = msg.get("content");
+            summary.append(msg.get("role")).append(": ");
+            if (content != null && content.length() > 300) {
+                summary.append(content, 0, 300).append("...");
+            } else {
+                summary.append(content);
             }
-        } else {
-            // 创建新的系统消息
-            Map<String, String> systemMessage = new HashMap<>();
-            systemMessage.put("role", "system");
-            systemMessage.put("content", systemContent);
-
-            messages.add(0, systemMessage);
+            summary.append('\n');
         }
+        return summary.toString();
+    }
+
+    private static Object lazy(Supplier<String> supplier) {
+        return new Object() {
+            @Override
+            public String toString() {
+                return supplier.get();
+            }
+        };
     }
 
     /**
-     * 根据前端传来的语言生成系统内容
+     * 固定的系统前缀，按语言预先生成，不包含任何请求相关的内容
      */
-    private String generateSystemContent(String ragContent, String language) {
-        String baseInstruction = getBaseInstruction(language);
-        String languageInstruction = getLanguageInstruction(language);
-        String referenceLabel = getReferenceLabel(language);
+    private static final Map<String, String> SYSTEM_PREFIXES = Map.of(
+            "english", getBaseInstruction("english") + "\n\n" + getLanguageInstruction("english"),
+            "chinese", getBaseInstruction("chinese") + "\n\n" + getLanguageInstruction("chinese"),
+            "malay", getBaseInstruction("malay") + "\n\n" + getLanguageInstruction("malay"));
+
+    private static String systemPrefix(String language) {
+        return SYSTEM_PREFIXES.getOrDefault(language, SYSTEM_PREFIXES.get("english"));
+    }
 
-        return baseInstruction + "\n\n" + languageInstruction + "\n\n" + referenceLabel + "\n" + ragContent;
+    /**
+     * role 在前、content 在后，保证序列化结果稳定
+     */
+    private static Map<String, String> systemMessage(String content) {
+        Map<String, String> message = new LinkedHashMap<>();
+        message.put("role", "system");
+        message.put("content", content);
+        return message;
     }
 
     /**
      * 获取基础指令
      */
-    private String getBaseInstruction(String language) {
+    private static String getBaseInstruction(String language) {
         switch (language) {
             case "chinese":
                 return "你是 CitaCita 的智能助手。请基于以下相关资料回答用户问题：";
@@ -212,7 +347,7 @@ public class StreamChatController {
     /**
      * 获取语言限定指令
      */
-    private String getLanguageInstruction(String language) {
+    private static String getLanguageInstruction(String language) {
         switch (language) {
             case "chinese":
                 return "请确保你的回答使用中文。";
@@ -227,7 +362,7 @@ public class StreamChatController {
     /**
      * 获取参考资料标签
      */
-    private String getReferenceLabel(String language) {
+    private static String getReferenceLabel(String language) {
         switch (language) {
             case "chinese":
                 return "[相关资料]";
@@ -274,7 +409,7 @@ public class StreamChatController {
      */
     @PostMapping(value = "/pronunciation-evaluation", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public Mono<Map<String, Object>> pronunciationEvaluation(@RequestPart("audio") Mono<FilePart> filePartMono, @RequestPart("language") String lang) {
-        System.out.println("Pronunciation Evaluation Language: " + lang);
+        log.debug("Pronunciation Evaluation Language: {}", lang);
         switch (lang) {
             case "zh-CN":
                 lang = "zh-CN";
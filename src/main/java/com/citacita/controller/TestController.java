@@ -1,9 +1,11 @@
 package com.citacita.controller;
 
 import com.citacita.dto.ResultDTO;
+import com.citacita.service.BlockingCallExecutor;
 import com.citacita.service.TestService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -11,16 +13,20 @@ import java.util.List;
 @RequestMapping("/api/test")
 public class TestController {
     private final TestService testService;
+    private final BlockingCallExecutor blockingCallExecutor;
 
     @Autowired
-    public TestController(TestService testService) {
+    public TestController(TestService testService, BlockingCallExecutor blockingCallExecutor) {
         this.testService = testService;
+        this.blockingCallExecutor = blockingCallExecutor;
     }
 
     @GetMapping("/testTable")
-    public ResultDTO<?> testTable() {
-        List<?> rows = testService.getAllRows();
-        return ResultDTO.success(rows);
+    public Mono<ResultDTO<?>> testTable() {
+        return blockingCallExecutor.<ResultDTO<?>>execute("test.table", () -> {
+            List<?> rows = testService.getAllRows();
+            return ResultDTO.success(rows);
+        });
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package com.citacita.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Chat Completions 流式响应中的一个增量事件（只保留下游关心的字段）
+ */
+@Data
+@NoArgsConstructor
+public class ChatDelta {
+    /**
+     * choices[0].delta.content，没有内容时为 null
+     */
+    private String content;
+    /**
+     * choices[0].finish_reason（stop / length / content_filter ...）
+     */
+    private String finishReason;
+    /**
+     * 最后一个事件携带的用量统计（需要请求 stream_options.include_usage）
+     */
+    private Usage usage;
+    /**
+     * 上游或本服务返回的错误信息
+     */
+    private String error;
+    /**
+     * 收到 [DONE] 结束标记
+     */
+    private boolean done;
+
+    public static ChatDelta ofContent(String content) {
+        ChatDelta delta = new ChatDelta();
+        delta.setContent(content);
+        return delta;
+    }
+
+    public static ChatDelta ofError(String error) {
+        ChatDelta delta = new ChatDelta();
+        delta.setError(error);
+        return delta;
+    }
+
+    public static ChatDelta ofDone() {
+        ChatDelta delta = new ChatDelta();
+        delta.setDone(true);
+        return delta;
+    }
+
+    public boolean hasContent() {
+        return content != null && !content.isEmpty();
+    }
+
+    /**
+     * include_usage 附加的最后一个 chunk：choices 为空，只有用量
+     */
+    public boolean hasOnlyUsage() {
+        return usage != null && content == null && finishReason == null && error == null && !done;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Usage {
+        private int promptTokens;
+        private int completionTokens;
+        private int totalTokens;
+        /**
+         * prompt_tokens_details.cached_tokens：命中上游提示词前缀缓存的 token 数
+         */
+        private int cachedTokens;
+    }
+}
@@ -0,0 +1,21 @@
+package com.citacita.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobBatchDTO {
+    /**
+     * 找到的工作详情，按请求中第一次出现的顺序，重复的代码只返回一次
+     */
+    private List<JobDTO> items;
+    /**
+     * 不存在的代码（去重，按请求顺序），没有时为空列表
+     */
+    private List<String> missing;
+}
@@ -0,0 +1,11 @@
+package com.citacita.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class JobBatchRequest {
+    private String lang;
+    private List<String> unitGroupCodes;
+}
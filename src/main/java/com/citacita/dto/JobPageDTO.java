@@ -0,0 +1,14 @@
+package com.citacita.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class JobPageDTO {
+    private List<JobDTO> items;
+    /**
+     * 下一页的游标（本页最后一条的 unitGroupCode），没有更多数据时为 null
+     */
+    private String nextCursor;
+}
@@ -3,6 +3,7 @@ package com.citacita.mapper;
 import com.citacita.entity.MascoJob;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.cursor.Cursor;
 
 import java.util.List;
 
@@ -73,4 +74,19 @@ public interface MascoJobMapper {
      * 根据unit_group_code获取单个记录（用于快速查找）
      */
     MascoJob selectByUnitGroupCode(@Param("unitGroupCode") String unitGroupCode);
+
+    /**
+     * 键集分页（按语言投影），afterCode 为空时从头开始
+     */
+    List<MascoJob> selectJobsAfterCode(@Param("lang") String lang, @Param("afterCode") String afterCode, @Param("limit") int limit);
+
+    /**
+     * 以游标方式流式读取全部记录（按语言投影），调用方负责在读取完毕后关闭 SqlSession
+     */
+    Cursor<MascoJob> scanAllByLang(@Param("lang") String lang);
+
+    /**
+     * 基于 FULLTEXT 索引的多语言搜索（MATCH ... AGAINST 相关度排序）
+     */
+    List<MascoJob> searchJobsByFulltext(@Param("keywords") String keywords, @Param("lang") String lang, @Param("limit") int limit);
 }
@@ -0,0 +1,130 @@
+package com.citacita.repository;
+
+import com.citacita.dto.JobDTO;
+import io.r2dbc.spi.Readable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * masco_job 的非阻塞只读查询，与 MascoJobMapper.xml 中对应语句的字段投影保持一致。
+ * 查询参数为空时直接返回空结果（与 MyBatis 中 {@code = NULL} 查不到记录一致），不绑定 null。
+ * <p>
+ * 只在 MASCO 快照加载完成之前承接流量（启动阶段或快照刷新一直失败时）；快照可用后列表、详情、批量查询都由内存视图提供，
+ * 此后只有模糊搜索 autoComplete 仍走这里
+ */
+@Repository
+@ConditionalOnProperty(name = "citacita.data.access", havingValue = "r2dbc")
+public class ReactiveMascoJobRepository {
+
+    private static final String LIST_COLUMNS =
+            "unit_group_code, major_group_code, sub_major_group_code, minor_group_code, "
+            + "major_group_title%1$s AS major_group_title, "
+            + "sub_major_group_title%1$s AS sub_major_group_title, "
+            + "minor_group_title%1$s AS minor_group_title, "
+            + "unit_group_title%1$s AS unit_group_title";
+
+    private static final String DETAIL_COLUMNS = LIST_COLUMNS + ", "
+            + "unit_group_description%1$s AS unit_group_description, "
+            + "tasks_include%1$s AS tasks_include, "
+            + "examples%1$s AS examples, "
+            + "skill_level%1$s AS skill_level";
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveMascoJobRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Flux<JobDTO> findByMajorGroupCode(String lang, String majorGroupCode) {
+        if (majorGroupCode == null) {
+            return Flux.empty();
+        }
+        return databaseClient.sql("SELECT " + LIST_COLUMNS.formatted(suffix(lang))
+                        + " FROM masco_job WHERE major_group_code = :majorGroupCode")
+                .bind("majorGroupCode", majorGroupCode)
+                .map(ReactiveMascoJobRepository::toListDto)
+                .all();
+    }
+
+    public Mono<JobDTO> findByUnitGroupCode(String lang, String unitGroupCode) {
+        if (unitGroupCode == null) {
+            return Mono.empty();
+        }
+        return databaseClient.sql("SELECT " + DETAIL_COLUMNS.formatted(suffix(lang))
+                        + " FROM masco_job WHERE unit_group_code = :unitGroupCode")
+                .bind("unitGroupCode", unitGroupCode)
+                .map(ReactiveMascoJobRepository::toDetailDto)
+                .first();
+    }
+
+    /**
+     * 按 unit_group_code 批量查询详情，一条 IN 语句取回；返回顺序按编码排序，调用方自行按请求顺序整理
+     */
+    public Flux<JobDTO> findByUnitGroupCodes(String lang, List<String> unitGroupCodes) {
+        if (unitGroupCodes == null || unitGroupCodes.isEmpty()) {
+            return Flux.empty();
+        }
+        return databaseClient.sql("SELECT " + DETAIL_COLUMNS.formatted(suffix(lang))
+                        + " FROM masco_job WHERE unit_group_code IN (:codes) ORDER BY unit_group_code")
+                .bind("codes", unitGroupCodes)
+                .map(ReactiveMascoJobRepository::toDetailDto)
+                .all();
+    }
+
+    public Flux<JobDTO> findByUnitGroupTitle(String lang, String unitGroupTitle) {
+        if (unitGroupTitle == null) {
+            return Flux.empty();
+        }
+        String suffix = suffix(lang);
+        return databaseClient.sql("SELECT unit_group_code, unit_group_title" + suffix + " AS unit_group_title"
+                        + " FROM masco_job WHERE unit_group_title" + suffix + " LIKE CONCAT('%', :title, '%')")
+                .bind("title", unitGroupTitle)
+                .map(row -> {
+                    JobDTO dto = new JobDTO();
+                    dto.setUnitGroupCode(row.get("unit_group_code", String.class));
+                    dto.setUnitGroupTitle(row.get("unit_group_title", String.class));
+                    return dto;
+                })
+                .all();
+    }
+
+    /**
+     * 语言代码对应的列后缀（en / zh-CN / ms），只会返回固定值，不会把参数拼进 SQL
+     */
+    static String suffix(String lang) {
+        if ("ms".equals(lang)) {
+            return "_malay";
+        }
+        if ("zh-CN".equals(lang)) {
+            return "_chinese";
+        }
+        return "";
+    }
+
+    private static JobDTO toListDto(Readable row) {
+        JobDTO dto = new JobDTO();
+        dto.setUnitGroupCode(row.get("unit_group_code", String.class));
+        dto.setMajorGroupCode(row.get("major_group_code", String.class));
+        dto.setSubMajorGroupCode(row.get("sub_major_group_code", String.class));
+        dto.setMinorGroupCode(row.get("minor_group_code", String.class));
+        dto.setMajorGroupTitle(row.get("major_group_title", String.class));
+        dto.setSubMajorGroupTitle(row.get("sub_major_group_title", String.class));
+        dto.setMinorGroupTitle(row.get("minor_group_title", String.class));
+        dto.setUnitGroupTitle(row.get("unit_group_title", String.class));
+        return dto;
+    }
+
+    private static JobDTO toDetailDto(Readable row) {
+        JobDTO dto = toListDto(row);
+        dto.setUnitGroupDescription(row.get("unit_group_description", String.class));
+        dto.setTasksInclude(row.get("tasks_include", String.class));
+        dto.setExamples(row.get("examples", String.class));
+        dto.setSkillLevel(row.get("skill_level", String.class));
+        return dto;
+    }
+}
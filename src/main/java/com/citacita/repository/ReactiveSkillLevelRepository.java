@@ -0,0 +1,56 @@
+package com.citacita.repository;
+
+import com.citacita.dto.SkillLevelDTO;
+import io.r2dbc.spi.Readable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * major_group_skill_levels 的非阻塞只读查询，与 MajorGroupSkillLevelsMapper.xml 保持一致。
+ * 查询参数为空时直接返回空结果，不绑定 null
+ */
+@Repository
+@ConditionalOnProperty(name = "citacita.data.access", havingValue = "r2dbc")
+public class ReactiveSkillLevelRepository {
+
+    private static final String COLUMNS = "major_group_code, "
+            + "major_group_title%1$s AS major_group_title, "
+            + "education_level%1$s AS education_level, "
+            + "skill_level%1$s AS skill_level";
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveSkillLevelRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Flux<SkillLevelDTO> findByLang(String lang) {
+        return databaseClient.sql("SELECT " + COLUMNS.formatted(ReactiveMascoJobRepository.suffix(lang))
+                        + " FROM major_group_skill_levels")
+                .map(ReactiveSkillLevelRepository::toDto)
+                .all();
+    }
+
+    public Mono<SkillLevelDTO> findByLangAndMajorGroupCode(String lang, String majorGroupCode) {
+        if (majorGroupCode == null) {
+            return Mono.empty();
+        }
+        return databaseClient.sql("SELECT " + COLUMNS.formatted(ReactiveMascoJobRepository.suffix(lang))
+                        + " FROM major_group_skill_levels WHERE major_group_code = :majorGroupCode")
+                .bind("majorGroupCode", majorGroupCode)
+                .map(ReactiveSkillLevelRepository::toDto)
+                .first();
+    }
+
+    private static SkillLevelDTO toDto(Readable row) {
+        SkillLevelDTO dto = new SkillLevelDTO();
+        dto.setMajorGroupCode(row.get("major_group_code", String.class));
+        dto.setMajorGroupTitle(row.get("major_group_title", String.class));
+        dto.setEducationLevel(row.get("education_level", String.class));
+        dto.setSkillLevel(row.get("skill_level", String.class));
+        return dto;
+    }
+}
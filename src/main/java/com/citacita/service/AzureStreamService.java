@@ -1,8 +1,11 @@
 package com.citacita.service;
 
+import com.citacita.config.UpstreamHttpClients;
+import com.citacita.dto.ChatDelta;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.buffer.DataBuffer;
@@ -13,44 +16,66 @@ import org.springframework.http.client.MultipartBodyBuilder;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.CoreSubscriber;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 
 @Service
+@Slf4j
 public class AzureStreamService {
 
-    private final WebClient openAiClient;
     private final WebClient speechClient;
     private final WebClient ttsClient;
     private final WebClient sttClient;
+    private final ChatDeltaParser chatDeltaParser;
+    private final OpenAiResilience openAiResilience;
+    private final OpenAiEndpointPool openAiEndpoints;
+    private final LlmAdmissionController admission;
+    private final ChatUsageMetrics usageMetrics;
+
+    // 是否把 Azure 返回的 ’ 规范化为 '（与 cleanAzureResponse 一致）
+    @Value("${citacita.chat.normalize-quotes:true}")
+    private boolean normalizeQuotes;
+
+    // 流式请求附带 stream_options.include_usage，最后一个 chunk 返回用量（含缓存命中的 token 数）；
+    // 这个 choices 为空的 chunk 只用于指标，不转发给客户端、不写入语义缓存（客户端自己带 stream_options 时原样转发）
+    @Value("${citacita.openai.include-usage:true}")
+    private boolean includeUsage;
 
 
     public AzureStreamService(
-            @Value("${azure.openai.endpoint}") String openAiEndpoint,
-            @Value("${azure.openai.apiKey}") String openAiKey,
             @Value("${azure.speech.endpoint}") String speechEndpoint,
             @Value("${azure.speech.apiKey}") String speechKey,
             @Value("${azure.tts.endpoint}") String ttsEndpoint,
             @Value("${azure.tts.apiKey}") String ttsKey,
             @Value("${azure.stt.endpoint}") String sttEndpoint,
-            @Value("${azure.stt.apiKey}") String sttKey
+            @Value("${azure.stt.apiKey}") String sttKey,
+            UpstreamHttpClients httpClients,
+            ChatDeltaParser chatDeltaParser,
+            OpenAiResilience openAiResilience,
+            OpenAiEndpointPool openAiEndpoints,
+            LlmAdmissionController admission,
+            ChatUsageMetrics usageMetrics
     ) {
-        // OpenAI Chat Completions
-        this.openAiClient = WebClient.builder()
-                .baseUrl(openAiEndpoint)
-                .defaultHeader("Authorization", "Bearer " + openAiKey)
-                .defaultHeader("Content-Type", "application/json")
-                .build();
+        this.admission = admission;
+        this.usageMetrics = usageMetrics;
+        this.openAiEndpoints = openAiEndpoints;
+        this.chatDeltaParser = chatDeltaParser;
+        this.openAiResilience = openAiResilience;
+
+        // OpenAI Chat Completions 的客户端由 OpenAiEndpointPool 按端点创建
 
         // Azure Speech-to-Text
         this.speechClient = WebClient.builder()
                 .baseUrl(speechEndpoint)
+                .clientConnector(httpClients.connector("speech", speechEndpoint))
                 .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader("Ocp-Apim-Subscription-Key", speechKey)
                 .build();
@@ -58,12 +83,14 @@ public class AzureStreamService {
         // Azure Text-to-Speech
         this.ttsClient = WebClient.builder()
                 .baseUrl(ttsEndpoint)
+                .clientConnector(httpClients.connector("tts", ttsEndpoint))
                 .defaultHeader("Ocp-Apim-Subscription-Key", ttsKey)
                 .build();
 
         // Azure Speech-to-Text
         this.sttClient = WebClient.builder()
                 .baseUrl(sttEndpoint)
+                .clientConnector(httpClients.connector("stt", sttEndpoint))
                 .defaultHeader("Ocp-Apim-Subscription-Key", sttKey)
                 .build();
     }
@@ -72,25 +99,124 @@ public class AzureStreamService {
      * 调用 Azure OpenAI Chat
      */
     public Flux<String> streamChat(Map<String, Object> body) {
-        return openAiClient.post()
-                .uri("/models/chat/completions?api-version=2024-05-01-preview")
-                .bodyValue(body)
-                .accept(MediaType.TEXT_EVENT_STREAM)
-                .retrieve()
-                .onStatus(
-                        HttpStatusCode::isError,
-                        clientResponse -> clientResponse.bodyToMono(String.class)
-                                .flatMap(errorBody -> {
-                                    System.err.println("OpenAI API Error: " + errorBody);
-                                    return Mono.error(new RuntimeException("OpenAI API failed: " + errorBody));
-                                })
-                )
-                .bodyToFlux(String.class)
-                .map(this::cleanAzureResponse);
+        boolean dropUsageOnly = addsUsage(body);
+        Map<String, Object> request = withUsage(body);
+        return admission.admit(request, () -> openAiResilience.stream("chat", () -> openAiEndpoints.stream(openAiClient -> openAiClient.post()
+                        .uri("/models/chat/completions?api-version=2024-05-01-preview")
+                        .bodyValue(request)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .retrieve()
+                        .onStatus(HttpStatusCode::isError, this::openAiError)
+                        .bodyToFlux(String.class)),
+                        // 对冲请求同样消耗上游配额，再经过一次准入控制
+                        hedge -> admission.admit(request, () -> hedge)))
+                .handle((chunk, sink) -> {
+                    if (chunk.contains("\"usage\":{")) {
+                        ChatDelta delta = chatDeltaParser.parse(chunk);
+                        if (delta != null) {
+                            usageMetrics.record("chat", delta.getUsage());
+                            if (dropUsageOnly && delta.hasOnlyUsage()) {
+                                return;
+                            }
+                        }
+                    }
+                    sink.next(cleanAzureResponse(chunk));
+                });
+    }
+
+    /**
+     * 调用 Azure OpenAI Chat，直接转发上游 SSE 字节流，不再逐条解码为字符串。
+     * 引号规范化（与 cleanAzureResponse 相同的规则）在字节层面流式完成，未命中的分片零拷贝透传。
+     */
+    public Flux<DataBuffer> streamChatRaw(Map<String, Object> body) {
+        Flux<DataBuffer> upstream = rawChat(body);
+        if (addsUsage(body)) {
+            upstream = chatDeltaParser.dropUsageOnlyEvents(upstream);
+        }
+        return normalizeQuotes ? QuoteNormalizer.normalize(upstream) : upstream;
+    }
+
+    /**
+     * 调用 Azure OpenAI Chat，直接在上游字节流上分帧解析出增量事件（内容、结束原因、错误、[DONE]），
+     * 不经过逐条字符串解码和再解析；本服务附加的用量 chunk 已记录到指标，不再下发
+     */
+    public Flux<ChatDelta> streamChatDeltas(Map<String, Object> body) {
+        boolean dropUsageOnly = addsUsage(body);
+        Flux<DataBuffer> upstream = rawChat(body);
+        Flux<ChatDelta> deltas = chatDeltaParser.parse(normalizeQuotes ? QuoteNormalizer.normalize(upstream) : upstream);
+        return dropUsageOnly ? deltas.filter(delta -> !delta.hasOnlyUsage()) : deltas;
+    }
+
+    private Flux<DataBuffer> rawChat(Map<String, Object> body) {
+        Map<String, Object> request = withUsage(body);
+        Flux<DataBuffer> upstream = admission.admit(request, () -> openAiResilience.stream("chat", () -> openAiEndpoints.stream(openAiClient -> openAiClient.post()
+                        .uri("/models/chat/completions?api-version=2024-05-01-preview")
+                        .bodyValue(request)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .retrieve()
+                        .onStatus(HttpStatusCode::isError, this::openAiError)
+                        .bodyToFlux(DataBuffer.class)),
+                        // 对冲请求同样消耗上游配额，再经过一次准入控制
+                        hedge -> admission.admit(request, () -> hedge)));
+        return chatDeltaParser.tapUsage(upstream, usage -> usageMetrics.record("chat", usage));
+    }
+
+    /**
+     * 是否由本服务附加 include_usage（此时用量 chunk 只供指标使用）
+     */
+    private boolean addsUsage(Map<String, Object> body) {
+        return includeUsage && !body.containsKey("stream_options");
+    }
+
+    private Map<String, Object> withUsage(Map<String, Object> body) {
+        if (!addsUsage(body)) {
+            return body;
+        }
+        Map<String, Object> request = new HashMap<>(body);
+        request.put("stream_options", Map.of("include_usage", true));
+        return request;
+    }
+
+    /**
+     * OpenAI 错误响应转换为带状态码和 Retry-After 的异常，供重试与熔断判断
+     */
+    private Mono<Throwable> openAiError(ClientResponse clientResponse) {
+        HttpHeaders headers = clientResponse.headers().asHttpHeaders();
+        Duration retryAfter = parseRetryAfter(headers);
+        int status = clientResponse.statusCode().value();
+        return clientResponse.bodyToMono(String.class)
+                .defaultIfEmpty("")
+                .map(errorBody -> {
+                    log.error("OpenAI API Error ({}): {}", status, errorBody);
+                    return new UpstreamStatusException("OpenAI API failed: " + errorBody, status, retryAfter);
+                });
+    }
+
+    /**
+     * Azure 同时返回 retry-after-ms 和 Retry-After（秒或 HTTP 日期），优先使用毫秒精度
+     */
+    private static Duration parseRetryAfter(HttpHeaders headers) {
+        try {
+            String millis = headers.getFirst("retry-after-ms");
+            if (millis != null) {
+                return Duration.ofMillis(Long.parseLong(millis.trim()));
+            }
+            String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+            if (value == null) {
+                return null;
+            }
+            if (value.trim().chars().allMatch(Character::isDigit)) {
+                return Duration.ofSeconds(Long.parseLong(value.trim()));
+            }
+            long until = headers.getFirstDate(HttpHeaders.RETRY_AFTER);
+            return Duration.ofMillis(Math.max(0, until - System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+            return null;
+        }
     }
 
-    // 添加清理Azure响应的方法
-    private String cleanAzureResponse(String response) {
+    // 添加清理Azure响应的方法（QuoteNormalizer 在字节层面实现同样的规则）
+    static String cleanAzureResponse(String response) {
         return response
                 .replace("’ ", "'")        // 替换特殊单引号
                 .replace("’", "'");        // 替换另一种单引号
@@ -116,7 +242,7 @@ public class AzureStreamService {
                             HttpStatusCode::isError,
                             clientResponse -> clientResponse.bodyToMono(String.class)
                                     .flatMap(errorBody -> {
-                                        System.err.println("Error Body: " + errorBody);
+                                        log.error("Error Body: {}", errorBody);
                                         return Mono.error(new RuntimeException("Request Failed with status: " + clientResponse.statusCode() + " and body: " + errorBody));
                                     })
                     )
@@ -163,7 +289,7 @@ public class AzureStreamService {
                         clientResponse -> clientResponse.bodyToMono(String.class)
                                 .defaultIfEmpty("[No response body]")
                                 .flatMap(errorBody -> {
-                                    System.err.println("Azure TTS API Error. Status: " + clientResponse.statusCode() + ", Body: " + errorBody);
+                                    log.error("Azure TTS API Error. Status: {}, Body: {}", clientResponse.statusCode(), errorBody);
                                     String errorMessage = String.format(
                                             "Azure TTS API failed with status: %s. Response: %s",
                                             clientResponse.statusCode(),
@@ -213,7 +339,7 @@ public class AzureStreamService {
                             HttpStatusCode::isError,
                             clientResponse -> clientResponse.bodyToMono(String.class)
                                     .flatMap(errorBody -> {
-                                        System.err.println("Pronunciation Evaluation Error. Status: " + clientResponse.statusCode() + ", Body: " + errorBody);
+                                        log.error("Pronunciation Evaluation Error. Status: {}, Body: {}", clientResponse.statusCode(), errorBody);
                                         return Mono.error(new RuntimeException("Azure API failed with status: " + clientResponse.statusCode() + " and body: " + errorBody));
                                     })
                     )
@@ -223,25 +349,34 @@ public class AzureStreamService {
     }
 
     public Mono<String> generateQuestions(Map<String, Object> body) {
-        return openAiClient.post()
-                .uri("/models/chat/completions?api-version=2024-05-01-preview")
-                .bodyValue(body)
-                .accept(MediaType.APPLICATION_JSON) // 非流式返回 JSON
-                .retrieve()
-                .onStatus(
-                        HttpStatusCode::isError,
-                        clientResponse -> clientResponse.bodyToMono(String.class)
-                                .flatMap(errorBody -> {
-                                    System.err.println("OpenAI API Error: " + errorBody);
-                                    return Mono.error(new RuntimeException("OpenAI API failed: " + errorBody));
-                                })
-                )
-                .bodyToMono(String.class) // 拿到完整响应
+        return complete("generate-questions", body);
+    }
+
+    /**
+     * 非流式 Chat Completions，返回 choices[0].message.content；call 用于重试、熔断和用量指标的标签
+     */
+    public Mono<String> complete(String call, Map<String, Object> body) {
+        return admission.admitOne(body, () -> openAiResilience.call(call, () -> openAiEndpoints.call(openAiClient -> openAiClient.post()
+                        .uri("/models/chat/completions?api-version=2024-05-01-preview")
+                        .bodyValue(body)
+                        .accept(MediaType.APPLICATION_JSON) // 非流式返回 JSON
+                        .retrieve()
+                        .onStatus(HttpStatusCode::isError, this::openAiError)
+                        .bodyToMono(String.class)))) // 拿到完整响应
                 .map(fullResponse -> {
                     try {
                         ObjectMapper mapper = new ObjectMapper();
                         JsonNode root = mapper.readTree(fullResponse);
 
+                        JsonNode usage = root.path("usage");
+                        if (usage.isObject()) {
+                            usageMetrics.record(call, new ChatDelta.Usage(
+                                    usage.path("prompt_tokens").asInt(),
+                                    usage.path("completion_tokens").asInt(),
+                                    usage.path("total_tokens").asInt(),
+                                    usage.path("prompt_tokens_details").path("cached_tokens").asInt()));
+                        }
+
                         // 提取出 choices[0].message.content
 
                         return root.path("choices").get(0).path("message").path("content").asText();
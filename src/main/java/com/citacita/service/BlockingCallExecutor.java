@@ -0,0 +1,312 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 在 jdbcScheduler 上执行控制器中的阻塞服务调用（MyBatis/JDBC）。
+ * <p>
+ * 每个端点有独立的并发上限（{@code citacita.blocking.limits.<endpoint>}，默认
+ * {@code citacita.blocking.limits.default}），并分别记录排队等待时间和实际执行时间：
+ * {@code citacita.blocking.wait} / {@code citacita.blocking.execution}。
+ * <p>
+ * 许可在切换到 jdbcScheduler 之前以非阻塞方式获取：拿不到许可的请求在内存队列中等待，不占用 JDBC 线程；
+ * 队列超过 {@code citacita.blocking.max-queue} 或等待超过 {@code citacita.blocking.acquire-timeout}
+ * 时抛出 {@link BlockingCallRejectedException}（503）。
+ * <p>
+ * 基于游标的流式查询用 {@link #stream} 执行：许可在整个流的生命周期内持有，因为游标在流结束前一直占用连接和 JDBC 线程。
+ * <p>
+ * bounded-elastic 模式下线程数本身限制了同时访问数据库的调用数；虚拟线程没有这个上限，
+ * 因此 {@code citacita.scheduler.jdbc.mode=virtual} 时在端点许可之外再取一个全局许可（端点名 {@code jdbc.pool}），
+ * 数量等于 Hikari 连接池大小，多出来的请求在内存中排队，而不是各自占着一个虚拟线程等连接。
+ */
+@Component
+@Slf4j
+public class BlockingCallExecutor {
+
+    private final Scheduler jdbcScheduler;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+    private final int defaultLimit;
+    private final int maxQueue;
+    private final Duration acquireTimeout;
+    private final Scheduler timer = Schedulers.parallel();
+
+    private static final String POOL_ENDPOINT = "jdbc.pool";
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    // 仅虚拟线程模式下存在，所有端点共用
+    private final Endpoint pool;
+
+    public BlockingCallExecutor(
+            @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+            MeterRegistry meterRegistry,
+            Environment environment,
+            @Value("${citacita.blocking.limits.default:16}") int defaultLimit,
+            @Value("${citacita.blocking.max-queue:200}") int maxQueue,
+            @Value("${citacita.blocking.acquire-timeout:PT2S}") Duration acquireTimeout) {
+        this.jdbcScheduler = jdbcScheduler;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        this.defaultLimit = defaultLimit;
+        this.maxQueue = maxQueue;
+        this.acquireTimeout = acquireTimeout;
+        this.pool = "virtual".equalsIgnoreCase(environment.getProperty("citacita.scheduler.jdbc.mode"))
+                ? newEndpoint(POOL_ENDPOINT, poolSize(environment)) : null;
+    }
+
+    /**
+     * 与 DataSourceConfig 中 Hikari 连接池大小的取值规则一致
+     */
+    private static int poolSize(Environment environment) {
+        Integer configured = environment.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class);
+        if (configured != null) {
+            return configured;
+        }
+        return environment.getProperty("citacita.datasource.maximum-pool-size", Integer.class,
+                environment.getProperty("citacita.scheduler.jdbc.threads", Integer.class, 20));
+    }
+
+    public <T> Mono<T> execute(String endpointName, Callable<T> call) {
+        Endpoint endpoint = endpoints.computeIfAbsent(endpointName, this::createEndpoint);
+        return Mono.defer(() -> {
+            Waiter waiter = new Waiter(System.nanoTime());
+            Waiter poolWaiter = pool != null ? new Waiter(waiter.submitted) : null;
+            return acquire(endpoint, waiter, poolWaiter)
+                    .then(Mono.fromCallable(() -> {
+                        if (!start(endpoint, waiter, poolWaiter)) {
+                            throw new CancellationException();
+                        }
+                        long started = System.nanoTime();
+                        endpoint.waitTimer.record(started - waiter.submitted, TimeUnit.NANOSECONDS);
+                        try {
+                            return call.call();
+                        } finally {
+                            // 执行中被取消时，许可在阻塞调用真正结束后才归还
+                            finish(endpoint, waiter, poolWaiter);
+                            endpoint.executionTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                        }
+                    }).subscribeOn(jdbcScheduler))
+                    .doFinally(signal -> abandon(endpoint, waiter, poolWaiter));
+        });
+    }
+
+    /**
+     * 与 {@link #execute} 共用端点许可，但许可一直持有到流结束（完成、出错或被取消）才归还。
+     * source 自己负责切换到 jdbcScheduler 并在结束时关闭游标
+     */
+    public <T> Flux<T> stream(String endpointName, Supplier<Flux<T>> source) {
+        Endpoint endpoint = endpoints.computeIfAbsent(endpointName, this::createEndpoint);
+        return Flux.defer(() -> {
+            Waiter waiter = new Waiter(System.nanoTime());
+            Waiter poolWaiter = pool != null ? new Waiter(waiter.submitted) : null;
+            return acquire(endpoint, waiter, poolWaiter)
+                    .thenMany(Flux.defer(() -> {
+                        if (!start(endpoint, waiter, poolWaiter)) {
+                            return Flux.<T>error(new CancellationException());
+                        }
+                        long started = System.nanoTime();
+                        endpoint.waitTimer.record(started - waiter.submitted, TimeUnit.NANOSECONDS);
+                        return source.get().doFinally(signal -> {
+                            finish(endpoint, waiter, poolWaiter);
+                            endpoint.executionTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                        });
+                    }))
+                    .doFinally(signal -> abandon(endpoint, waiter, poolWaiter));
+        });
+    }
+
+    /**
+     * 先取端点许可，再取全局许可：单个端点的积压不会占满全局队列
+     */
+    private Mono<Void> acquire(Endpoint endpoint, Waiter waiter, Waiter poolWaiter) {
+        Mono<Void> acquired = Mono.create(sink -> endpoint.acquire(waiter, sink));
+        return poolWaiter == null ? acquired : acquired.then(Mono.create(sink -> pool.acquire(poolWaiter, sink)));
+    }
+
+    /**
+     * 两个许可都转为执行中才开始；只拿到端点许可时立即归还，全局许可由 doFinally 中的 abandon 处理
+     */
+    private boolean start(Endpoint endpoint, Waiter waiter, Waiter poolWaiter) {
+        if (!waiter.state.compareAndSet(Waiter.GRANTED, Waiter.RUNNING)) {
+            return false;
+        }
+        if (poolWaiter != null && !poolWaiter.state.compareAndSet(Waiter.GRANTED, Waiter.RUNNING)) {
+            waiter.state.set(Waiter.RELEASED);
+            endpoint.release();
+            return false;
+        }
+        return true;
+    }
+
+    private void finish(Endpoint endpoint, Waiter waiter, Waiter poolWaiter) {
+        if (poolWaiter != null) {
+            poolWaiter.state.set(Waiter.RELEASED);
+            pool.release();
+        }
+        waiter.state.set(Waiter.RELEASED);
+        endpoint.release();
+    }
+
+    private void abandon(Endpoint endpoint, Waiter waiter, Waiter poolWaiter) {
+        if (poolWaiter != null) {
+            pool.abandon(poolWaiter);
+        }
+        endpoint.abandon(waiter);
+    }
+
+    private Endpoint createEndpoint(String name) {
+        return newEndpoint(name, environment.getProperty("citacita.blocking.limits." + name, Integer.class, defaultLimit));
+    }
+
+    private Endpoint newEndpoint(String name, int limit) {
+        log.info("阻塞调用端点 {} 并发上限: {}", name, limit);
+        Timer waitTimer = Timer.builder("citacita.blocking.wait")
+                .description("Time a blocking call waits for a worker thread and endpoint permit")
+                .tag("endpoint", name)
+                .register(meterRegistry);
+        Timer executionTimer = Timer.builder("citacita.blocking.execution")
+                .description("Time spent executing a blocking call")
+                .tag("endpoint", name)
+                .register(meterRegistry);
+        return new Endpoint(name, limit, waitTimer, executionTimer);
+    }
+
+    private Counter rejected(String endpoint, String reason) {
+        return Counter.builder("citacita.blocking.rejected")
+                .description("Blocking calls rejected before reaching a JDBC thread")
+                .tag("endpoint", endpoint)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private final class Endpoint {
+        private final String name;
+        private final int limit;
+        private final Timer waitTimer;
+        private final Timer executionTimer;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private int inUse;
+
+        private Endpoint(String name, int limit, Timer waitTimer, Timer executionTimer) {
+            this.name = name;
+            this.limit = limit;
+            this.waitTimer = waitTimer;
+            this.executionTimer = executionTimer;
+        }
+
+        private void acquire(Waiter waiter, MonoSink<Void> sink) {
+            waiter.sink = sink;
+            boolean granted;
+            synchronized (this) {
+                if (inUse < limit && queue.isEmpty()) {
+                    inUse++;
+                    waiter.state.set(Waiter.GRANTED);
+                    granted = true;
+                } else if (queue.size() >= maxQueue) {
+                    waiter.state.set(Waiter.RELEASED);
+                    granted = false;
+                } else {
+                    queue.addLast(waiter);
+                    waiter.timeout = timer.schedule(() -> expire(waiter), acquireTimeout.toNanos(), TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            if (granted) {
+                sink.success();
+            } else {
+                rejected(name, "queue-full").increment();
+                sink.error(new BlockingCallRejectedException("Too many queued requests for " + name));
+            }
+        }
+
+        private void expire(Waiter waiter) {
+            if (!waiter.state.compareAndSet(Waiter.WAITING, Waiter.RELEASED)) {
+                return;
+            }
+            synchronized (this) {
+                queue.remove(waiter);
+            }
+            waitTimer.record(System.nanoTime() - waiter.submitted, TimeUnit.NANOSECONDS);
+            rejected(name, "timeout").increment();
+            waiter.sink.error(new BlockingCallRejectedException("Blocking call wait exceeded " + acquireTimeout + " for " + name));
+        }
+
+        /**
+         * 请求结束时调用：仍在排队的移出队列，已拿到许可但尚未开始执行的归还许可
+         */
+        private void abandon(Waiter waiter) {
+            if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.RELEASED)) {
+                synchronized (this) {
+                    queue.remove(waiter);
+                }
+                if (waiter.timeout != null) {
+                    waiter.timeout.dispose();
+                }
+            } else if (waiter.state.compareAndSet(Waiter.GRANTED, Waiter.RELEASED)) {
+                release();
+            }
+        }
+
+        /**
+         * 许可直接转交给队首仍在等待的请求，没有时才归还
+         */
+        private void release() {
+            Waiter next = null;
+            synchronized (this) {
+                while (!queue.isEmpty()) {
+                    Waiter head = queue.pollFirst();
+                    if (head.state.compareAndSet(Waiter.WAITING, Waiter.GRANTED)) {
+                        next = head;
+                        break;
+                    }
+                }
+                if (next == null) {
+                    inUse--;
+                }
+            }
+            if (next != null) {
+                next.timeout.dispose();
+                next.sink.success();
+            }
+        }
+    }
+
+    private static final class Waiter {
+        static final int WAITING = 0;
+        static final int GRANTED = 1;
+        static final int RUNNING = 2;
+        static final int RELEASED = 3;
+
+        final long submitted;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        volatile MonoSink<Void> sink;
+        volatile Disposable timeout;
+
+        Waiter(long submitted) {
+            this.submitted = submitted;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.citacita.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * 阻塞调用端点的并发已满：排队数超过上限或等待许可超时，请求在占用 JDBC 线程之前被拒绝
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class BlockingCallRejectedException extends RuntimeException {
+
+    public BlockingCallRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,150 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 给 RAG 检索设定时限，检索耗时不再直接叠加到首 token 延迟上：
+ * <ul>
+ *     <li>在 {@code citacita.rag.deadline}（默认 50ms）内完成的检索结果直接使用，并写入缓存</li>
+ *     <li>超时后不再等待：优先使用同一语言、同一问题最近一次的完整检索结果，
+ *         没有时使用只含内存知识（导航、FAQ、Grants、指导信息）的部分上下文</li>
+ *     <li>超时的检索在后台继续执行（最长 {@code citacita.rag.late-timeout}），
+ *         完成后写入缓存并记录日志，后续相同问题可以直接使用</li>
+ * </ul>
+ * 检索整体在 cpuScheduler 上执行，时限覆盖语言检测、导航匹配等同步部分，调用线程不做任何检索工作。
+ * 内存知识部分每个请求只计算一次：不需要查工作数据库的问题直接以它作为完整结果，超时降级时也复用它。
+ * 检索在时限内出错时照常返回错误，由调用方降级为普通聊天。
+ */
+@Service
+@Slf4j
+public class BudgetedRagRetriever {
+
+    private final EnhancedFAQRAGService ragService;
+    private final MeterRegistry meterRegistry;
+    private final Scheduler cpuScheduler;
+    private final Duration deadline;
+    private final Duration lateTimeout;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, CachedContent> cache;
+
+    public BudgetedRagRetriever(
+            EnhancedFAQRAGService ragService,
+            MeterRegistry meterRegistry,
+            @Qualifier("cpuScheduler") Scheduler cpuScheduler,
+            @Value("${citacita.rag.deadline:PT0.05S}") Duration deadline,
+            @Value("${citacita.rag.late-timeout:PT5S}") Duration lateTimeout,
+            @Value("${citacita.rag.cache.ttl:PT10M}") Duration ttl,
+            @Value("${citacita.rag.cache.max-entries:5000}") int maxEntries) {
+        this.ragService = ragService;
+        this.meterRegistry = meterRegistry;
+        this.cpuScheduler = cpuScheduler;
+        this.deadline = deadline;
+        this.lateTimeout = lateTimeout;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedContent> eldest) {
+                return size() > BudgetedRagRetriever.this.maxEntries;
+            }
+        };
+    }
+
+    public Mono<String> retrieve(String query, String language) {
+        return Mono.defer(() -> {
+            String key = cacheKey(query, language);
+            long start = System.nanoTime();
+
+            // 内存知识部分（导航、FAQ、Grants、指导信息）只计算一次，完整检索与超时降级共用
+            Mono<String> inMemory = Mono.fromCallable(() -> ragService.retrieveInMemoryContent(query, language))
+                    .subscribeOn(cpuScheduler)
+                    .cache();
+
+            // 检索独立于本次请求订阅，超时后继续执行用于预热缓存
+            CompletableFuture<String> retrieval = Mono.defer(() -> ragService.needsJobSearch(query, language)
+                            ? ragService.retrieveRelevantContent(query, language)
+                            : inMemory)
+                    .subscribeOn(cpuScheduler)
+                    .timeout(lateTimeout)
+                    .doOnNext(content -> put(key, content))
+                    .toFuture();
+
+            return Mono.fromFuture(retrieval, true)
+                    .doOnNext(content -> record("on-time", start))
+                    .doOnError(error -> record("error", start))
+                    .timeout(deadline, Mono.defer(() -> {
+                        retrieval.whenComplete((content, error) -> {
+                            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                            if (error == null) {
+                                log.info("RAG 检索超出时限，{} ms 后完成，结果已写入缓存", elapsed);
+                                late("warmed");
+                            } else {
+                                log.warn("RAG 检索超出时限且最终失败（{} ms）: {}", elapsed, error.getMessage());
+                                late("failed");
+                            }
+                        });
+                        String cached = get(key);
+                        if (cached != null) {
+                            record("cached", start);
+                            return Mono.just(cached);
+                        }
+                        return inMemory.doOnNext(content -> record("partial", start));
+                    }));
+        });
+    }
+
+    private static String cacheKey(String query, String language) {
+        return language + "|" + query.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private synchronized String get(String key) {
+        CachedContent entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.storedAtNanos > ttlNanos) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.content;
+    }
+
+    private synchronized void put(String key, String content) {
+        cache.put(key, new CachedContent(content, System.nanoTime()));
+    }
+
+    private void record(String outcome, long start) {
+        Timer.builder("citacita.rag.retrieval")
+                .description("Time spent waiting for RAG context before calling the model")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void late(String outcome) {
+        Counter.builder("citacita.rag.late")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private record CachedContent(String content, long storedAtNanos) {
+    }
+}
@@ -0,0 +1,632 @@
+package com.citacita.service;
+
+import com.citacita.dto.ChatDelta;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Chat Completions 流式响应解析：
+ * <ul>
+ *     <li>{@link #parse(Flux)} 直接在上游字节流上切分 SSE 事件，不经过字符串解码</li>
+ *     <li>事件内容用 Jackson 流式 {@link JsonParser} 读取，只取 content / finish_reason / usage / error，
+ *         其余字段跳过，不构建 JSON 树</li>
+ *     <li>{@link #tapUsage(Flux, Consumer)} 在透传的字节流中只找出 usage 对象，不切分事件、不拷贝其余内容</li>
+ *     <li>{@link #dropUsageOnlyEvents(Flux)} 去掉 include_usage 附加的只有用量的事件，其余事件零拷贝透传</li>
+ *     <li>{@link #tapCompletionTokens(Flux, LongConsumer)} 在透传的字节流中估算已输出的补全 token，同样不拷贝</li>
+ *     <li>{@link #toChunk(ChatDelta)} 反向生成与上游格式兼容的 chunk，用于本服务自己产生的内容和错误</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class ChatDeltaParser {
+
+    private static final byte[] DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+
+    private final JsonFactory jsonFactory;
+
+    public ChatDeltaParser(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * 解析原始 SSE 字节流；每个缓冲区解析后立即释放
+     */
+    public Flux<ChatDelta> parse(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            EventFramer framer = new EventFramer();
+            return body.concatMapIterable(framer::feed)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(framer.finish())));
+        });
+    }
+
+    /**
+     * 透传字节流的同时提取 usage（stream_options.include_usage 时出现在最后一个 chunk 中），缓冲区原样向下游传递。
+     * 只匹配 {@code "usage":{}，每个 chunk 里的 {@code "usage":null} 不会触发；匹配状态跨缓冲区保存。
+     */
+    public Flux<DataBuffer> tapUsage(Flux<DataBuffer> body, Consumer<ChatDelta.Usage> onUsage) {
+        return Flux.defer(() -> {
+            UsageScanner scanner = new UsageScanner(onUsage);
+            return body.doOnNext(scanner::scan);
+        });
+    }
+
+    /**
+     * 去掉 {@code "choices":[]} 且带 {@code "usage":{} 的事件（include_usage 附加的最后一个 chunk），其余事件原样传递。
+     * 事件在确认 choices 是否为空之前暂扣（不拷贝，跨缓冲区时按事件边界切分），确认非空后立即放行；
+     * 没有 choices 的事件（[DONE]、错误、注释）在事件结束时放行。
+     */
+    public Flux<DataBuffer> dropUsageOnlyEvents(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            UsageEventFilter filter = new UsageEventFilter();
+            return body.concatMapIterable(filter::feed)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(filter.finish())))
+                    .doFinally(signal -> filter.release());
+        });
+    }
+
+    /**
+     * 透传字节流的同时估算已输出的补全 token：只读取 {@code "content":"} 之后的字符串值，
+     * 每个增量按 {@link LlmAdmissionController} 的规则估算后回调；缓冲区原样向下游传递，匹配状态跨缓冲区保存。
+     */
+    public Flux<DataBuffer> tapCompletionTokens(Flux<DataBuffer> body, LongConsumer onTokens) {
+        return Flux.defer(() -> {
+            ContentScanner scanner = new ContentScanner(onTokens);
+            return body.doOnNext(scanner::scan);
+        });
+    }
+
+    /**
+     * 一个事件的 data 内容中补全内容的估算 token 数，与 {@link #tapCompletionTokens} 规则相同
+     */
+    public long completionTokens(String data) {
+        return completionTokens(parse(data));
+    }
+
+    public long completionTokens(ChatDelta delta) {
+        return delta != null && delta.hasContent() ? LlmAdmissionController.estimateTextTokens(delta.getContent()) : 0;
+    }
+
+    /**
+     * 解析一个事件的 data 内容（bodyToFlux(String.class) 得到的字符串），无法识别时返回 null
+     */
+    public ChatDelta parse(String data) {
+        if (data == null) {
+            return null;
+        }
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    public ChatDelta parse(byte[] data, int offset, int length) {
+        if (length == DONE.length && Arrays.equals(data, offset, offset + length, DONE, 0, DONE.length)) {
+            return ChatDelta.ofDone();
+        }
+        try (JsonParser parser = jsonFactory.createParser(data, offset, length)) {
+            return readEvent(parser);
+        } catch (IOException e) {
+            log.debug("无法解析的流式事件: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 生成 SSE data 内容：[DONE]、{"error": ...} 或 {"choices":[{"index":0,"delta":{...},"finish_reason":...}]}
+     */
+    public String toChunk(ChatDelta delta) {
+        if (delta.isDone()) {
+            return "[DONE]";
+        }
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            if (delta.getError() != null) {
+                generator.writeStringField("error", delta.getError());
+            } else {
+                generator.writeArrayFieldStart("choices");
+                generator.writeStartObject();
+                generator.writeNumberField("index", 0);
+                generator.writeObjectFieldStart("delta");
+                if (delta.getContent() != null) {
+                    generator.writeStringField("content", delta.getContent());
+                }
+                generator.writeEndObject();
+                generator.writeStringField("finish_reason", delta.getFinishReason());
+                generator.writeEndObject();
+                generator.writeEndArray();
+            }
+            if (delta.getUsage() != null) {
+                generator.writeObjectFieldStart("usage");
+                generator.writeNumberField("prompt_tokens", delta.getUsage().getPromptTokens());
+                generator.writeNumberField("completion_tokens", delta.getUsage().getCompletionTokens());
+                generator.writeNumberField("total_tokens", delta.getUsage().getTotalTokens());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private ChatDelta readEvent(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        ChatDelta delta = new ChatDelta();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                readChoices(parser, delta);
+            } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                delta.setUsage(readUsage(parser));
+            } else if ("error".equals(field)) {
+                delta.setError(readError(parser, value));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * 只取第一个 choice（请求固定 n=1）
+     */
+    private void readChoices(JsonParser parser, ChatDelta delta) throws IOException {
+        boolean first = true;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (!first) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("delta".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String deltaField = parser.currentName();
+                        JsonToken deltaValue = parser.nextToken();
+                        if ("content".equals(deltaField) && deltaValue == JsonToken.VALUE_STRING) {
+                            delta.setContent(parser.getText());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("finish_reason".equals(field) && value == JsonToken.VALUE_STRING) {
+                    delta.setFinishReason(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private ChatDelta.Usage readUsage(JsonParser parser) throws IOException {
+        ChatDelta.Usage usage = new ChatDelta.Usage();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("prompt_tokens_details".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String detail = parser.currentName();
+                    if (parser.nextToken() == JsonToken.VALUE_NUMBER_INT && "cached_tokens".equals(detail)) {
+                        usage.setCachedTokens(parser.getIntValue());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                continue;
+            }
+            if (value != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "prompt_tokens" -> usage.setPromptTokens(parser.getIntValue());
+                case "completion_tokens" -> usage.setCompletionTokens(parser.getIntValue());
+                case "total_tokens" -> usage.setTotalTokens(parser.getIntValue());
+                default -> {
+                }
+            }
+        }
+        return usage;
+    }
+
+    private String readError(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        String message = null;
+        if (value == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken fieldValue = parser.nextToken();
+                if ("message".equals(field) && fieldValue == JsonToken.VALUE_STRING) {
+                    message = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
+        return message != null ? message : "unknown error";
+    }
+
+    /**
+     * 匹配到 {@code "usage":{} 后截取整个对象再解析。括号只在字符串字面量之外计数；
+     * 对象超过 {@link #MAX_OBJECT_BYTES} 仍未闭合时放弃本次截取，重新开始匹配，不会一直缓存后续内容。
+     */
+    private final class UsageScanner {
+        private static final byte[] PATTERN = "\"usage\":{".getBytes(StandardCharsets.US_ASCII);
+        private static final int MAX_OBJECT_BYTES = 4096;
+
+        private final Consumer<ChatDelta.Usage> onUsage;
+        private final ByteArrayOutputStream object = new ByteArrayOutputStream(128);
+        private int matched;
+        private int depth;
+        private boolean inString;
+        private boolean escaped;
+
+        UsageScanner(Consumer<ChatDelta.Usage> onUsage) {
+            this.onUsage = onUsage;
+        }
+
+        void scan(DataBuffer buffer) {
+            int end = buffer.writePosition();
+            for (int i = buffer.readPosition(); i < end; i++) {
+                byte b = buffer.getByte(i);
+                if (depth > 0) {
+                    object.write(b);
+                    if (object.size() > MAX_OBJECT_BYTES) {
+                        log.debug("usage 对象超过 {} 字节仍未结束，放弃解析", MAX_OBJECT_BYTES);
+                        depth = 0;
+                    } else if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                    } else if (b == '"') {
+                        inString = true;
+                    } else if (b == '{') {
+                        depth++;
+                    } else if (b == '}' && --depth == 0) {
+                        emit();
+                    }
+                } else if (b == PATTERN[matched]) {
+                    if (++matched == PATTERN.length) {
+                        matched = 0;
+                        depth = 1;
+                        inString = false;
+                        escaped = false;
+                        object.reset();
+                        object.write('{');
+                    }
+                } else {
+                    matched = b == PATTERN[0] ? 1 : 0;
+                }
+            }
+        }
+
+        private void emit() {
+            byte[] bytes = object.toByteArray();
+            try (JsonParser parser = jsonFactory.createParser(bytes)) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    onUsage.accept(readUsage(parser));
+                }
+            } catch (IOException e) {
+                log.debug("无法解析的 usage: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static final class UsageEventFilter {
+        private static final byte[] CHOICES = "\"choices\":[".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] USAGE = "\"usage\":{".getBytes(StandardCharsets.US_ASCII);
+
+        // 当前事件中已读到、尚未决定去留的部分
+        private final List<DataBuffer> held = new ArrayList<>();
+        private boolean keep;
+        private boolean afterChoices;
+        private boolean emptyChoices;
+        private boolean usage;
+        private int choicesMatched;
+        private int usageMatched;
+        private boolean newline;
+
+        List<DataBuffer> feed(DataBuffer buffer) {
+            List<DataBuffer> out = new ArrayList<>(1);
+            DataBuffer rest = buffer;
+            int i = rest.readPosition();
+            while (i < rest.writePosition()) {
+                byte b = rest.getByte(i++);
+                if (b == '\n') {
+                    if (newline) {
+                        // 空行结束事件；事件之后还有数据时在边界处切开
+                        boolean last = i == rest.writePosition();
+                        DataBuffer event = last ? rest : rest.split(i);
+                        endEvent(event, out);
+                        if (last) {
+                            return out;
+                        }
+                        i = rest.readPosition();
+                        continue;
+                    }
+                    newline = true;
+                } else if (b != '\r') {
+                    newline = false;
+                    if (!keep) {
+                        inspect(b);
+                        if (keep) {
+                            out.addAll(held);
+                            held.clear();
+                        }
+                    }
+                }
+            }
+            if (keep) {
+                out.add(rest);
+            } else {
+                held.add(rest);
+            }
+            return out;
+        }
+
+        private void inspect(byte b) {
+            if (afterChoices) {
+                afterChoices = false;
+                if (b != ']') {
+                    keep = true;
+                    return;
+                }
+                emptyChoices = true;
+            }
+            choicesMatched = advance(CHOICES, choicesMatched, b);
+            if (choicesMatched == CHOICES.length) {
+                choicesMatched = 0;
+                afterChoices = true;
+            }
+            usageMatched = advance(USAGE, usageMatched, b);
+            if (usageMatched == USAGE.length) {
+                usageMatched = 0;
+                usage = true;
+            }
+        }
+
+        private static int advance(byte[] pattern, int matched, byte b) {
+            if (b == pattern[matched]) {
+                return matched + 1;
+            }
+            return b == pattern[0] ? 1 : 0;
+        }
+
+        private void endEvent(DataBuffer event, List<DataBuffer> out) {
+            if (keep || !(emptyChoices && usage)) {
+                out.addAll(held);
+                out.add(event);
+            } else {
+                held.forEach(DataBufferUtils::release);
+                DataBufferUtils.release(event);
+            }
+            held.clear();
+            keep = false;
+            afterChoices = false;
+            emptyChoices = false;
+            usage = false;
+            choicesMatched = 0;
+            usageMatched = 0;
+            newline = false;
+        }
+
+        /**
+         * 上游在事件中途结束：按已读到的内容决定去留
+         */
+        List<DataBuffer> finish() {
+            List<DataBuffer> out = new ArrayList<>(held.size());
+            if (!held.isEmpty() && !(emptyChoices && usage)) {
+                out.addAll(held);
+            } else {
+                held.forEach(DataBufferUtils::release);
+            }
+            held.clear();
+            return out;
+        }
+
+        /**
+         * 取消或出错时释放暂扣的缓冲区
+         */
+        void release() {
+            held.forEach(DataBufferUtils::release);
+            held.clear();
+        }
+    }
+
+    /**
+     * 逐字节统计 content 字符串值中的字符：汉字各算 1 个 token，其他字符每 4 个算 1 个。
+     * UTF-8 多字节字符和 JSON 的 Unicode 转义（反斜杠 u 加 4 位十六进制）都按码点归类；字符串以未转义的引号结束。
+     */
+    private static final class ContentScanner {
+        private static final byte[] PATTERN = "\"content\":\"".getBytes(StandardCharsets.US_ASCII);
+
+        private final LongConsumer onTokens;
+        private int matched;
+        private boolean inString;
+        private boolean escaped;
+        private int unicodeDigits = -1;
+        private int continuation;
+        private int codePoint;
+        private long cjk;
+        private long other;
+
+        ContentScanner(LongConsumer onTokens) {
+            this.onTokens = onTokens;
+        }
+
+        void scan(DataBuffer buffer) {
+            int end = buffer.writePosition();
+            for (int i = buffer.readPosition(); i < end; i++) {
+                byte b = buffer.getByte(i);
+                if (inString) {
+                    consume(b);
+                } else if (b == PATTERN[matched]) {
+                    if (++matched == PATTERN.length) {
+                        matched = 0;
+                        inString = true;
+                        cjk = 0;
+                        other = 0;
+                    }
+                } else {
+                    matched = b == PATTERN[0] ? 1 : 0;
+                }
+            }
+        }
+
+        private void consume(byte b) {
+            if (unicodeDigits >= 0) {
+                codePoint = (codePoint << 4) | Character.digit(b, 16);
+                if (++unicodeDigits == 4) {
+                    unicodeDigits = -1;
+                    count(codePoint);
+                }
+            } else if (escaped) {
+                escaped = false;
+                if (b == 'u') {
+                    unicodeDigits = 0;
+                    codePoint = 0;
+                } else {
+                    other++;
+                }
+            } else if (continuation > 0) {
+                codePoint = (codePoint << 6) | (b & 0x3F);
+                if (--continuation == 0) {
+                    count(codePoint);
+                }
+            } else if (b == '\\') {
+                escaped = true;
+            } else if (b == '"') {
+                inString = false;
+                long tokens = cjk + (other + 3) / 4;
+                if (tokens > 0) {
+                    onTokens.accept(tokens);
+                }
+            } else if ((b & 0xE0) == 0xC0) {
+                continuation = 1;
+                codePoint = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                continuation = 2;
+                codePoint = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                continuation = 3;
+                codePoint = b & 0x07;
+            } else {
+                other++;
+            }
+        }
+
+        private void count(int codePoint) {
+            if (Character.isValidCodePoint(codePoint)
+                    && Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+    }
+
+    /**
+     * 按 SSE 规范切分事件：逐行读取，data: 行累积到事件内容，空行时分发；其他字段和注释行忽略。
+     * 行可能跨越多个缓冲区，未结束的行保存在 line 中。
+     */
+    private final class EventFramer {
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream(256);
+        private boolean hasData;
+
+        List<ChatDelta> feed(DataBuffer buffer) {
+            List<ChatDelta> events = null;
+            try {
+                int end = buffer.writePosition();
+                for (int i = buffer.readPosition(); i < end; i++) {
+                    byte b = buffer.getByte(i);
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    ChatDelta event = endLine();
+                    if (event != null) {
+                        if (events == null) {
+                            events = new ArrayList<>(2);
+                        }
+                        events.add(event);
+                    }
+                }
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+            return events != null ? events : Collections.emptyList();
+        }
+
+        List<ChatDelta> finish() {
+            if (line.size() > 0) {
+                endLine();
+            }
+            ChatDelta event = dispatch();
+            return event != null ? List.of(event) : Collections.emptyList();
+        }
+
+        private ChatDelta endLine() {
+            byte[] bytes = line.toByteArray();
+            int length = bytes.length;
+            line.reset();
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            if (length == 0) {
+                return dispatch();
+            }
+            if (length >= 5 && bytes[0] == 'd' && bytes[1] == 'a' && bytes[2] == 't' && bytes[3] == 'a' && bytes[4] == ':') {
+                int start = (length > 5 && bytes[5] == ' ') ? 6 : 5;
+                if (hasData) {
+                    data.write('\n');
+                }
+                data.write(bytes, start, length - start);
+                hasData = true;
+            }
+            return null;
+        }
+
+        private ChatDelta dispatch() {
+            if (!hasData) {
+                return null;
+            }
+            byte[] bytes = data.toByteArray();
+            data.reset();
+            hasData = false;
+            return parse(bytes, 0, bytes.length);
+        }
+    }
+}
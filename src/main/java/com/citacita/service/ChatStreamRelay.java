@@ -0,0 +1,176 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * SSE 聊天流输出给浏览器前的最后一层：
+ * <ul>
+ *     <li>取消传播：浏览器关闭 EventSource 时 WebFlux 取消订阅，取消沿链路一直传到 WebClient，
+ *         上游 Azure 连接立即关闭，不再继续生成；这里记录被中止的流、中止前已输出的补全 token
+ *         （由调用方从解析出的增量中累计），请求带 max_tokens 时再记录估算节省的 token</li>
+ *     <li>心跳：{@code citacita.sse.heartbeat-interval} 内没有任何输出时发送注释行，防止代理和浏览器判定空闲断开</li>
+ *     <li>有界缓冲：客户端读得慢时最多缓冲 {@code citacita.sse.max-buffered-events} 个事件，
+ *         超出后按 {@code citacita.sse.overflow-policy} 处理：close（默认，结束该流）、drop-oldest、drop-latest</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class ChatStreamRelay {
+
+    private final Duration heartbeatInterval;
+    private final int maxBufferedEvents;
+    private final BufferOverflowStrategy overflowStrategy;
+    private final MeterRegistry meterRegistry;
+    private final long defaultCompletionTokens;
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    public ChatStreamRelay(
+            MeterRegistry meterRegistry,
+            @Value("${citacita.sse.heartbeat-interval:PT15S}") Duration heartbeatInterval,
+            @Value("${citacita.sse.max-buffered-events:256}") int maxBufferedEvents,
+            @Value("${citacita.sse.overflow-policy:close}") String overflowPolicy,
+            @Value("${citacita.openai.admission.default-completion-tokens:800}") long defaultCompletionTokens) {
+        this.meterRegistry = meterRegistry;
+        this.defaultCompletionTokens = defaultCompletionTokens;
+        this.heartbeatInterval = heartbeatInterval;
+        this.maxBufferedEvents = maxBufferedEvents;
+        this.overflowStrategy = switch (overflowPolicy) {
+            case "drop-oldest" -> BufferOverflowStrategy.DROP_OLDEST;
+            case "drop-latest" -> BufferOverflowStrategy.DROP_LATEST;
+            default -> BufferOverflowStrategy.ERROR;
+        };
+
+        Gauge.builder("citacita.sse.active", activeStreams, AtomicInteger::get)
+                .description("SSE chat streams currently open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 请求体里的 max_tokens；没有时按准入控制预扣的默认补全 token 数（{@code citacita.openai.admission.default-completion-tokens}）计算，
+     * 节省量即预扣了但没有生成的部分。body 为 null 时返回 -1，不估算节省量
+     */
+    public long completionBudget(Map<String, Object> body) {
+        if (body == null) {
+            return -1;
+        }
+        if (body.get("max_tokens") instanceof Number number) {
+            return number.longValue();
+        }
+        return defaultCompletionTokens;
+    }
+
+    /**
+     * @param endpoint         指标标签
+     * @param completionBudget 本次请求最多生成的 token 数，未知时为 -1（{@link #completionBudget(Map)}）
+     * @param events           按订阅创建上游事件流；参数用于累计已输出的补全 token（如
+     *                         {@link ChatDeltaParser#tapCompletionTokens}），每次订阅独立计数
+     * @param heartbeat        心跳元素（SSE 注释行）
+     */
+    public <T> Flux<T> relay(String endpoint, long completionBudget, Function<LongConsumer, Flux<T>> events, Supplier<T> heartbeat) {
+        return Flux.defer(() -> {
+            AtomicLong emitted = new AtomicLong();
+            AtomicLong generated = new AtomicLong();
+            AtomicLong lastEmit = new AtomicLong(System.nanoTime());
+            long heartbeatNanos = heartbeatInterval.toNanos();
+            activeStreams.incrementAndGet();
+
+            Flux<T> counted = events.apply(generated::addAndGet).doOnNext(event -> {
+                emitted.incrementAndGet();
+                lastEmit.set(System.nanoTime());
+            });
+
+            return counted
+                    .publish(shared -> Flux.merge(shared, Flux.interval(heartbeatInterval)
+                            .onBackpressureDrop()
+                            .filter(tick -> System.nanoTime() - lastEmit.get() >= heartbeatNanos)
+                            .map(tick -> {
+                                lastEmit.set(System.nanoTime());
+                                counter("citacita.sse.heartbeats", endpoint).increment();
+                                return heartbeat.get();
+                            })
+                            .takeUntilOther(shared.then(Mono.just(Boolean.TRUE)))))
+                    .transform(this::bounded)
+                    .doFinally(signal -> {
+                        activeStreams.decrementAndGet();
+                        if (signal == SignalType.CANCEL) {
+                            DistributionSummary.builder("citacita.sse.tokens.generated")
+                                    .description("Estimated completion tokens streamed before the client went away")
+                                    .tag("endpoint", endpoint)
+                                    .register(meterRegistry)
+                                    .record(generated.get());
+                            if (completionBudget > 0) {
+                                DistributionSummary.builder("citacita.sse.tokens.saved")
+                                        .description("Estimated completion tokens not generated because the client went away")
+                                        .tag("endpoint", endpoint)
+                                        .register(meterRegistry)
+                                        .record(Math.max(0, completionBudget - generated.get()));
+                            }
+                            log.debug("客户端断开 {}，已输出 {} 个事件（约 {} tokens），上游已取消", endpoint, emitted.get(), generated.get());
+                        }
+                    })
+                    .doOnEach(signal -> {
+                        if (signal.isOnComplete()) {
+                            outcome(endpoint, "completed");
+                        } else if (signal.isOnError()) {
+                            outcome(endpoint, Exceptions.isOverflow(signal.getThrowable()) ? "overflow" : "error");
+                        }
+                    })
+                    .doOnCancel(() -> outcome(endpoint, "cancelled"));
+        });
+    }
+
+    private <T> Flux<T> bounded(Flux<T> events) {
+        if (overflowStrategy != BufferOverflowStrategy.ERROR) {
+            return events.onBackpressureBuffer(maxBufferedEvents, ChatStreamRelay::release, overflowStrategy);
+        }
+        // Reactor 的 ERROR 策略要等缓冲区被读空才下发错误，已经不读的客户端永远等不到关闭；
+        // 这里丢弃溢出的事件并立即以错误结束流，缓冲中的事件随取消一起丢弃
+        Sinks.Empty<T> overflow = Sinks.empty();
+        return Flux.merge(events.onBackpressureBuffer(maxBufferedEvents, dropped -> {
+            release(dropped);
+            overflow.tryEmitError(Exceptions.failWithOverflow("SSE 客户端读取过慢，缓冲超过 " + maxBufferedEvents + " 个事件"));
+        }, BufferOverflowStrategy.DROP_LATEST).doOnTerminate(overflow::tryEmitEmpty), overflow.asMono());
+    }
+
+    private static void release(Object dropped) {
+        if (dropped instanceof DataBuffer buffer) {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private void outcome(String endpoint, String outcome) {
+        Counter.builder("citacita.sse.streams")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Counter counter(String name, String endpoint) {
+        return Counter.builder(name)
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+    }
+}
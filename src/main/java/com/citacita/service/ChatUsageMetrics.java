@@ -0,0 +1,46 @@
+package com.citacita.service;
+
+import com.citacita.dto.ChatDelta;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按上游返回的 usage 记录 token 用量：
+ * <ul>
+ *     <li>{@code citacita.openai.tokens{call,type=prompt|completion|cached}} 累计计数，
+ *         cached / prompt 即提示词前缀缓存的整体命中率</li>
+ *     <li>{@code citacita.openai.prompt.cache.ratio{call}} 每次调用的命中比例分布</li>
+ * </ul>
+ */
+@Component
+public class ChatUsageMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public ChatUsageMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(String call, ChatDelta.Usage usage) {
+        if (usage == null || usage.getPromptTokens() <= 0) {
+            return;
+        }
+        tokens(call, "prompt").increment(usage.getPromptTokens());
+        tokens(call, "completion").increment(usage.getCompletionTokens());
+        tokens(call, "cached").increment(usage.getCachedTokens());
+        DistributionSummary.builder("citacita.openai.prompt.cache.ratio")
+                .description("Share of prompt tokens served from the provider's prompt prefix cache")
+                .tag("call", call)
+                .register(meterRegistry)
+                .record((double) usage.getCachedTokens() / usage.getPromptTokens());
+    }
+
+    private Counter tokens(String call, String type) {
+        return Counter.builder("citacita.openai.tokens")
+                .tag("call", call)
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+}
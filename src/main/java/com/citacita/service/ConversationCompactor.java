@@ -0,0 +1,334 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 长会话的历史压缩，在请求发往上游之前执行：
+ * <ul>
+ *     <li>去重：内容相同的系统消息（前端回传的 RAG 资料、重复的提示词）只保留第一条</li>
+ *     <li>滑动窗口：开头的系统消息和最新一条用户消息始终保留，其余历史从新到旧累计，
+ *         超过 {@code citacita.chat.history.max-tokens} 的更早部分丢弃；窗口从用户消息开始</li>
+ *     <li>滚动摘要（{@code citacita.chat.history.summary.enabled}，默认关闭）：被丢弃的历史在请求之外异步交给模型摘要，
+ *         之后的请求以系统消息的形式带上；摘要尚未生成或生成失败时只是没有摘要，不影响当前请求。
+ *         摘要记录它所覆盖的历史前缀的哈希，只有请求自己的历史以完全相同的消息开头时才会带上，
+ *         开场白相同的其他用户或猜到会话ID的请求拿不到别人的摘要（简历对话中可能含个人信息）</li>
+ * </ul>
+ * token 数按 {@link LlmAdmissionController} 相同的规则估算，节省量记录在 {@code citacita.chat.history.tokens.saved}。
+ */
+@Service
+@Slf4j
+public class ConversationCompactor {
+
+    private static final String SUMMARY_INSTRUCTION =
+            "Summarize the conversation below for an assistant that will continue it. "
+                    + "Keep facts, names, numbers, the user's goals and preferences, and any answers already given. "
+                    + "Write in the same language as the conversation, as a short paragraph.";
+    private static final String SUMMARY_LABEL = "[Summary of the earlier conversation]\n";
+
+    private final AzureStreamService azureStreamService;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long maxHistoryTokens;
+    private final boolean summaryEnabled;
+    private final int summaryRefreshMessages;
+    private final int summaryMaxTokens;
+    private final Duration summaryTimeout;
+    private final long summaryTtlNanos;
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, Summary> summaries;
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    public ConversationCompactor(
+            AzureStreamService azureStreamService,
+            MeterRegistry meterRegistry,
+            @Value("${citacita.chat.history.enabled:true}") boolean enabled,
+            @Value("${citacita.chat.history.max-tokens:4000}") long maxHistoryTokens,
+            @Value("${citacita.chat.history.summary.enabled:false}") boolean summaryEnabled,
+            @Value("${citacita.chat.history.summary.refresh-messages:4}") int summaryRefreshMessages,
+            @Value("${citacita.chat.history.summary.max-tokens:300}") int summaryMaxTokens,
+            @Value("${citacita.chat.history.summary.timeout:PT30S}") Duration summaryTimeout,
+            @Value("${citacita.chat.history.summary.ttl:PT30M}") Duration summaryTtl,
+            @Value("${citacita.chat.history.summary.max-entries:10000}") int maxEntries) {
+        this.azureStreamService = azureStreamService;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxHistoryTokens = maxHistoryTokens;
+        this.summaryEnabled = summaryEnabled;
+        this.summaryRefreshMessages = Math.max(1, summaryRefreshMessages);
+        this.summaryMaxTokens = summaryMaxTokens;
+        this.summaryTimeout = summaryTimeout;
+        this.summaryTtlNanos = summaryTtl.toNanos();
+        this.maxEntries = maxEntries;
+        this.summaries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Summary> eldest) {
+                return size() > ConversationCompactor.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 返回压缩后的请求体；不需要压缩时原样返回
+     *
+     * @param endpoint       指标标签
+     * @param conversationId 前端传来的会话ID，可以为空（此时按首条用户消息查找摘要，仍需历史前缀一致才使用）
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> compact(String endpoint, String conversationId, Map<String, Object> body) {
+        if (!enabled || !(body.get("messages") instanceof List<?> raw) || raw.isEmpty()) {
+            return body;
+        }
+        List<Map<String, Object>> messages = (List<Map<String, Object>>) raw;
+        int size = messages.size();
+
+        int head = 0;
+        while (head < size && "system".equals(role(messages.get(head)))) {
+            head++;
+        }
+        int tail = size;
+        for (int i = size - 1; i >= head; i--) {
+            if ("user".equals(role(messages.get(i)))) {
+                tail = i;
+                break;
+            }
+        }
+
+        // 1. 系统消息去重
+        Set<String> seenSystem = new HashSet<>();
+        List<Map<String, Object>> pinned = new ArrayList<>(head + 1);
+        for (Map<String, Object> message : messages.subList(0, head)) {
+            if (seenSystem.add(content(message))) {
+                pinned.add(message);
+            }
+        }
+        List<Map<String, Object>> history = new ArrayList<>(tail - head);
+        for (Map<String, Object> message : messages.subList(head, tail)) {
+            if (!"system".equals(role(message)) || seenSystem.add(content(message))) {
+                history.add(message);
+            }
+        }
+        boolean deduplicated = pinned.size() + history.size() < tail;
+
+        // 2. 按 token 预算从最新的历史往前保留
+        int start = history.size();
+        long used = 0;
+        for (int i = history.size() - 1; i >= 0; i--) {
+            long tokens = estimateTokens(history.get(i));
+            if (used + tokens > maxHistoryTokens) {
+                break;
+            }
+            used += tokens;
+            start = i;
+        }
+        if (start > 0) {
+            while (start < history.size() && !"user".equals(role(history.get(start)))) {
+                start++;
+            }
+        }
+
+        if (start == 0 && !deduplicated) {
+            outcome(endpoint, "unchanged");
+            return body;
+        }
+
+        // 3. 被丢弃的历史用滚动摘要代替
+        Map<String, Object> summaryMessage = null;
+        if (summaryEnabled && start > 0) {
+            String key = conversationKey(conversationId, messages);
+            if (key != null) {
+                Summary summary = getSummary(key);
+                if (summary != null && (summary.covered > start
+                        || !summary.prefixHash.equals(prefixHash(history.subList(0, summary.covered))))) {
+                    // 同一个键下是另一段会话（或历史被改写过）的摘要，不使用也不在其上续写
+                    summary = null;
+                }
+                if (summary != null) {
+                    summaryMessage = message("system", SUMMARY_LABEL + summary.text);
+                }
+                int covered = summary != null ? summary.covered : 0;
+                if (start - covered >= summaryRefreshMessages && summarizing.add(key)) {
+                    summarize(key, summary, new ArrayList<>(history.subList(covered, start)), start,
+                            prefixHash(history.subList(0, start)), body.get("model"));
+                }
+            }
+        }
+
+        List<Map<String, Object>> compacted = new ArrayList<>(pinned.size() + 1 + history.size() - start + size - tail);
+        compacted.addAll(pinned);
+        if (summaryMessage != null) {
+            compacted.add(summaryMessage);
+        }
+        compacted.addAll(history.subList(start, history.size()));
+        compacted.addAll(messages.subList(tail, size));
+
+        long saved = estimateTokens(messages) - estimateTokens(compacted);
+        if (saved > 0) {
+            Counter.builder("citacita.chat.history.tokens.saved")
+                    .description("Estimated prompt tokens removed by history compaction")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry)
+                    .increment(saved);
+        }
+        outcome(endpoint, "compacted");
+        log.debug("历史压缩 {}: {} -> {} 条消息，约节省 {} tokens", endpoint, size, compacted.size(), saved);
+
+        Map<String, Object> compactedBody = new HashMap<>(body);
+        compactedBody.put("messages", compacted);
+        return compactedBody;
+    }
+
+    /**
+     * 在请求之外生成摘要：上一版摘要 + 新被丢弃的消息，结果覆盖到 covered 位置为止的历史
+     */
+    private void summarize(String key, Summary previous, List<Map<String, Object>> dropped, int covered,
+                           String prefixHash, Object model) {
+        StringBuilder transcript = new StringBuilder();
+        if (previous != null) {
+            transcript.append("Earlier summary:\n").append(previous.text).append("\n\n");
+        }
+        for (Map<String, Object> message : dropped) {
+            transcript.append(role(message)).append(": ").append(content(message)).append('\n');
+        }
+
+        Map<String, Object> request = new HashMap<>();
+        request.put("messages", List.of(message("system", SUMMARY_INSTRUCTION), message("user", transcript.toString())));
+        request.put("max_tokens", summaryMaxTokens);
+        if (model != null) {
+            request.put("model", model);
+        }
+
+        azureStreamService.complete("summarize", request)
+                .timeout(summaryTimeout)
+                .doFinally(signal -> summarizing.remove(key))
+                .subscribe(text -> {
+                    if (text != null && !text.isBlank()) {
+                        putSummary(key, new Summary(text.trim(), covered, prefixHash, System.nanoTime()));
+                        summaryOutcome("success");
+                    }
+                }, error -> {
+                    log.debug("会话摘要生成失败: {}", error.getMessage());
+                    summaryOutcome("error");
+                });
+    }
+
+    private long estimateTokens(List<Map<String, Object>> messages) {
+        long tokens = 0;
+        for (Map<String, Object> message : messages) {
+            tokens += estimateTokens(message);
+        }
+        return tokens;
+    }
+
+    private static long estimateTokens(Map<String, Object> message) {
+        return LlmAdmissionController.estimateTextTokens(content(message)) + 4;
+    }
+
+    private static String role(Map<String, ?> message) {
+        return Objects.toString(message.get("role"), null);
+    }
+
+    private static String content(Map<String, ?> message) {
+        return Objects.toString(message.get("content"), "");
+    }
+
+    private static Map<String, Object> message(String role, String content) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+
+    private String conversationKey(String conversationId, List<Map<String, Object>> messages) {
+        if (conversationId != null && !conversationId.isBlank()) {
+            return "id:" + conversationId.trim();
+        }
+        // 第一条用户消息在整段会话中保持不变，只用来定位摘要；是否属于同一段会话由 prefixHash 判断
+        for (Map<String, Object> message : messages) {
+            if ("user".equals(role(message))) {
+                return "h:" + sha256(content(message));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 历史前缀（角色和内容）的哈希，用来确认摘要覆盖的正是当前请求的这些消息
+     */
+    private static String prefixHash(List<Map<String, Object>> prefix) {
+        MessageDigest digest = sha256();
+        for (Map<String, Object> message : prefix) {
+            digest.update(Objects.toString(role(message), "").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(content(message).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private synchronized Summary getSummary(String key) {
+        Summary summary = summaries.get(key);
+        if (summary != null && System.nanoTime() - summary.createdAtNanos > summaryTtlNanos) {
+            summaries.remove(key);
+            return null;
+        }
+        return summary;
+    }
+
+    private synchronized void putSummary(String key, Summary summary) {
+        summaries.put(key, summary);
+    }
+
+    private void outcome(String endpoint, String outcome) {
+        Counter.builder("citacita.chat.history.compactions")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void summaryOutcome(String outcome) {
+        Counter.builder("citacita.chat.history.summaries")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static String sha256(String text) {
+        return HexFormat.of().formatHex(sha256().digest(text.getBytes(StandardCharsets.UTF_8)), 0, 16);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param covered    摘要覆盖的历史消息数（去重后、从开头算起）
+     * @param prefixHash 被覆盖的这些消息的 {@link #prefixHash}
+     */
+    private record Summary(String text, int covered, String prefixHash, long createdAtNanos) {
+    }
+}
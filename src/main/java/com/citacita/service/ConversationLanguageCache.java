@@ -0,0 +1,194 @@
+package com.citacita.service;
+
+import com.citacita.service.LanguageDetector.Detection;
+import com.citacita.service.LanguageDetector.Language;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 会话级语言缓存：同一会话内保持语言稳定，避免 "ok"、"2111" 这类简短追问导致回答语言来回切换。
+ * <p>
+ * 会话键优先使用前端传来的会话ID，否则使用首轮问答（首条用户消息 + 首条助手回复）的哈希；
+ * 还没有助手回复时不读写缓存，避免以 "hi" 开头的不同会话共用同一条记录。
+ * 只有当前消息足够明确时才会覆盖已缓存的语言；不明确时依次参考缓存、历史消息和前端语言设置。
+ */
+@Service
+@Slf4j
+public class ConversationLanguageCache {
+
+    private final LanguageDetector languageDetector;
+    private final double confidenceThreshold;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, CachedLanguage> cache;
+
+    public ConversationLanguageCache(
+            LanguageDetector languageDetector,
+            @Value("${citacita.chat.language-cache.confidence-threshold:0.6}") double confidenceThreshold,
+            @Value("${citacita.chat.language-cache.ttl:PT30M}") Duration ttl,
+            @Value("${citacita.chat.language-cache.max-entries:10000}") int maxEntries
+    ) {
+        this.languageDetector = languageDetector;
+        this.confidenceThreshold = confidenceThreshold;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLanguage> eldest) {
+                return size() > ConversationLanguageCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 解析本轮对话应使用的语言
+     *
+     * @param conversationId   前端传来的会话ID，可以为空
+     * @param frontendLanguage 前端界面语言（en / zh-CN / ms）
+     * @param messages         完整的消息列表
+     */
+    public Language resolve(String conversationId, String frontendLanguage, List<Map<String, String>> messages) {
+        String key = conversationKey(conversationId, messages);
+        String latest = latestUserMessage(messages);
+        Language cached = key != null ? get(key) : null;
+
+        Language resolved;
+        if (cached != null && !hasEnoughSignal(latest)) {
+            // 简短追问直接沿用会话语言，无需检测
+            resolved = cached;
+        } else {
+            Detection current = languageDetector.detect(latest);
+            if (current.getConfidence() >= confidenceThreshold) {
+                resolved = current.getLanguage();
+            } else if (cached != null) {
+                resolved = cached;
+            } else {
+                resolved = resolveAmbiguous(frontendLanguage, messages, current);
+            }
+            log.debug("会话语言检测: 当前={}, 缓存={}, 结果={}", current, cached, resolved);
+        }
+
+        if (key != null) {
+            put(key, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * 当前消息不明确且没有缓存时：先看历史用户消息，再看前端设置
+     */
+    private Language resolveAmbiguous(String frontendLanguage, List<Map<String, String>> messages, Detection current) {
+        StringBuilder history = new StringBuilder();
+        if (messages != null) {
+            for (Map<String, String> message : messages) {
+                if ("user".equals(message.get("role")) && message.get("content") != null) {
+                    history.append(message.get("content")).append(' ');
+                }
+            }
+        }
+        Detection fromHistory = languageDetector.detect(history);
+        if (fromHistory.getConfidence() >= confidenceThreshold) {
+            return fromHistory.getLanguage();
+        }
+
+        Language hint = Language.fromCode(frontendLanguage);
+        if (hint != null) {
+            return hint;
+        }
+        return current.getLanguage();
+    }
+
+    /**
+     * 至少包含一个汉字或四个拉丁字母才值得检测
+     */
+    private boolean hasEnoughSignal(String text) {
+        if (text == null) {
+            return false;
+        }
+        int letters = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isIdeographic(c)) {
+                return true;
+            }
+            if (Character.isLetter(c) && ++letters >= 4) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String conversationKey(String conversationId, List<Map<String, String>> messages) {
+        if (conversationId != null && !conversationId.isBlank()) {
+            return "id:" + conversationId.trim();
+        }
+        if (messages == null) {
+            return null;
+        }
+        // 历史前缀：首轮问答在整段会话中保持不变；助手回复因会话而异，开场白相同的会话也不会撞键
+        String firstUser = null;
+        for (Map<String, String> message : messages) {
+            String content = message.get("content");
+            if (content == null) {
+                continue;
+            }
+            if (firstUser == null && "user".equals(message.get("role"))) {
+                firstUser = content;
+            } else if (firstUser != null && "assistant".equals(message.get("role"))) {
+                return "h:" + sha256(firstUser + "\u0000" + content);
+            }
+        }
+        return null;
+    }
+
+    private String latestUserMessage(List<Map<String, String>> messages) {
+        if (messages == null) {
+            return null;
+        }
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if ("user".equals(messages.get(i).get("role"))) {
+                return messages.get(i).get("content");
+            }
+        }
+        return null;
+    }
+
+    private synchronized Language get(String key) {
+        CachedLanguage entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.lastAccessNanos > ttlNanos) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.language;
+    }
+
+    private synchronized void put(String key, Language language) {
+        cache.put(key, new CachedLanguage(language, System.nanoTime()));
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record CachedLanguage(Language language, long lastAccessNanos) {
+    }
+}
@@ -1,27 +1,31 @@
 package com.citacita.service;
 
 import com.citacita.entity.MascoJob;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
 import java.util.*;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class EnhancedFAQRAGService {
 
+    // RAG 调试输出，按采样率记录（见 logback-spring.xml）
+    private static final Logger RAG_DEBUG = LoggerFactory.getLogger("com.citacita.rag.debug");
+
     @Autowired
     private MascoJobDatabaseService mascoJobService;
 
+    @Autowired
+    private LanguageDetector languageDetector;
+
     // FAQ知识库 - 包含FAQ和Grants信息
     private final Map<String, FAQ> faqDatabase;
-    
-    // 语言检测模式
-    private final Pattern chinesePattern = Pattern.compile("[\\u4e00-\\u9fff]+");
-    private final Pattern englishPattern = Pattern.compile("[a-zA-Z]+");
-    private final Pattern malayPattern = Pattern.compile("\\b(apa|bagaimana|di mana|kenapa|bila|boleh|tidak|ya|kerja|jawatan|pekerjaan|saya|anda|ini|itu|dengan|untuk|dari|ke|dan|atau)\\b", Pattern.CASE_INSENSITIVE);
 
     public EnhancedFAQRAGService() {
         this.faqDatabase = initializeFAQDatabase();
@@ -31,20 +35,24 @@ public class EnhancedFAQRAGService {
      * 基于FAQ+Grants+Jobs的智能检索（修复阻塞问题）
      */
     public Mono<String> retrieveRelevantContent(String query) {
+        return retrieveRelevantContent(query, null);
+    }
+
+    /**
+     * 使用调用方已解析好的语言检索（english / chinese / malay），为空时根据查询检测
+     */
+    public Mono<String> retrieveRelevantContent(String query, String language) {
         try {
             String lowerQuery = query.toLowerCase();
             
-            // 强制重新检测语言，不依赖任何会话状态
-            String detectedLanguage = detectLanguage(query);
-            System.out.println("=== 强制语言检测 ===");
-            System.out.println("查询: " + query);
-            System.out.println("检测到的语言: " + detectedLanguage);
-            System.out.println("========================");
+            // 优先使用会话级解析出的语言，否则重新检测
+            String detectedLanguage = language != null ? language : detectLanguage(query);
+            RAG_DEBUG.debug("语言检测: 查询={}, 语言={}", query, detectedLanguage);
             
             // 1. 首先检查是否询问页面导航 - 强制使用检测到的语言
             String navigationResponse = getPageNavigation(query, detectedLanguage);
             if (navigationResponse != null) {
-                System.out.println("返回页面导航，语言: " + detectedLanguage);
+                log.debug("返回页面导航，语言: {}", detectedLanguage);
                 return Mono.just(addLanguageHeader(navigationResponse, detectedLanguage));
             }
             
@@ -54,32 +62,65 @@ public class EnhancedFAQRAGService {
                     .map(response -> addLanguageHeader(response, detectedLanguage));
             }
             
-            // 3. 检查FAQ和Grants - 强制使用检测到的语言
-            List<FAQ> matchedFAQs = findMatchingFAQs(lowerQuery);
-            if (!matchedFAQs.isEmpty()) {
-                String response = formatFAQResponse(matchedFAQs, detectedLanguage);
-                return Mono.just(addLanguageHeader(response, detectedLanguage));
-            }
-            
-            // 4. 检查是否为低相关性查询 - 强制使用检测到的语言
-            if (isLowRelevanceQuery(lowerQuery)) {
-                String response = generateLowRelevanceResponse(lowerQuery, detectedLanguage);
-                return Mono.just(addLanguageHeader(response, detectedLanguage));
-            }
-            
-            // 5. 返回相关指导信息 - 强制使用检测到的语言
-            String response = getRelatedGuidance(lowerQuery, detectedLanguage);
-            return Mono.just(addLanguageHeader(response, detectedLanguage));
+            // 3~5. FAQ / Grants / 低相关性 / 指导信息
+            return Mono.just(addLanguageHeader(getInMemoryContent(lowerQuery, detectedLanguage), detectedLanguage));
             
         } catch (Exception e) {
-            System.err.println("Enhanced FAQ RAG检索错误: " + e.getMessage());
-            // 即使在错误情况下也要重新检测语言
-            String detectedLanguage = detectLanguage(query);
+            log.warn("Enhanced FAQ RAG检索错误: {}", e.getMessage());
+            // 即使在错误情况下也要保证语言正确
+            String detectedLanguage = language != null ? language : detectLanguage(query);
             String response = getDefaultGuidance(detectedLanguage);
             return Mono.just(addLanguageHeader(response, detectedLanguage));
         }
     }
 
+    /**
+     * 是否需要检索工作数据库（不是页面导航且与工作相关）；不需要时完整检索的结果与 {@link #retrieveInMemoryContent} 相同
+     */
+    public boolean needsJobSearch(String query, String language) {
+        String detectedLanguage = language != null ? language : detectLanguage(query);
+        try {
+            return getPageNavigation(query, detectedLanguage) == null && isJobRelatedQuery(query.toLowerCase());
+        } catch (Exception e) {
+            log.warn("Enhanced FAQ RAG检索错误: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 只使用内存中的知识（页面导航、FAQ、Grants、指导信息），跳过工作数据库检索；
+     * 完整检索超出时限时作为部分上下文使用
+     */
+    public String retrieveInMemoryContent(String query, String language) {
+        String detectedLanguage = language != null ? language : detectLanguage(query);
+        try {
+            String navigationResponse = getPageNavigation(query, detectedLanguage);
+            if (navigationResponse != null) {
+                return addLanguageHeader(navigationResponse, detectedLanguage);
+            }
+            return addLanguageHeader(getInMemoryContent(query.toLowerCase(), detectedLanguage), detectedLanguage);
+        } catch (Exception e) {
+            log.warn("Enhanced FAQ RAG检索错误: {}", e.getMessage());
+            return addLanguageHeader(getDefaultGuidance(detectedLanguage), detectedLanguage);
+        }
+    }
+
+    private String getInMemoryContent(String lowerQuery, String detectedLanguage) {
+        // 3. 检查FAQ和Grants - 强制使用检测到的语言
+        List<FAQ> matchedFAQs = findMatchingFAQs(lowerQuery);
+        if (!matchedFAQs.isEmpty()) {
+            return formatFAQResponse(matchedFAQs, detectedLanguage);
+        }
+
+        // 4. 检查是否为低相关性查询 - 强制使用检测到的语言
+        if (isLowRelevanceQuery(lowerQuery)) {
+            return generateLowRelevanceResponse(lowerQuery, detectedLanguage);
+        }
+
+        // 5. 返回相关指导信息 - 强制使用检测到的语言
+        return getRelatedGuidance(lowerQuery, detectedLanguage);
+    }
+
     /**
      * 添加语言标识头（用于调试和强制语言）
      */
@@ -136,7 +177,7 @@ public class EnhancedFAQRAGService {
                 }
             })
             .doOnError(error -> {
-                System.err.println("处理工作查询错误: " + error.getMessage());
+                log.warn("处理工作查询错误: {}", error.getMessage());
             })
             .onErrorReturn(getJobSearchGuidance(query, language));
     }
@@ -252,77 +293,7 @@ public class EnhancedFAQRAGService {
      * 三语言强制检测（英文、中文、马来语）
      */
     private String detectLanguage(String query) {
-        if (query == null || query.trim().isEmpty()) {
-            return "english"; // 默认英文
-        }
-        
-        String cleanQuery = query.trim().toLowerCase();
-        
-        // 1. 优先检查明显的语言标识词
-        
-        //中文
-        String[] chineseIndicators = {
-            "什么", "怎么", "如何", "哪里", "为什么", "是否", "能否", "可以", "谢谢", "你好", 
-            "工作", "职业", "政府", "补助", "帮助", "页面", "链接", "在哪", "怎样", "如何",
-            "的", "了", "和", "我", "你", "他", "她", "我们", "你们", "他们"
-        };
-        for (String indicator : chineseIndicators) {
-            if (cleanQuery.contains(indicator)) {
-                System.out.println("检测到中文标识词: " + indicator);
-                return "chinese";
-            }
-        }
-        
-        // 马来语标识词（扩展列表）
-        String[] malayIndicators = {
-            "apa", "bagaimana", "di mana", "kenapa", "bila", "boleh", "tidak", "kerja", "jawatan", 
-            "pekerjaan", "bantuan", "kerajaan", "saya", "anda", "kami", "mereka", "dengan", "untuk",
-            "halaman", "pautan", "mana", "macam mana"
-        };
-        for (String indicator : malayIndicators) {
-            if (cleanQuery.contains(indicator)) {
-                System.out.println("检测到马来语标识词: " + indicator);
-                return "malay";
-            }
-        }
-        
-        // 英文标识词（扩展列表）
-        String[] englishIndicators = {
-            "what", "how", "where", "why", "when", "can", "could", "should", "would", "hello", "hi", 
-            "thank", "job", "work", "government", "grant", "page", "link", "access", "find", "show",
-            "do", "does", "is", "are", "the", "and", "to", "of", "in", "for", "with"
-        };
-        for (String indicator : englishIndicators) {
-            if (cleanQuery.contains(" " + indicator + " ") || cleanQuery.startsWith(indicator + " ") || 
-                cleanQuery.endsWith(" " + indicator) || cleanQuery.equals(indicator)) {
-                System.out.println("检测到英文标识词: " + indicator);
-                return "english";
-            }
-        }
-        
-        // 2. 字符和模式检测
-        int chineseChars = 0;
-        int englishChars = 0;
-        boolean hasMalayWords = malayPattern.matcher(cleanQuery).find();
-        
-        if (chinesePattern.matcher(query).find()) {
-            chineseChars = query.replaceAll("[^\\u4e00-\\u9fff]", "").length();
-        }
-        
-        if (englishPattern.matcher(query).find()) {
-            englishChars = query.replaceAll("[^a-zA-Z]", "").length();
-        }
-        
-        // 3. 决策逻辑（优先级：马来语 > 中文 > 英文）
-        if (hasMalayWords) {
-            return "malay";
-        } else if (chineseChars > 0) {
-            return "chinese";
-        } else if (englishChars > 0) {
-            return "english";
-        } else {
-            return "english"; // 默认英文
-        }
+        return languageDetector.detect(query).getLanguage().getKey();
     }
     
 
@@ -1,23 +1,23 @@
 package com.citacita.service;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
 import java.util.*;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class FAQBasedRAGService {
 
     // FAQ知识库 - 包含FAQ和Grants信息
     private final Map<String, FAQ> faqDatabase;
-    
-    // 语言检测模式
-    private final Pattern chinesePattern = Pattern.compile("[\\u4e00-\\u9fff]+");
-    private final Pattern englishPattern = Pattern.compile("[a-zA-Z]+");
 
-    public FAQBasedRAGService() {
+    private final LanguageDetector languageDetector;
+
+    public FAQBasedRAGService(LanguageDetector languageDetector) {
+        this.languageDetector = languageDetector;
         this.faqDatabase = initializeFAQDatabase();
     }
 
@@ -48,38 +48,17 @@ public class FAQBasedRAGService {
                 return getRelatedGuidance(lowerQuery, detectedLanguage);
                 
             } catch (Exception e) {
-                System.err.println("FAQ RAG检索错误: " + e.getMessage());
+                log.warn("FAQ RAG检索错误: {}", e.getMessage());
                 return getDefaultGuidance("chinese"); // 默认中文
             }
         });
     }
 
     /**
-     * 检测用户使用的语言
+     * 检测用户使用的语言（本服务只区分中文和英文）
      */
     private String detectLanguage(String query) {
-        int chineseChars = 0;
-        int englishChars = 0;
-        
-        // 统计中文字符数
-        if (chinesePattern.matcher(query).find()) {
-            chineseChars = query.replaceAll("[^\\u4e00-\\u9fff]", "").length();
-        }
-        
-        // 统计英文字符数
-        if (englishPattern.matcher(query).find()) {
-            englishChars = query.replaceAll("[^a-zA-Z]", "").length();
-        }
-        
-        // 根据字符数比例决定语言
-        if (chineseChars > englishChars) {
-            return "chinese";
-        } else if (englishChars > chineseChars) {
-            return "english";
-        } else {
-            // 如果相等或都为0，检查是否包含中文
-            return chinesePattern.matcher(query).find() ? "chinese" : "english";
-        }
+        return languageDetector.detect(query).getLanguage() == LanguageDetector.Language.CHINESE ? "chinese" : "english";
     }
 
     /**
@@ -0,0 +1,335 @@
+package com.citacita.service;
+
+import com.citacita.dto.JobDTO;
+import com.citacita.entity.MascoJob;
+import com.citacita.service.LanguageDetector.Language;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MASCO 工作数据的紧凑只读目录，每次加载/刷新构建一次。
+ * <p>
+ * 代码列所有语言共用；每种语言的文本字段放进独立的去重字符串表，每条工作的每个字段只记录一个 int 编号。
+ * 大类/子类标题大量重复，去重后内存只有原来的一小部分，也不再为每条记录保留另外两种语言的对象。
+ * 需要时再按单一语言物化为 {@link JobDTO} 或 {@link MascoJob}。
+ */
+public final class JobCatalog {
+
+    static final int MAJOR_GROUP_TITLE = 0;
+    static final int SUB_MAJOR_GROUP_TITLE = 1;
+    static final int MINOR_GROUP_TITLE = 2;
+    static final int UNIT_GROUP_TITLE = 3;
+    static final int UNIT_GROUP_DESCRIPTION = 4;
+    static final int TASKS_INCLUDE = 5;
+    static final int EXAMPLES = 6;
+    static final int SKILL_LEVEL = 7;
+    private static final int FIELD_COUNT = 8;
+
+    private final long version;
+    // 按 unit_group_code 排序
+    private final String[] unitGroupCodes;
+    private final String[] majorGroupCodes;
+    private final String[] subMajorGroupCodes;
+    private final String[] minorGroupCodes;
+    private final Map<String, int[]> majorGroupIndex;
+    private final StringTable[] tables = new StringTable[Language.values().length];
+
+    private JobCatalog(long version, List<MascoJob> jobs) {
+        this.version = version;
+        int size = jobs.size();
+        this.unitGroupCodes = new String[size];
+        this.majorGroupCodes = new String[size];
+        this.subMajorGroupCodes = new String[size];
+        this.minorGroupCodes = new String[size];
+
+        StringTable.Builder[] builders = new StringTable.Builder[tables.length];
+        for (Language language : Language.values()) {
+            builders[language.ordinal()] = new StringTable.Builder(size * FIELD_COUNT);
+        }
+        Map<String, List<Integer>> byMajorGroup = new LinkedHashMap<>();
+        // 层级代码大量重复，共用同一个 String 实例
+        Map<String, String> codes = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            MascoJob job = jobs.get(i);
+            unitGroupCodes[i] = job.getUnitGroupCode();
+            majorGroupCodes[i] = canonical(codes, job.getMajorGroupCode());
+            subMajorGroupCodes[i] = canonical(codes, job.getSubMajorGroupCode());
+            minorGroupCodes[i] = canonical(codes, job.getMinorGroupCode());
+            if (job.getMajorGroupCode() != null) {
+                byMajorGroup.computeIfAbsent(job.getMajorGroupCode(), k -> new ArrayList<>()).add(i);
+            }
+            for (Language language : Language.values()) {
+                StringTable.Builder builder = builders[language.ordinal()];
+                for (String value : fields(job, language)) {
+                    builder.add(value);
+                }
+            }
+        }
+        for (Language language : Language.values()) {
+            tables[language.ordinal()] = builders[language.ordinal()].build();
+        }
+        Map<String, int[]> index = new HashMap<>();
+        byMajorGroup.forEach((code, indexes) ->
+                index.put(code, indexes.stream().mapToInt(Integer::intValue).toArray()));
+        this.majorGroupIndex = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * 由完整的 MascoJob 行构建目录（unit_group_code 为空的行会被忽略）
+     */
+    public static JobCatalog build(long version, Collection<MascoJob> rows) {
+        List<MascoJob> jobs = new ArrayList<>(rows.size());
+        for (MascoJob row : rows) {
+            if (row.getUnitGroupCode() != null && !row.getUnitGroupCode().trim().isEmpty()) {
+                jobs.add(row);
+            }
+        }
+        jobs.sort(Comparator.comparing(MascoJob::getUnitGroupCode));
+        return new JobCatalog(version, jobs);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return unitGroupCodes.length;
+    }
+
+    /**
+     * 工作在目录中的下标，不存在时返回负数
+     */
+    public int indexOf(String unitGroupCode) {
+        if (unitGroupCode == null) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(unitGroupCodes, unitGroupCode);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * 第一条 unit_group_code 大于 code 的下标（键集分页），code 为空时为 0
+     */
+    public int firstIndexAfter(String code) {
+        if (code == null || code.isEmpty()) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(unitGroupCodes, code);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * 属于某个大类的全部工作下标，按 unit_group_code 排序
+     */
+    public int[] indexesByMajorGroup(String majorGroupCode) {
+        int[] indexes = majorGroupCode != null ? majorGroupIndex.get(majorGroupCode) : null;
+        return indexes != null ? indexes : new int[0];
+    }
+
+    public Set<String> majorGroupCodes() {
+        return majorGroupIndex.keySet();
+    }
+
+    public int majorGroupCount() {
+        return majorGroupIndex.size();
+    }
+
+    public long subMajorGroupCount() {
+        return Arrays.stream(subMajorGroupCodes).filter(code -> code != null).distinct().count();
+    }
+
+    public String unitGroupCode(int index) {
+        return unitGroupCodes[index];
+    }
+
+    /**
+     * 指定语言的某个文本字段，原样返回（可能为 null）
+     */
+    public String text(int index, Language language, int field) {
+        return tables[language.ordinal()].get(index * FIELD_COUNT + field);
+    }
+
+    /**
+     * 与 selectByMajorGroupCodeAndLang 的投影一致：代码 + 四级标题
+     */
+    public JobDTO toListDto(int index, Language language) {
+        JobDTO dto = new JobDTO();
+        dto.setUnitGroupCode(unitGroupCodes[index]);
+        dto.setMajorGroupCode(majorGroupCodes[index]);
+        dto.setSubMajorGroupCode(subMajorGroupCodes[index]);
+        dto.setMinorGroupCode(minorGroupCodes[index]);
+        dto.setMajorGroupTitle(text(index, language, MAJOR_GROUP_TITLE));
+        dto.setSubMajorGroupTitle(text(index, language, SUB_MAJOR_GROUP_TITLE));
+        dto.setMinorGroupTitle(text(index, language, MINOR_GROUP_TITLE));
+        dto.setUnitGroupTitle(text(index, language, UNIT_GROUP_TITLE));
+        return dto;
+    }
+
+    /**
+     * 与 selectByUnitGroupCodeAndLang 的投影一致
+     */
+    public JobDTO toDetailDto(int index, Language language) {
+        JobDTO dto = toListDto(index, language);
+        dto.setUnitGroupDescription(text(index, language, UNIT_GROUP_DESCRIPTION));
+        dto.setTasksInclude(text(index, language, TASKS_INCLUDE));
+        dto.setExamples(text(index, language, EXAMPLES));
+        dto.setSkillLevel(text(index, language, SKILL_LEVEL));
+        return dto;
+    }
+
+    /**
+     * 单语言的 MascoJob：只填基础字段，目标语言缺失的文本回退到英文。供搜索结果和 RAG 使用
+     */
+    public MascoJob toLocalizedJob(int index, Language language) {
+        MascoJob job = new MascoJob();
+        job.setUnitGroupCode(unitGroupCodes[index]);
+        job.setMajorGroupCode(majorGroupCodes[index]);
+        job.setSubMajorGroupCode(subMajorGroupCodes[index]);
+        job.setMinorGroupCode(minorGroupCodes[index]);
+        job.setMajorGroupTitle(localizedText(index, language, MAJOR_GROUP_TITLE));
+        job.setSubMajorGroupTitle(localizedText(index, language, SUB_MAJOR_GROUP_TITLE));
+        job.setMinorGroupTitle(localizedText(index, language, MINOR_GROUP_TITLE));
+        job.setUnitGroupTitle(localizedText(index, language, UNIT_GROUP_TITLE));
+        job.setUnitGroupDescription(localizedText(index, language, UNIT_GROUP_DESCRIPTION));
+        job.setTasksInclude(localizedText(index, language, TASKS_INCLUDE));
+        job.setExamples(localizedText(index, language, EXAMPLES));
+        job.setSkillLevel(localizedText(index, language, SKILL_LEVEL));
+        return job;
+    }
+
+    /**
+     * 完整的三语言 MascoJob（与 selectAll 的结果相同）
+     */
+    public MascoJob toFullJob(int index) {
+        MascoJob job = toLocalizedJob(index, Language.ENGLISH);
+        job.setMajorGroupTitleMalay(text(index, Language.MALAY, MAJOR_GROUP_TITLE));
+        job.setMajorGroupTitleChinese(text(index, Language.CHINESE, MAJOR_GROUP_TITLE));
+        job.setSubMajorGroupTitleMalay(text(index, Language.MALAY, SUB_MAJOR_GROUP_TITLE));
+        job.setSubMajorGroupTitleChinese(text(index, Language.CHINESE, SUB_MAJOR_GROUP_TITLE));
+        job.setMinorGroupTitleMalay(text(index, Language.MALAY, MINOR_GROUP_TITLE));
+        job.setMinorGroupTitleChinese(text(index, Language.CHINESE, MINOR_GROUP_TITLE));
+        job.setUnitGroupTitleMalay(text(index, Language.MALAY, UNIT_GROUP_TITLE));
+        job.setUnitGroupTitleChinese(text(index, Language.CHINESE, UNIT_GROUP_TITLE));
+        job.setUnitGroupDescriptionMalay(text(index, Language.MALAY, UNIT_GROUP_DESCRIPTION));
+        job.setUnitGroupDescriptionChinese(text(index, Language.CHINESE, UNIT_GROUP_DESCRIPTION));
+        job.setTasksIncludeMalay(text(index, Language.MALAY, TASKS_INCLUDE));
+        job.setTasksIncludeChinese(text(index, Language.CHINESE, TASKS_INCLUDE));
+        job.setExamplesMalay(text(index, Language.MALAY, EXAMPLES));
+        job.setExamplesChinese(text(index, Language.CHINESE, EXAMPLES));
+        job.setSkillLevelMalay(text(index, Language.MALAY, SKILL_LEVEL));
+        job.setSkillLevelChinese(text(index, Language.CHINESE, SKILL_LEVEL));
+        return job;
+    }
+
+    /**
+     * 把数据库返回的完整行按语言投影，规则与 {@link #toLocalizedJob} 相同
+     */
+    public static MascoJob localize(MascoJob row, Language language) {
+        String[] localized = fields(row, language);
+        String[] english = fields(row, Language.ENGLISH);
+        MascoJob job = new MascoJob();
+        job.setUnitGroupCode(row.getUnitGroupCode());
+        job.setMajorGroupCode(row.getMajorGroupCode());
+        job.setSubMajorGroupCode(row.getSubMajorGroupCode());
+        job.setMinorGroupCode(row.getMinorGroupCode());
+        job.setMajorGroupTitle(orDefault(localized[MAJOR_GROUP_TITLE], english[MAJOR_GROUP_TITLE]));
+        job.setSubMajorGroupTitle(orDefault(localized[SUB_MAJOR_GROUP_TITLE], english[SUB_MAJOR_GROUP_TITLE]));
+        job.setMinorGroupTitle(orDefault(localized[MINOR_GROUP_TITLE], english[MINOR_GROUP_TITLE]));
+        job.setUnitGroupTitle(orDefault(localized[UNIT_GROUP_TITLE], english[UNIT_GROUP_TITLE]));
+        job.setUnitGroupDescription(orDefault(localized[UNIT_GROUP_DESCRIPTION], english[UNIT_GROUP_DESCRIPTION]));
+        job.setTasksInclude(orDefault(localized[TASKS_INCLUDE], english[TASKS_INCLUDE]));
+        job.setExamples(orDefault(localized[EXAMPLES], english[EXAMPLES]));
+        job.setSkillLevel(orDefault(localized[SKILL_LEVEL], english[SKILL_LEVEL]));
+        return job;
+    }
+
+    private String localizedText(int index, Language language, int field) {
+        String value = text(index, language, field);
+        return language == Language.ENGLISH ? value : orDefault(value, text(index, Language.ENGLISH, field));
+    }
+
+    private static String canonical(Map<String, String> pool, String value) {
+        return value != null ? pool.computeIfAbsent(value, v -> v) : null;
+    }
+
+    private static String orDefault(String preferred, String fallback) {
+        return (preferred != null && !preferred.trim().isEmpty()) ? preferred : fallback;
+    }
+
+    private static String[] fields(MascoJob job, Language language) {
+        switch (language) {
+            case MALAY:
+                return new String[]{
+                        job.getMajorGroupTitleMalay(), job.getSubMajorGroupTitleMalay(), job.getMinorGroupTitleMalay(),
+                        job.getUnitGroupTitleMalay(), job.getUnitGroupDescriptionMalay(), job.getTasksIncludeMalay(),
+                        job.getExamplesMalay(), job.getSkillLevelMalay()};
+            case CHINESE:
+                return new String[]{
+                        job.getMajorGroupTitleChinese(), job.getSubMajorGroupTitleChinese(), job.getMinorGroupTitleChinese(),
+                        job.getUnitGroupTitleChinese(), job.getUnitGroupDescriptionChinese(), job.getTasksIncludeChinese(),
+                        job.getExamplesChinese(), job.getSkillLevelChinese()};
+            default:
+                return new String[]{
+                        job.getMajorGroupTitle(), job.getSubMajorGroupTitle(), job.getMinorGroupTitle(),
+                        job.getUnitGroupTitle(), job.getUnitGroupDescription(), job.getTasksInclude(),
+                        job.getExamples(), job.getSkillLevel()};
+        }
+    }
+
+    /**
+     * 去重字符串表：values 中每个不同文本只保存一份，refs 记录每个字段对应的文本编号，-1 表示 null。
+     * 文本保持为 String 而不是拼进 char[]：JDK 紧凑字符串对英文/马来文按单字节存储，读取时也无需再分配
+     */
+    private static final class StringTable {
+        private final String[] values;
+        private final int[] refs;
+
+        private StringTable(String[] values, int[] refs) {
+            this.values = values;
+            this.refs = refs;
+        }
+
+        String get(int slot) {
+            int id = refs[slot];
+            return id >= 0 ? values[id] : null;
+        }
+
+        static final class Builder {
+            private final Map<String, Integer> ids = new HashMap<>();
+            private final List<String> distinct = new ArrayList<>();
+            private final int[] refs;
+            private int slot;
+
+            Builder(int slots) {
+                this.refs = new int[slots];
+            }
+
+            void add(String value) {
+                if (value == null) {
+                    refs[slot++] = -1;
+                    return;
+                }
+                Integer id = ids.get(value);
+                if (id == null) {
+                    id = distinct.size();
+                    ids.put(value, id);
+                    distinct.add(value);
+                }
+                refs[slot++] = id;
+            }
+
+            StringTable build() {
+                return new StringTable(distinct.toArray(new String[0]), refs);
+            }
+        }
+    }
+}
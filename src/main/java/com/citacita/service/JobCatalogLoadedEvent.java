@@ -0,0 +1,7 @@
+package com.citacita.service;
+
+/**
+ * MASCO 快照加载成功、新的 {@link JobCatalog} 已经生效
+ */
+public record JobCatalogLoadedEvent(long version) {
+}
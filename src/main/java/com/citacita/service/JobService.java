@@ -1,9 +1,13 @@
 package com.citacita.service;
 
+import com.citacita.dto.JobBatchDTO;
 import com.citacita.dto.JobDTO;
+import com.citacita.dto.JobPageDTO;
 import com.citacita.entity.MascoJob;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
+import java.util.Set;
 
 public interface JobService {
     List<JobDTO> getJobListByLangAndId(String lang, String majorGroupCode);
@@ -12,5 +16,23 @@ public interface JobService {
 
     JobDTO getDetailJobByLangAndUnitGroupCode(String lang, String unitGroupCode);
 
+    /**
+     * 批量获取工作详情：重复的代码只返回一次，按第一次出现的顺序；不存在的代码列在 missing 中
+     */
+    JobBatchDTO getDetailJobsByLangAndUnitGroupCodes(String lang, List<String> unitGroupCodes);
+
     List<JobDTO> getJobListByLangAndUnitGroupTitle(String lang, String unitGroupTitle);
+
+    /**
+     * 键集分页获取工作（按语言投影）
+     *
+     * @param after  上一页返回的 nextCursor，为空时从第一条开始
+     * @param fields 需要返回的字段，为空时返回全部字段
+     */
+    JobPageDTO getJobPage(String lang, String after, int limit, Set<String> fields);
+
+    /**
+     * 逐行流式返回全部工作（按语言投影），内存占用与记录总数无关
+     */
+    Flux<JobDTO> streamJobs(String lang, Set<String> fields);
 }
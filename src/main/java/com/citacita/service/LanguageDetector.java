@@ -0,0 +1,369 @@
+package com.citacita.service;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * 三语言检测（英文、中文、马来语），各 RAG 服务共用
+ * <p>
+ * 对输入只做一次码点遍历：统计汉字/拉丁字母数量，按词边界匹配标识词（含 "di mana" 这类二元词组），
+ * 同时累计英文/马来语字符三元组的对数概率差。扫描过程不创建字符串或正则对象。
+ */
+@Component
+public class LanguageDetector {
+
+    public enum Language {
+        ENGLISH("english", "en"),
+        CHINESE("chinese", "zh-CN"),
+        MALAY("malay", "ms");
+
+        private final String key;
+        private final String dbCode;
+
+        Language(String key, String dbCode) {
+            this.key = key;
+            this.dbCode = dbCode;
+        }
+
+        /**
+         * RAG 服务内部使用的语言标识：english / chinese / malay
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 数据库及前端使用的语言代码：en / zh-CN / ms
+         */
+        public String getDbCode() {
+            return dbCode;
+        }
+
+        /**
+         * 兼容各种写法（english/en/chinese/zh-CN/zh/malay/ms），无法识别时返回 null
+         */
+        public static Language fromCode(String code) {
+            if (code == null) {
+                return null;
+            }
+            switch (code.trim().toLowerCase()) {
+                case "english":
+                case "en":
+                case "en-us":
+                    return ENGLISH;
+                case "chinese":
+                case "zh":
+                case "zh-cn":
+                    return CHINESE;
+                case "malay":
+                case "ms":
+                case "ms-my":
+                    return MALAY;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * 检测结果：语言 + 置信度（0 表示没有任何可用信号，1 表示非常确定）
+     */
+    public static final class Detection {
+        private final Language language;
+        private final double confidence;
+
+        public Detection(Language language, double confidence) {
+            this.language = language;
+            this.confidence = confidence;
+        }
+
+        public Language getLanguage() { return language; }
+        public double getConfidence() { return confidence; }
+
+        @Override
+        public String toString() {
+            return String.format("Detection{%s, confidence=%.2f}", language, confidence);
+        }
+    }
+
+    private static final Detection NO_SIGNAL = new Detection(Language.ENGLISH, 0.0);
+
+    // 一个汉字携带的信息量大致相当于一个英文单词
+    private static final int HAN_WEIGHT = 6;
+    private static final double INDICATOR_WEIGHT = 1.5;
+
+    private static final byte EN = 1;
+    private static final byte MS = 2;
+
+    private static final String[] ENGLISH_INDICATORS = {
+        "what", "how", "where", "why", "when", "which", "who", "can", "could", "should", "would",
+        "hello", "hi", "thank", "thanks", "please", "job", "jobs", "work", "government", "grant", "grants",
+        "page", "link", "access", "find", "show", "do", "does", "is", "are", "the", "and", "to", "of",
+        "in", "for", "with", "my", "me", "you", "your", "there", "about", "available", "help"
+    };
+
+    private static final String[] MALAY_INDICATORS = {
+        "apa", "apakah", "bagaimana", "kenapa", "mengapa", "bila", "bilakah", "boleh", "tidak", "bukan",
+        "kerja", "kerjaya", "jawatan", "pekerjaan", "bantuan", "kerajaan", "saya", "anda", "kami", "mereka",
+        "dengan", "untuk", "dari", "daripada", "dan", "atau", "ini", "itu", "yang", "ada", "adalah",
+        "halaman", "pautan", "mana", "terima", "kasih", "geran", "gaji", "kemahiran", "sila", "tentang",
+        "di mana", "macam mana", "terima kasih"
+    };
+
+    // 字符三元组训练语料（领域相关的常见句子）
+    private static final String ENGLISH_SEED = """
+        what jobs are available for me how can i find a job in information technology
+        where is the page for government grants and financial support
+        i want to know about the career quiz and the ai resume checker
+        software developer accountant nurse teacher engineer manager analyst
+        what skills do i need for this position and what is the salary
+        please show me the job description and the main tasks of this occupation
+        thank you for your help can you tell me more about childcare near my workplace
+        how do i use the map function and where can i access the mock interview
+        the quick brown fox jumps over the lazy dog while the children are playing
+        returning to work after a career break with flexible working hours
+        """;
+
+    private static final String MALAY_SEED = """
+        apakah kerja yang sesuai untuk saya bagaimana saya boleh mencari pekerjaan
+        di mana halaman untuk geran kerajaan dan bantuan kewangan
+        saya ingin tahu tentang kuiz kerjaya dan pemeriksa resume pintar
+        pembangun perisian akauntan jururawat guru jurutera pengurus penganalisis
+        apakah kemahiran yang diperlukan untuk jawatan ini dan berapakah gajinya
+        sila tunjukkan penerangan kerja dan tugas utama pekerjaan ini
+        terima kasih atas bantuan anda boleh beritahu saya tentang jagaan kanak kanak berhampiran
+        bagaimana menggunakan fungsi peta dan di mana saya boleh mengakses temuduga simulasi
+        kembali bekerja selepas berehat dengan waktu kerja yang fleksibel
+        ibu yang ingin kembali ke alam pekerjaan mendapatkan sokongan dan latihan kemahiran
+        """;
+
+    private final WordTable indicators = new WordTable(256);
+    private final float[] englishTrigrams;
+    private final float[] malayTrigrams;
+
+    public LanguageDetector() {
+        for (String word : ENGLISH_INDICATORS) {
+            indicators.add(phraseHash(word), EN);
+        }
+        for (String word : MALAY_INDICATORS) {
+            indicators.add(phraseHash(word), MS);
+        }
+        this.englishTrigrams = buildProfile(ENGLISH_SEED);
+        this.malayTrigrams = buildProfile(MALAY_SEED);
+    }
+
+    /**
+     * 检测文本语言
+     */
+    public Detection detect(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return NO_SIGNAL;
+        }
+
+        int han = 0;
+        int latin = 0;
+        int englishHits = 0;
+        int malayHits = 0;
+        double ngramDiff = 0;
+        int trigrams = 0;
+
+        long wordHash = FNV_OFFSET;
+        long prevWordHash = 0;
+        int wordLength = 0;
+        int c1 = 0;
+        int c2 = 0;
+
+        int length = text.length();
+        for (int i = 0; i <= length; ) {
+            int cp;
+            if (i < length) {
+                cp = Character.codePointAt(text, i);
+                i += Character.charCount(cp);
+            } else {
+                // 末尾哨兵，用来结束最后一个单词
+                cp = ' ';
+                i++;
+            }
+
+            if (cp >= 0x3400 && Character.UnicodeScript.of(cp) == Character.UnicodeScript.HAN) {
+                han++;
+                cp = ' ';
+            }
+
+            int letter = asciiLetterIndex(cp);
+            if (letter > 0) {
+                latin++;
+                wordHash = (wordHash ^ letter) * FNV_PRIME;
+                wordLength++;
+                if (wordLength >= 2) {
+                    int index = trigramIndex(wordLength == 2 ? 0 : c2, c1, letter);
+                    ngramDiff += malayTrigrams[index] - englishTrigrams[index];
+                    trigrams++;
+                }
+                c2 = c1;
+                c1 = letter;
+                continue;
+            }
+
+            if (wordLength > 0) {
+                // 单词结束：补一个词尾三元组，并按词边界匹配标识词
+                int index = trigramIndex(c2, c1, 0);
+                ngramDiff += malayTrigrams[index] - englishTrigrams[index];
+                trigrams++;
+
+                long finished = wordHash | 1L;
+                byte hit = indicators.get(finished);
+                if (prevWordHash != 0) {
+                    hit |= indicators.get(combine(prevWordHash, finished));
+                }
+                if ((hit & EN) != 0) {
+                    englishHits++;
+                }
+                if ((hit & MS) != 0) {
+                    malayHits++;
+                }
+                prevWordHash = finished;
+            } else if (!Character.isWhitespace(cp)) {
+                // 数字、标点等打断二元词组
+                prevWordHash = 0;
+            }
+            wordHash = FNV_OFFSET;
+            wordLength = 0;
+            c1 = 0;
+            c2 = 0;
+        }
+
+        if (han == 0 && latin == 0) {
+            return NO_SIGNAL;
+        }
+
+        if (han > 0 && han * HAN_WEIGHT >= latin) {
+            double share = (double) (han * HAN_WEIGHT) / (han * HAN_WEIGHT + latin);
+            double coverage = Math.min(1.0, han / 2.0);
+            return new Detection(Language.CHINESE, clamp(share * coverage));
+        }
+
+        // 正数偏向马来语，负数偏向英文
+        double margin = (malayHits - englishHits) * INDICATOR_WEIGHT
+                + (trigrams > 0 ? ngramDiff / Math.sqrt(trigrams) : 0);
+        Language language = margin > 0 ? Language.MALAY : Language.ENGLISH;
+        double certainty = 1.0 / (1.0 + Math.exp(-Math.abs(margin))); // 0.5 ~ 1
+        double coverage = Math.min(1.0, latin / 12.0);
+        return new Detection(language, clamp((certainty - 0.5) * 2.0 * coverage));
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0.0, Math.min(1.0, value));
+    }
+
+    private static int asciiLetterIndex(int cp) {
+        if (cp >= 'a' && cp <= 'z') {
+            return cp - 'a' + 1;
+        }
+        if (cp >= 'A' && cp <= 'Z') {
+            return cp - 'A' + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * 字母表为 27（0 表示词边界），三元组索引范围 27^3
+     */
+    private static int trigramIndex(int a, int b, int c) {
+        return (a * 27 + b) * 27 + c;
+    }
+
+    private static float[] buildProfile(String corpus) {
+        int[] counts = new int[27 * 27 * 27];
+        int total = 0;
+        for (String word : corpus.split("[^a-z]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            int c2 = 0;
+            int c1 = 0;
+            for (int i = 0; i < word.length(); i++) {
+                int letter = word.charAt(i) - 'a' + 1;
+                if (i >= 1) {
+                    counts[trigramIndex(i == 1 ? 0 : c2, c1, letter)]++;
+                    total++;
+                }
+                c2 = c1;
+                c1 = letter;
+            }
+            counts[trigramIndex(c2, c1, 0)]++;
+            total++;
+        }
+        float[] logProbabilities = new float[counts.length];
+        double denominator = total + counts.length;
+        for (int i = 0; i < counts.length; i++) {
+            logProbabilities[i] = (float) Math.log((counts[i] + 1) / denominator);
+        }
+        return logProbabilities;
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long wordHash(String word) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < word.length(); i++) {
+            hash = (hash ^ asciiLetterIndex(word.charAt(i))) * FNV_PRIME;
+        }
+        return hash | 1L;
+    }
+
+    private static long phraseHash(String phrase) {
+        String[] words = phrase.split(" ");
+        long hash = wordHash(words[0]);
+        for (int i = 1; i < words.length; i++) {
+            hash = combine(hash, wordHash(words[i]));
+        }
+        return hash;
+    }
+
+    private static long combine(long first, long second) {
+        return ((first * 31) ^ Long.rotateLeft(second, 17)) | 1L;
+    }
+
+    /**
+     * 开放寻址的 long -> byte 表，查找不产生装箱对象
+     */
+    private static final class WordTable {
+        private final long[] keys;
+        private final byte[] values;
+        private final int mask;
+
+        WordTable(int capacity) {
+            int size = Integer.highestOneBit(capacity * 2 - 1) << 1;
+            this.keys = new long[size];
+            this.values = new byte[size];
+            this.mask = size - 1;
+        }
+
+        void add(long key, byte flag) {
+            int slot = (int) (mix(key) & mask);
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] |= flag;
+        }
+
+        byte get(long key) {
+            int slot = (int) (mix(key) & mask);
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+
+        private static long mix(long key) {
+            key ^= (key >>> 33);
+            key *= 0xff51afd7ed558ccdL;
+            return key ^ (key >>> 33);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.citacita.service;
+
+import com.citacita.config.ClientKeyWebFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 发往 Azure OpenAI 之前的本地准入控制，让流量保持在部署的 TPM / RPM 配额之内，而不是等 429 再退避。
+ * <ul>
+ *     <li>令牌桶：tokens-per-minute 与 requests-per-minute 各一个，连续补充，
+ *         突发容量为 {@code burst-seconds} 秒的配额（Azure 按 1~10 秒的子窗口判定限流）</li>
+ *     <li>成本估算：提示词按字符估算 token（CJK 约 1 字 1 token，其余约 4 字符 1 token）+ max_tokens，
+ *         与 Azure 预扣配额的方式一致</li>
+ *     <li>排队：配额不足时按客户端（{@link ClientKeyWebFilter}）分队列轮转放行，单个客户端的突发不会饿死其他人；
+ *         最多等待 {@code max-wait}，队列满或超时抛出 {@link LlmOverloadedException} 由调用方降级</li>
+ * </ul>
+ * 两个配额都为 0（默认）时不做限制。
+ */
+@Component
+@Slf4j
+public class LlmAdmissionController {
+
+    private final double tokensPerSecond;
+    private final double requestsPerSecond;
+    private final double tokenCapacity;
+    private final double requestCapacity;
+    private final int defaultCompletionTokens;
+    private final Duration maxWait;
+    private final int maxQueue;
+    private final int maxQueuePerClient;
+    private final MeterRegistry meterRegistry;
+    private final Scheduler timer = Schedulers.parallel();
+
+    private double tokens;
+    private double requests;
+    private long lastRefill = System.nanoTime();
+    // 有排队请求的客户端按插入顺序轮转
+    private final Map<String, ArrayDeque<Waiter>> queues = new HashMap<>();
+    private final ArrayDeque<String> rotation = new ArrayDeque<>();
+    private int queued;
+    private Disposable pendingDrain;
+
+    public LlmAdmissionController(
+            MeterRegistry meterRegistry,
+            @Value("${citacita.openai.admission.tokens-per-minute:0}") long tokensPerMinute,
+            @Value("${citacita.openai.admission.requests-per-minute:0}") long requestsPerMinute,
+            @Value("${citacita.openai.admission.burst-seconds:10}") int burstSeconds,
+            @Value("${citacita.openai.admission.default-completion-tokens:800}") int defaultCompletionTokens,
+            @Value("${citacita.openai.admission.max-wait:PT5S}") Duration maxWait,
+            @Value("${citacita.openai.admission.max-queue:500}") int maxQueue,
+            @Value("${citacita.openai.admission.max-queue-per-client:10}") int maxQueuePerClient) {
+        this.meterRegistry = meterRegistry;
+        this.tokensPerSecond = tokensPerMinute / 60.0;
+        this.requestsPerSecond = requestsPerMinute / 60.0;
+        this.tokenCapacity = tokensPerSecond * burstSeconds;
+        this.requestCapacity = Math.max(1, requestsPerSecond * burstSeconds);
+        this.tokens = tokenCapacity;
+        this.requests = requestCapacity;
+        this.defaultCompletionTokens = defaultCompletionTokens;
+        this.maxWait = maxWait;
+        this.maxQueue = maxQueue;
+        this.maxQueuePerClient = maxQueuePerClient;
+
+        Gauge.builder("citacita.openai.admission.queued", this, c -> c.queuedCount())
+                .description("LLM requests waiting for local quota")
+                .register(meterRegistry);
+    }
+
+    public <T> Flux<T> admit(Map<String, Object> body, Supplier<Flux<T>> call) {
+        if (tokensPerSecond <= 0 && requestsPerSecond <= 0) {
+            return Flux.defer(call);
+        }
+        long cost = estimateTokens(body);
+        return Flux.deferContextual(context -> acquire(context.getOrDefault(ClientKeyWebFilter.CONTEXT_KEY, "unknown"), cost)
+                .thenMany(Flux.defer(call)));
+    }
+
+    public <T> Mono<T> admitOne(Map<String, Object> body, Supplier<Mono<T>> call) {
+        return Mono.from(admit(body, () -> call.get().flux()));
+    }
+
+    /**
+     * 提示词 + 最大补全 token 的粗略估计，只用于配额，不要求精确
+     */
+    long estimateTokens(Map<String, Object> body) {
+        long promptTokens = 0;
+        if (body.get("messages") instanceof List<?> messages) {
+            for (Object message : messages) {
+                if (message instanceof Map<?, ?> map && map.get("content") instanceof String content) {
+                    promptTokens += estimateTextTokens(content) + 4;
+                }
+            }
+        }
+        long completionTokens = defaultCompletionTokens;
+        Object maxTokens = body.get("max_tokens");
+        if (maxTokens instanceof Number number) {
+            completionTokens = number.longValue();
+        }
+        return promptTokens + completionTokens;
+    }
+
+    static long estimateTextTokens(String text) {
+        long cjk = 0;
+        long other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.UnicodeScript.of(text.charAt(i)) == Character.UnicodeScript.HAN) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    private Mono<Void> acquire(String client, long cost) {
+        return Mono.create(sink -> {
+            long start = System.nanoTime();
+            Waiter waiter = new Waiter(client, Math.min(cost, (long) Math.max(1, tokenCapacity)), sink, start);
+            sink.onCancel(() -> remove(waiter));
+            String rejection;
+            synchronized (this) {
+                refill();
+                if (queued == 0 && tryTake(waiter.cost)) {
+                    rejection = null;
+                    waiter.admitted = true;
+                } else {
+                    ArrayDeque<Waiter> queue = queues.get(client);
+                    if (queued >= maxQueue || (queue != null && queue.size() >= maxQueuePerClient)) {
+                        rejection = "LLM admission queue is full";
+                    } else {
+                        rejection = null;
+                        enqueue(waiter);
+                        waiter.timeout = timer.schedule(() -> expire(waiter), maxWait.toMillis(), TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            if (rejection != null) {
+                outcome("shed").increment();
+                sink.error(new LlmOverloadedException(rejection));
+                return;
+            }
+            if (waiter.admitted) {
+                outcome("admitted").increment();
+                sink.success();
+                return;
+            }
+            outcome("queued").increment();
+            scheduleDrain();
+        });
+    }
+
+    private void enqueue(Waiter waiter) {
+        ArrayDeque<Waiter> queue = queues.computeIfAbsent(waiter.client, key -> {
+            rotation.addLast(key);
+            return new ArrayDeque<>();
+        });
+        queue.addLast(waiter);
+        queued++;
+    }
+
+    private void expire(Waiter waiter) {
+        if (remove(waiter)) {
+            outcome("timeout").increment();
+            waiter.sink.error(new LlmOverloadedException("LLM admission wait exceeded " + maxWait));
+        }
+    }
+
+    private synchronized boolean remove(Waiter waiter) {
+        ArrayDeque<Waiter> queue = queues.get(waiter.client);
+        if (queue == null || !queue.remove(waiter)) {
+            return false;
+        }
+        queued--;
+        if (queue.isEmpty()) {
+            queues.remove(waiter.client);
+            rotation.remove(waiter.client);
+        }
+        return true;
+    }
+
+    /**
+     * 轮流从每个客户端队首放行，配额不足时按缺口计算下一次检查时间
+     */
+    private void drain() {
+        List<Waiter> admitted = new ArrayList<>();
+        long delayNanos = -1;
+        synchronized (this) {
+            pendingDrain = null;
+            refill();
+            while (!rotation.isEmpty()) {
+                String client = rotation.peekFirst();
+                ArrayDeque<Waiter> queue = queues.get(client);
+                Waiter head = queue.peekFirst();
+                if (!tryTake(head.cost)) {
+                    delayNanos = nanosUntilAvailable(head.cost);
+                    break;
+                }
+                queue.pollFirst();
+                queued--;
+                rotation.pollFirst();
+                if (queue.isEmpty()) {
+                    queues.remove(client);
+                } else {
+                    rotation.addLast(client);
+                }
+                admitted.add(head);
+            }
+        }
+        for (Waiter waiter : admitted) {
+            waiter.timeout.dispose();
+            Timer.builder("citacita.openai.admission.wait")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - waiter.enqueuedAt, TimeUnit.NANOSECONDS);
+            outcome("admitted").increment();
+            waiter.sink.success();
+        }
+        if (delayNanos >= 0) {
+            scheduleDrain(delayNanos);
+        }
+    }
+
+    private void scheduleDrain() {
+        scheduleDrain(0);
+    }
+
+    private void scheduleDrain(long delayNanos) {
+        synchronized (this) {
+            if (pendingDrain != null || queued == 0) {
+                return;
+            }
+            pendingDrain = timer.schedule(this::drain, Math.max(1, delayNanos), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1_000_000_000.0;
+        lastRefill = now;
+        if (tokensPerSecond > 0) {
+            tokens = Math.min(tokenCapacity, tokens + seconds * tokensPerSecond);
+        }
+        if (requestsPerSecond > 0) {
+            requests = Math.min(requestCapacity, requests + seconds * requestsPerSecond);
+        }
+    }
+
+    private boolean tryTake(long cost) {
+        boolean tokensOk = tokensPerSecond <= 0 || tokens >= cost;
+        boolean requestsOk = requestsPerSecond <= 0 || requests >= 1;
+        if (!tokensOk || !requestsOk) {
+            return false;
+        }
+        if (tokensPerSecond > 0) {
+            tokens -= cost;
+        }
+        if (requestsPerSecond > 0) {
+            requests -= 1;
+        }
+        return true;
+    }
+
+    private long nanosUntilAvailable(long cost) {
+        double seconds = 0;
+        if (tokensPerSecond > 0 && tokens < cost) {
+            seconds = Math.max(seconds, (cost - tokens) / tokensPerSecond);
+        }
+        if (requestsPerSecond > 0 && requests < 1) {
+            seconds = Math.max(seconds, (1 - requests) / requestsPerSecond);
+        }
+        return (long) (seconds * 1_000_000_000L);
+    }
+
+    private synchronized int queuedCount() {
+        return queued;
+    }
+
+    private Counter outcome(String outcome) {
+        return Counter.builder("citacita.openai.admission")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static final class Waiter {
+        final String client;
+        final long cost;
+        final MonoSink<Void> sink;
+        final long enqueuedAt;
+        boolean admitted;
+        Disposable timeout;
+
+        Waiter(String client, long cost, MonoSink<Void> sink, long enqueuedAt) {
+            this.client = client;
+            this.cost = cost;
+            this.sink = sink;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.citacita.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * 本地配额不足、排队已满或等待超时，请求在发往 Azure 之前被拒绝
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class LlmOverloadedException extends UpstreamUnavailableException {
+
+    public LlmOverloadedException(String message) {
+        super(message, null);
+    }
+}
@@ -2,43 +2,66 @@ package com.citacita.service;
 
 import com.citacita.entity.MascoJob;
 import com.citacita.mapper.MascoJobMapper;
+import com.citacita.service.LanguageDetector.Language;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class MascoJobDatabaseService implements InitializingBean {
 
     @Autowired
     private MascoJobMapper mascoJobMapper;
 
-    // 缓存和索引
-    private Map<String, MascoJob> jobCache;
+    @Autowired
+    private LanguageDetector languageDetector;
+
+    @Autowired
+    private SingleFlight singleFlight;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    // 数据库查询在 jdbcScheduler 上执行，纯内存检索在 cpuScheduler 上执行
+    @Autowired
+    @Qualifier("jdbcScheduler")
+    private Scheduler jdbcScheduler;
+
+    @Autowired
+    @Qualifier("cpuScheduler")
+    private Scheduler cpuScheduler;
+
+    // 执行 db/migration/V2__masco_job_fulltext.sql 后开启，数据库降级搜索改用 FULLTEXT 索引
+    @Value("${citacita.search.fulltext.enabled:false}")
+    private boolean fulltextSearchEnabled;
+
+    // 缓存和索引：目录按语言紧凑存储，每次成功加载后整体替换，版本号递增
+    private volatile JobCatalog catalog;
     private Map<String, Set<String>> searchIndex;
-    private Map<String, Set<String>> majorGroupIndex;
     private boolean cacheInitialized = false;
-
-    // 语言检测
-    private final Pattern chinesePattern = Pattern.compile("[\\u4e00-\\u9fff]+");
-    private final Pattern englishPattern = Pattern.compile("[a-zA-Z]+");
+    private final AtomicLong catalogVersion = new AtomicLong();
 
     @Override
     public void afterPropertiesSet() throws Exception {
         try {
-            System.out.println("开始初始化MASCO工作数据缓存...");
+            log.info("开始初始化MASCO工作数据缓存...");
             loadAllJobsToCache();
-            buildSearchIndexes();
-            System.out.println("MASCO工作数据缓存初始化完成，共 " + jobCache.size() + " 条记录");
+            log.info("MASCO工作数据缓存初始化完成，共 {} 条记录", catalog.size());
             cacheInitialized = true;
         } catch (Exception e) {
-            System.err.println("初始化MASCO工作数据缓存失败: " + e.getMessage());
-            e.printStackTrace();
+            log.error("初始化MASCO工作数据缓存失败: {}", e.getMessage(), e);
             cacheInitialized = false;
         }
     }
@@ -50,84 +73,71 @@ public class MascoJobDatabaseService implements InitializingBean {
         try {
             // 使用你现有的selectAll方法
             List<MascoJob> allJobs = mascoJobMapper.selectAll();
-            
-            jobCache = new ConcurrentHashMap<>();
-            for (MascoJob job : allJobs) {
-                if (job.getUnitGroupCode() != null && !job.getUnitGroupCode().trim().isEmpty()) {
-                    jobCache.put(job.getUnitGroupCode(), job);
-                }
-            }
-            
-            System.out.println("成功加载 " + jobCache.size() + " 条工作记录到缓存");
+            JobCatalog loaded = JobCatalog.build(catalogVersion.incrementAndGet(), allJobs);
+            log.info("成功加载 {} 条工作记录到缓存", loaded.size());
+
+            searchIndex = buildSearchIndexes(loaded);
+            catalog = loaded;
+            eventPublisher.publishEvent(new JobCatalogLoadedEvent(loaded.version()));
         } catch (Exception e) {
-            System.err.println("加载工作数据到缓存失败: " + e.getMessage());
-            jobCache = new ConcurrentHashMap<>();
+            log.error("加载工作数据到缓存失败: {}", e.getMessage());
             throw e;
         }
     }
 
     /**
-     * 构建搜索索引
+     * 当前工作目录；缓存从未成功加载时返回 null
      */
-    private void buildSearchIndexes() {
-        searchIndex = new ConcurrentHashMap<>();
-        majorGroupIndex = new ConcurrentHashMap<>();
+    public JobCatalog getCatalog() {
+        return catalog;
+    }
 
-        for (MascoJob job : jobCache.values()) {
-            String jobCode = job.getUnitGroupCode();
-            
+    /**
+     * 构建搜索索引
+     */
+    private Map<String, Set<String>> buildSearchIndexes(JobCatalog loaded) {
+        Map<String, Set<String>> index = new ConcurrentHashMap<>();
+        for (int i = 0; i < loaded.size(); i++) {
             // 构建多语言搜索索引
-            buildJobSearchIndex(job, jobCode);
-            
-            // 构建专业组索引
-            if (job.getMajorGroupCode() != null) {
-                majorGroupIndex.computeIfAbsent(job.getMajorGroupCode(), k -> new HashSet<>())
-                    .add(jobCode);
-            }
+            buildJobSearchIndex(index, loaded, i);
         }
-        
-        System.out.println("搜索索引构建完成，索引词条: " + searchIndex.size());
+
+        log.info("搜索索引构建完成，索引词条: {}", index.size());
+        return index;
     }
 
     /**
      * 构建工作搜索索引
      */
-    private void buildJobSearchIndex(MascoJob job, String jobCode) {
-        // 英文索引
-        addToSearchIndex(job.getUnitGroupTitle(), jobCode);
-        addToSearchIndex(job.getUnitGroupDescription(), jobCode);
-        addToSearchIndex(job.getTasksInclude(), jobCode);
-        addToSearchIndex(job.getExamples(), jobCode);
-        
-        // 中文索引
-        addToSearchIndex(job.getUnitGroupTitleChinese(), jobCode);
-        addToSearchIndex(job.getUnitGroupDescriptionChinese(), jobCode);
-        addToSearchIndex(job.getTasksIncludeChinese(), jobCode);
-        addToSearchIndex(job.getExamplesChinese(), jobCode);
-        
-        // 马来文索引
-        addToSearchIndex(job.getUnitGroupTitleMalay(), jobCode);
-        addToSearchIndex(job.getUnitGroupDescriptionMalay(), jobCode);
-        addToSearchIndex(job.getTasksIncludeMalay(), jobCode);
-        addToSearchIndex(job.getExamplesMalay(), jobCode);
-        
+    private void buildJobSearchIndex(Map<String, Set<String>> index, JobCatalog loaded, int i) {
+        String jobCode = loaded.unitGroupCode(i);
+
+        // 英文、中文、马来文索引
+        for (Language lang : Language.values()) {
+            addToSearchIndex(index, loaded.text(i, lang, JobCatalog.UNIT_GROUP_TITLE), jobCode);
+            addToSearchIndex(index, loaded.text(i, lang, JobCatalog.UNIT_GROUP_DESCRIPTION), jobCode);
+            addToSearchIndex(index, loaded.text(i, lang, JobCatalog.TASKS_INCLUDE), jobCode);
+            addToSearchIndex(index, loaded.text(i, lang, JobCatalog.EXAMPLES), jobCode);
+        }
+
         // 层级标题索引
-        addToSearchIndex(job.getMajorGroupTitle(), jobCode);
-        addToSearchIndex(job.getSubMajorGroupTitle(), jobCode);
-        addToSearchIndex(job.getMinorGroupTitle(), jobCode);
-        
+        addToSearchIndex(index, loaded.text(i, Language.ENGLISH, JobCatalog.MAJOR_GROUP_TITLE), jobCode);
+        addToSearchIndex(index, loaded.text(i, Language.ENGLISH, JobCatalog.SUB_MAJOR_GROUP_TITLE), jobCode);
+        addToSearchIndex(index, loaded.text(i, Language.ENGLISH, JobCatalog.MINOR_GROUP_TITLE), jobCode);
+
         // 工作代码索引
-        addToSearchIndex(job.getUnitGroupCode(), jobCode);
-        addToSearchIndex(job.getMajorGroupCode(), jobCode);
-        addToSearchIndex(job.getSubMajorGroupCode(), jobCode);
-        addToSearchIndex(job.getMinorGroupCode(), jobCode);
+        MascoJob codes = loaded.toLocalizedJob(i, Language.ENGLISH);
+        addToSearchIndex(index, codes.getUnitGroupCode(), jobCode);
+        addToSearchIndex(index, codes.getMajorGroupCode(), jobCode);
+        addToSearchIndex(index, codes.getSubMajorGroupCode(), jobCode);
+        addToSearchIndex(index, codes.getMinorGroupCode(), jobCode);
     }
 
-    private void addToSearchIndex(String text, String jobCode) {
+    private void addToSearchIndex(Map<String, Set<String>> index, String text, String jobCode) {
         if (text != null && !text.trim().isEmpty()) {
             // 整词索引
             String lowerText = text.toLowerCase().trim();
-            searchIndex.computeIfAbsent(lowerText, k -> new HashSet<>()).add(jobCode);
+            index.computeIfAbsent(lowerText, k -> new HashSet<>()).add(jobCode);
             
             // 分词索引
             String[] words = lowerText
@@ -136,7 +146,7 @@ public class MascoJobDatabaseService implements InitializingBean {
             
             for (String word : words) {
                 if (word.length() > 2) {
-                    searchIndex.computeIfAbsent(word, k -> new HashSet<>()).add(jobCode);
+                    index.computeIfAbsent(word, k -> new HashSet<>()).add(jobCode);
                 }
             }
         }
@@ -146,7 +156,7 @@ public class MascoJobDatabaseService implements InitializingBean {
      * 智能工作搜索
      */
     public Mono<List<MascoJob>> searchJobs(String query, String language, int limit) {
-        return Mono.fromCallable(() -> {
+        return Mono.<List<MascoJob>>fromCallable(() -> {
             if (query == null || query.trim().isEmpty()) {
                 return Collections.emptyList();
             }
@@ -157,6 +167,8 @@ public class MascoJobDatabaseService implements InitializingBean {
             }
 
             String detectedLanguage = language != null ? language : detectLanguage(query);
+            Language resultLanguage = toLanguage(detectedLanguage);
+            JobCatalog current = catalog;
             String lowerQuery = query.toLowerCase().trim();
             
             Map<String, Integer> jobScores = new HashMap<>();
@@ -174,11 +186,13 @@ public class MascoJobDatabaseService implements InitializingBean {
             return jobScores.entrySet().stream()
                 .filter(entry -> entry.getValue() > 0)
                 .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .map(entry -> current.indexOf(entry.getKey()))
+                .filter(index -> index >= 0)
                 .limit(limit)
-                .map(entry -> jobCache.get(entry.getKey()))
-                .filter(Objects::nonNull)
+                // 只投影请求的语言，缺失时回退英文
+                .map(index -> current.toLocalizedJob(index, resultLanguage))
                 .collect(Collectors.toList());
-        });
+        }).subscribeOn(cacheInitialized ? cpuScheduler : jdbcScheduler);
     }
 
     /**
@@ -189,31 +203,59 @@ public class MascoJobDatabaseService implements InitializingBean {
             String detectedLanguage = language != null ? language : detectLanguage(query);
             String langCode = mapToDbLanguageCode(detectedLanguage);
             
-            // 优先使用关键词搜索
-            List<MascoJob> results = mascoJobMapper.searchJobsByKeywords(query, langCode, limit);
-            
-            // 如果结果不够，尝试标题描述搜索
-            if (results.size() < limit) {
-                List<MascoJob> additionalResults = mascoJobMapper.searchJobsByTitleAndDescription(query, langCode, limit - results.size());
-                
-                // 去重并合并结果
-                Set<String> existingCodes = results.stream()
-                    .map(MascoJob::getUnitGroupCode)
-                    .collect(Collectors.toSet());
-                
-                additionalResults.stream()
-                    .filter(job -> !existingCodes.contains(job.getUnitGroupCode()))
-                    .forEach(results::add);
+            List<MascoJob> results = null;
+            if (fulltextSearchEnabled) {
+                try {
+                    results = mascoJobMapper.searchJobsByFulltext(query, langCode, limit);
+                } catch (Exception e) {
+                    // 多半是迁移脚本尚未执行，回退到 LIKE 搜索
+                    log.warn("全文检索失败，回退到LIKE搜索: {}", e.getMessage());
+                }
+            }
+            if (results == null) {
+                results = searchJobsByLike(query, langCode, limit);
             }
             
-            return results;
+            // 与缓存路径一致，只返回请求语言的字段
+            Language resultLanguage = toLanguage(detectedLanguage);
+            return results.stream()
+                .map(job -> JobCatalog.localize(job, resultLanguage))
+                .collect(Collectors.toList());
                 
         } catch (Exception e) {
-            System.err.println("数据库搜索失败: " + e.getMessage());
+            log.warn("数据库搜索失败: {}", e.getMessage());
             return Collections.emptyList();
         }
     }
 
+    /**
+     * LIKE 模糊搜索，未启用全文索引时使用
+     */
+    private List<MascoJob> searchJobsByLike(String query, String langCode, int limit) {
+        // 优先使用关键词搜索
+        List<MascoJob> results = mascoJobMapper.searchJobsByKeywords(query, langCode, limit);
+        
+        // 如果结果不够，尝试标题描述搜索
+        if (results.size() < limit) {
+            List<MascoJob> additionalResults = mascoJobMapper.searchJobsByTitleAndDescription(query, langCode, limit - results.size());
+            
+            // 去重并合并结果
+            Set<String> existingCodes = results.stream()
+                .map(MascoJob::getUnitGroupCode)
+                .collect(Collectors.toSet());
+            
+            additionalResults.stream()
+                .filter(job -> !existingCodes.contains(job.getUnitGroupCode()))
+                .forEach(results::add);
+        }
+        return results;
+    }
+
+    private Language toLanguage(String language) {
+        Language parsed = Language.fromCode(language);
+        return parsed != null ? parsed : Language.ENGLISH;
+    }
+
     /**
      * 映射语言代码到数据库语言代码
      */
@@ -271,72 +313,59 @@ public class MascoJobDatabaseService implements InitializingBean {
      * 检测查询语言
      */
     private String detectLanguage(String query) {
-        int chineseChars = 0;
-        int englishChars = 0;
-        
-        if (chinesePattern.matcher(query).find()) {
-            chineseChars = query.replaceAll("[^\\u4e00-\\u9fff]", "").length();
-        }
-        
-        if (englishPattern.matcher(query).find()) {
-            englishChars = query.replaceAll("[^a-zA-Z]", "").length();
-        }
-        
-        if (chineseChars > englishChars) {
-            return "chinese";
-        } else if (englishChars > chineseChars) {
-            return "en";
-        } else {
-            return chinesePattern.matcher(query).find() ? "chinese" : "en";
-        }
+        return languageDetector.detect(query).getLanguage().getKey();
     }
 
     /**
      * 根据工作代码获取工作详情
      */
     public Mono<Optional<MascoJob>> getJobByCode(String unitGroupCode, String language) {
-        return Mono.fromCallable(() -> {
+        return Mono.<Optional<MascoJob>>fromCallable(() -> {
             try {
                 // 优先从缓存获取
-                if (cacheInitialized && jobCache.containsKey(unitGroupCode)) {
-                    return Optional.of(jobCache.get(unitGroupCode));
+                JobCatalog current = catalog;
+                int index = current != null ? current.indexOf(unitGroupCode) : -1;
+                if (index >= 0) {
+                    return Optional.of(current.toLocalizedJob(index, toLanguage(language)));
                 }
                 
-                // 从数据库获取
-                String langCode = mapToDbLanguageCode(language);
-                MascoJob job = mascoJobMapper.selectByUnitGroupCodeAndLang(langCode, unitGroupCode);
-                return Optional.ofNullable(job);
+                // 从数据库获取，按同样规则投影语言
+                MascoJob job = singleFlight.call("masco_job.selectByUnitGroupCode", unitGroupCode,
+                        () -> mascoJobMapper.selectByUnitGroupCode(unitGroupCode));
+                return Optional.ofNullable(job).map(row -> JobCatalog.localize(row, toLanguage(language)));
             } catch (Exception e) {
-                System.err.println("获取工作详情失败: " + e.getMessage());
+                log.warn("获取工作详情失败: {}", e.getMessage());
                 return Optional.empty();
             }
-        });
+        }).subscribeOn(jdbcScheduler);
     }
 
     /**
      * 根据专业组代码获取工作列表
      */
     public Mono<List<MascoJob>> getJobsByMajorGroupCode(String majorGroupCode, String language) {
-        return Mono.fromCallable(() -> {
+        return Mono.<List<MascoJob>>fromCallable(() -> {
             try {
                 String langCode = mapToDbLanguageCode(language);
                 
-                // 优先从缓存获取
-                if (cacheInitialized && majorGroupIndex.containsKey(majorGroupCode)) {
-                    Set<String> jobCodes = majorGroupIndex.get(majorGroupCode);
-                    return jobCodes.stream()
-                        .map(jobCache::get)
-                        .filter(Objects::nonNull)
+                // 优先从缓存获取（按请求的语言投影）
+                JobCatalog current = catalog;
+                int[] indexes = current != null ? current.indexesByMajorGroup(majorGroupCode) : new int[0];
+                if (indexes.length > 0) {
+                    Language lang = toLanguage(language);
+                    return Arrays.stream(indexes)
+                        .mapToObj(index -> current.toLocalizedJob(index, lang))
                         .collect(Collectors.toList());
                 }
                 
                 // 从数据库获取
-                return mascoJobMapper.selectByMajorGroupCodeAndLang(langCode, majorGroupCode);
+                return singleFlight.call("masco_job.selectByMajorGroupCodeAndLang", langCode + '|' + majorGroupCode,
+                        () -> mascoJobMapper.selectByMajorGroupCodeAndLang(langCode, majorGroupCode));
             } catch (Exception e) {
-                System.err.println("获取专业组工作失败: " + e.getMessage());
+                log.warn("获取专业组工作失败: {}", e.getMessage());
                 return Collections.emptyList();
             }
-        });
+        }).subscribeOn(jdbcScheduler);
     }
 
     /**
@@ -344,21 +373,9 @@ public class MascoJobDatabaseService implements InitializingBean {
      */
     public Mono<JobStatistics> getStatistics() {
         return Mono.fromCallable(() -> {
-            if (cacheInitialized) {
-                long totalJobs = jobCache.size();
-                long majorGroupCount = jobCache.values().stream()
-                    .map(MascoJob::getMajorGroupCode)
-                    .filter(Objects::nonNull)
-                    .distinct()
-                    .count();
-                
-                long subMajorGroupCount = jobCache.values().stream()
-                    .map(MascoJob::getSubMajorGroupCode)
-                    .filter(Objects::nonNull)
-                    .distinct()
-                    .count();
-                    
-                return new JobStatistics(totalJobs, majorGroupCount, subMajorGroupCount);
+            JobCatalog current = catalog;
+            if (current != null) {
+                return new JobStatistics(current.size(), current.majorGroupCount(), current.subMajorGroupCount());
             } else {
                 // 从数据库统计
                 try {
@@ -369,11 +386,11 @@ public class MascoJobDatabaseService implements InitializingBean {
                     return new JobStatistics(0, 0, 0);
                 }
             }
-        });
+        }).subscribeOn(jdbcScheduler);
     }
 
     /**
-     * 格式化工作信息为RAG响应
+     * 格式化工作信息为RAG响应（jobs 已由 searchJobs 按语言投影）
      */
     public String formatJobsForRAG(List<MascoJob> jobs, String language) {
         if (jobs.isEmpty()) {
@@ -413,15 +430,15 @@ public class MascoJobDatabaseService implements InitializingBean {
             "**职业示例：** %s\n\n" +
             "**技能等级：** %s\n\n" +
             "**所属类别：** %s > %s > %s",
-            getValueOrDefault(job.getUnitGroupTitleChinese(), job.getUnitGroupTitle()),
+            getValueOrDefault(job.getUnitGroupTitle(), ""),
             job.getUnitGroupCode(),
-            getValueOrDefault(job.getUnitGroupDescriptionChinese(), job.getUnitGroupDescription()),
-            getValueOrDefault(job.getTasksIncludeChinese(), job.getTasksInclude()),
-            getValueOrDefault(job.getExamplesChinese(), job.getExamples()),
-            getValueOrDefault(job.getSkillLevelChinese(), job.getSkillLevel()),
-            getValueOrDefault(job.getMajorGroupTitleChinese(), job.getMajorGroupTitle()),
-            getValueOrDefault(job.getSubMajorGroupTitleChinese(), job.getSubMajorGroupTitle()),
-            getValueOrDefault(job.getMinorGroupTitleChinese(), job.getMinorGroupTitle())
+            getValueOrDefault(job.getUnitGroupDescription(), ""),
+            getValueOrDefault(job.getTasksInclude(), ""),
+            getValueOrDefault(job.getExamples(), ""),
+            getValueOrDefault(job.getSkillLevel(), ""),
+            getValueOrDefault(job.getMajorGroupTitle(), ""),
+            getValueOrDefault(job.getSubMajorGroupTitle(), ""),
+            getValueOrDefault(job.getMinorGroupTitle(), "")
         );
     }
 
@@ -456,15 +473,18 @@ public class MascoJobDatabaseService implements InitializingBean {
     public Mono<String> refreshCache() {
         return Mono.fromCallable(() -> {
             try {
-                loadAllJobsToCache();
-                buildSearchIndexes();
+                // 并发的刷新请求共用同一次全表加载
+                singleFlight.call("masco_job.selectAll", "catalog", () -> {
+                    loadAllJobsToCache();
+                    return null;
+                });
                 cacheInitialized = true;
-                return "缓存刷新成功，共 " + jobCache.size() + " 条记录";
+                return "缓存刷新成功，共 " + catalog.size() + " 条记录";
             } catch (Exception e) {
-                System.err.println("刷新缓存失败: " + e.getMessage());
+                log.error("刷新缓存失败: {}", e.getMessage());
                 return "缓存刷新失败: " + e.getMessage();
             }
-        });
+        }).subscribeOn(jdbcScheduler);
     }
 
     /**
@@ -0,0 +1,276 @@
+package com.citacita.service;
+
+import com.citacita.config.UpstreamHttpClients;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 多个 Azure OpenAI 部署（不同区域/配额）之间的负载均衡。
+ * <p>
+ * 端点通过 {@code citacita.openai.endpoints[i].name/url/api-key/weight} 配置，weight 建议填每分钟 token 配额；
+ * 未配置时使用单个 {@code azure.openai.endpoint}。url 可以是 http://localhost 上的桩服务，便于本地联调。
+ * <ul>
+ *     <li>选择：按权重随机抽两个健康端点，取 (进行中请求数 + 1) × 首包延迟 EWMA 较小的一个，
+ *         低负载时流量按配额比例分布，高负载时偏向空闲且响应快的端点</li>
+ *     <li>摘除：429 按 Retry-After 摘除；连续 {@code eject-after} 次可重试失败后摘除 {@code eject-duration}；
+ *         全部被摘除时选最早恢复的一个</li>
+ *     <li>首包超时：流式调用在 {@code citacita.openai.ttft-timeout} 内没有收到第一个事件时，
+ *         这里以 {@link TimeoutException} 结束本次调用并计入该端点的失败，再由 {@link OpenAiResilience} 决定是否重试</li>
+ * </ul>
+ * 每次调用（包括 {@link OpenAiResilience} 的每次重试）都会重新选择端点；非流式调用的耗时是整段生成时间，不计入延迟统计。
+ */
+@Component
+@Slf4j
+public class OpenAiEndpointPool {
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final List<Endpoint> endpoints;
+    private final int ejectAfter;
+    private final Duration ejectDuration;
+    private final Duration firstEventTimeout;
+    private final MeterRegistry meterRegistry;
+
+    public OpenAiEndpointPool(
+            Environment environment,
+            UpstreamHttpClients httpClients,
+            MeterRegistry meterRegistry,
+            @Value("${azure.openai.endpoint:}") String defaultEndpoint,
+            @Value("${azure.openai.apiKey:}") String defaultApiKey,
+            @Value("${citacita.openai.balancer.eject-after:3}") int ejectAfter,
+            @Value("${citacita.openai.balancer.eject-duration:PT30S}") Duration ejectDuration,
+            @Value("${citacita.openai.ttft-timeout:PT15S}") Duration ttftTimeout) {
+        this.meterRegistry = meterRegistry;
+        this.firstEventTimeout = ttftTimeout;
+        this.ejectAfter = ejectAfter;
+        this.ejectDuration = ejectDuration;
+
+        List<EndpointProperties> configured = Binder.get(environment)
+                .bind("citacita.openai.endpoints", Bindable.listOf(EndpointProperties.class))
+                .orElse(Collections.emptyList());
+        if (configured.isEmpty()) {
+            if (defaultEndpoint.isEmpty()) {
+                throw new IllegalStateException("azure.openai.endpoint 或 citacita.openai.endpoints 至少需要配置一个");
+            }
+            EndpointProperties single = new EndpointProperties();
+            single.setName("default");
+            single.setUrl(defaultEndpoint);
+            single.setApiKey(defaultApiKey);
+            configured = List.of(single);
+        }
+
+        List<Endpoint> built = new ArrayList<>();
+        for (int i = 0; i < configured.size(); i++) {
+            EndpointProperties props = configured.get(i);
+            String name = props.getName() != null ? props.getName() : "endpoint-" + i;
+            WebClient client = WebClient.builder()
+                    .baseUrl(props.getUrl())
+                    .clientConnector(httpClients.connector("openai", props.getUrl()))
+                    .defaultHeader("Authorization", "Bearer " + props.getApiKey())
+                    .defaultHeader("Content-Type", "application/json")
+                    .build();
+            Endpoint endpoint = new Endpoint(name, client, Math.max(1, props.getWeight()));
+            Gauge.builder("citacita.openai.endpoint.outstanding", endpoint.outstanding, AtomicInteger::get)
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            Gauge.builder("citacita.openai.endpoint.latency.ewma", endpoint, e -> e.latencyEwmaMillis)
+                    .tag("endpoint", name)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+            built.add(endpoint);
+        }
+        this.endpoints = List.copyOf(built);
+        log.info("OpenAI 端点池: {}", endpoints.stream().map(e -> e.name + "(weight=" + e.weight + ")").toList());
+    }
+
+    /**
+     * 在选中的端点上执行流式调用，第一个事件到达时记录延迟，可重试类失败计入健康状态
+     */
+    public <T> Flux<T> stream(Function<WebClient, Flux<T>> call) {
+        return execute(call, true);
+    }
+
+    public <T> Mono<T> call(Function<WebClient, Mono<T>> call) {
+        return Mono.from(execute(client -> call.apply(client).flux(), false));
+    }
+
+    private <T> Flux<T> execute(Function<WebClient, Flux<T>> call, boolean streaming) {
+        return Flux.defer(() -> {
+            Endpoint endpoint = select();
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            endpoint.outstanding.incrementAndGet();
+            Flux<T> events = call.apply(endpoint.client);
+            if (streaming) {
+                // 首包计时从选中端点开始，超时以错误而不是取消结束，保证计入该端点的健康状态
+                events = events.timeout(Mono.delay(firstEventTimeout), item -> Mono.never());
+            }
+            return events
+                    .doOnNext(item -> {
+                        if (first.compareAndSet(true, false)) {
+                            endpoint.onSuccess(streaming ? System.nanoTime() - start : -1);
+                        }
+                    })
+                    .doOnError(error -> {
+                        if (first.get()) {
+                            onFailure(endpoint, error);
+                        }
+                    })
+                    .onErrorMap(error -> first.get() && isThrottled(error) && hasAvailableEndpoint(),
+                            // 被限流的端点已摘除，还有其他可用端点时不必等待 Retry-After，按普通退避立即换端点重试
+                            error -> new UpstreamStatusException(error.getMessage(), 429, null))
+                    .doFinally(signal -> endpoint.outstanding.decrementAndGet());
+        });
+    }
+
+    private Endpoint select() {
+        long now = System.nanoTime();
+        List<Endpoint> healthy = new ArrayList<>(endpoints.size());
+        long healthyWeight = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isAvailable(now)) {
+                healthy.add(endpoint);
+                healthyWeight += endpoint.weight;
+            }
+        }
+        Endpoint chosen;
+        if (healthy.isEmpty()) {
+            // 全部被摘除：选最早恢复的一个，而不是直接拒绝
+            chosen = endpoints.get(0);
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.ejectedUntil - chosen.ejectedUntil < 0) {
+                    chosen = endpoint;
+                }
+            }
+        } else if (healthy.size() == 1) {
+            chosen = healthy.get(0);
+        } else {
+            Endpoint a = pickWeighted(healthy, healthyWeight);
+            Endpoint b = pickWeighted(healthy, healthyWeight);
+            chosen = a.cost() <= b.cost() ? a : b;
+        }
+        Counter.builder("citacita.openai.endpoint.selected")
+                .tag("endpoint", chosen.name)
+                .register(meterRegistry)
+                .increment();
+        return chosen;
+    }
+
+    private boolean hasAvailableEndpoint() {
+        long now = System.nanoTime();
+        return endpoints.stream().anyMatch(endpoint -> endpoint.isAvailable(now));
+    }
+
+    private static boolean isThrottled(Throwable error) {
+        return error instanceof UpstreamStatusException status && status.getStatusCode() == 429;
+    }
+
+    private static Endpoint pickWeighted(List<Endpoint> candidates, long weightSum) {
+        long ticket = ThreadLocalRandom.current().nextLong(weightSum);
+        for (Endpoint endpoint : candidates) {
+            ticket -= endpoint.weight;
+            if (ticket < 0) {
+                return endpoint;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private void onFailure(Endpoint endpoint, Throwable error) {
+        if (isThrottled(error)) {
+            Duration retryAfter = ((UpstreamStatusException) error).getRetryAfter();
+            Duration throttle = retryAfter != null ? retryAfter : ejectDuration;
+            eject(endpoint, throttle, "429");
+            return;
+        }
+        boolean retryable = (error instanceof UpstreamStatusException status && status.isRetryable())
+                || error instanceof WebClientRequestException
+                || error instanceof IOException
+                || error instanceof TimeoutException;
+        if (retryable && endpoint.consecutiveFailures.incrementAndGet() >= ejectAfter) {
+            eject(endpoint, ejectDuration, "failures");
+        }
+    }
+
+    private void eject(Endpoint endpoint, Duration duration, String reason) {
+        endpoint.ejectedUntil = System.nanoTime() + duration.toNanos();
+        endpoint.consecutiveFailures.set(0);
+        log.warn("OpenAI 端点 {} 被摘除 {} ms（{}）", endpoint.name, duration.toMillis(), reason);
+        Counter.builder("citacita.openai.endpoint.ejections")
+                .tag("endpoint", endpoint.name)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    @Data
+    public static class EndpointProperties {
+        private String name;
+        private String url;
+        private String apiKey;
+        /**
+         * 相对权重，建议填写该部署的每分钟 token 配额
+         */
+        private long weight = 1;
+    }
+
+    private static final class Endpoint {
+        final String name;
+        final WebClient client;
+        final long weight;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        volatile double latencyEwmaMillis;
+        volatile long ejectedUntil = System.nanoTime();
+
+        Endpoint(String name, WebClient client, long weight) {
+            this.name = name;
+            this.client = client;
+            this.weight = weight;
+        }
+
+        boolean isAvailable(long now) {
+            return now - ejectedUntil >= 0;
+        }
+
+        /**
+         * 没有延迟样本时按 1ms 计，新端点先按负载参与竞争
+         */
+        double cost() {
+            return (outstanding.get() + 1) * Math.max(1.0, latencyEwmaMillis);
+        }
+
+        void onSuccess(long elapsedNanos) {
+            consecutiveFailures.set(0);
+            if (elapsedNanos < 0) {
+                return;
+            }
+            double millis = elapsedNanos / 1_000_000.0;
+            double current = latencyEwmaMillis;
+            latencyEwmaMillis = current == 0 ? millis : current + EWMA_ALPHA * (millis - current);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Azure OpenAI 调用的容错层：
+ * <ul>
+ *     <li>重试：只在收到第一个事件之前重试（之后重试会让客户端收到重复内容），
+ *         退避带随机抖动，优先使用上游的 Retry-After / retry-after-ms；
+ *         从第一次尝试开始超过 {@code citacita.openai.retry.max-elapsed} 后不再发起新的尝试</li>
+ *     <li>首包超时：流式调用的 {@code citacita.openai.ttft-timeout} 由 {@link OpenAiEndpointPool} 按端点计时，
+ *         超时的 {@link TimeoutException} 在这里按可重试失败处理；非流式调用使用 {@code completion-timeout}，
+ *         整个补全超时后不再重试（再等一个 completion-timeout 多半同样超时）</li>
+ *     <li>对冲请求（默认关闭）：第一个请求在 p95 首包时间内没有响应时再发一个，取先返回的一个；
+ *         对冲请求同样消耗上游配额，由调用方通过 hedgeAdmission 再经过一次准入控制</li>
+ *     <li>熔断：按最近 N 次调用的失败率打开，打开期间直接抛出 {@link UpstreamUnavailableException}，
+ *         冷却后放行少量探测请求</li>
+ * </ul>
+ * 只有可重试类的失败（限流、5xx、网络错误、超时）计入熔断并转换为 {@link UpstreamUnavailableException}；
+ * 参数错误、内容过滤等 4xx 原样抛出。
+ */
+@Component
+@Slf4j
+public class OpenAiResilience {
+
+    private static final int TTFT_SAMPLES = 200;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final MeterRegistry meterRegistry;
+    private final int maxRetries;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration maxRetryAfter;
+    private final Duration maxElapsed;
+    private final Duration completionTimeout;
+    private final boolean hedgeEnabled;
+    private final Duration hedgeDelay;
+    private final CircuitBreaker breaker;
+
+    // 最近的首包耗时（毫秒），用于估算对冲延迟
+    private final long[] ttftSamples = new long[TTFT_SAMPLES];
+    private int ttftCount;
+
+    public OpenAiResilience(
+            MeterRegistry meterRegistry,
+            @Value("${citacita.openai.retry.max-retries:2}") int maxRetries,
+            @Value("${citacita.openai.retry.initial-backoff:PT0.5S}") Duration initialBackoff,
+            @Value("${citacita.openai.retry.max-backoff:PT4S}") Duration maxBackoff,
+            @Value("${citacita.openai.retry.max-retry-after:PT10S}") Duration maxRetryAfter,
+            @Value("${citacita.openai.retry.max-elapsed:PT30S}") Duration maxElapsed,
+            @Value("${citacita.openai.completion-timeout:PT60S}") Duration completionTimeout,
+            @Value("${citacita.openai.hedge.enabled:false}") boolean hedgeEnabled,
+            @Value("${citacita.openai.hedge.delay:PT0S}") Duration hedgeDelay,
+            @Value("${citacita.openai.circuit.window-size:50}") int windowSize,
+            @Value("${citacita.openai.circuit.minimum-calls:20}") int minimumCalls,
+            @Value("${citacita.openai.circuit.failure-rate-threshold:0.5}") double failureRateThreshold,
+            @Value("${citacita.openai.circuit.open-duration:PT30S}") Duration openDuration,
+            @Value("${citacita.openai.circuit.half-open-calls:3}") int halfOpenCalls) {
+        this.meterRegistry = meterRegistry;
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.maxRetryAfter = maxRetryAfter;
+        this.maxElapsed = maxElapsed;
+        this.completionTimeout = completionTimeout;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeDelay = hedgeDelay;
+        this.breaker = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold, openDuration, halfOpenCalls);
+
+        Gauge.builder("citacita.openai.circuit.state", breaker, b -> b.state().ordinal())
+                .description("0 = closed, 1 = open, 2 = half-open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 流式调用：首包前重试、可选对冲；首包超时由 {@link OpenAiEndpointPool} 对每次尝试施加
+     */
+    public <T> Flux<T> stream(String name, Supplier<Flux<T>> call) {
+        return stream(name, call, UnaryOperator.identity());
+    }
+
+    /**
+     * @param hedgeAdmission 包装对冲请求，例如再经过一次 {@link LlmAdmissionController#admit}，让对冲的额外消耗计入本地配额
+     */
+    public <T> Flux<T> stream(String name, Supplier<Flux<T>> call, UnaryOperator<Flux<T>> hedgeAdmission) {
+        return guard(name, call, hedgeAdmission, null, true);
+    }
+
+    /**
+     * 非流式调用：整个响应即“第一个事件”，使用 completion-timeout，不做对冲
+     */
+    public <T> Mono<T> call(String name, Supplier<Mono<T>> call) {
+        return Mono.from(guard(name, () -> call.get().flux(), UnaryOperator.identity(), completionTimeout, false));
+    }
+
+    private <T> Flux<T> guard(String name, Supplier<Flux<T>> call, UnaryOperator<Flux<T>> hedgeAdmission,
+                              Duration firstTimeout, boolean streaming) {
+        return Flux.defer(() -> {
+            if (!breaker.tryAcquire()) {
+                counter("citacita.openai.calls", name, "outcome", "rejected").increment();
+                return Flux.error(new UpstreamUnavailableException("OpenAI circuit breaker is open", null));
+            }
+            long start = System.nanoTime();
+            AtomicBoolean started = new AtomicBoolean();
+            AtomicBoolean settled = new AtomicBoolean();
+
+            Flux<T> attempt = Flux.defer(() -> streaming && hedgeEnabled ? hedged(name, call, hedgeAdmission) : call.get());
+            if (firstTimeout != null) {
+                attempt = attempt.timeout(Mono.delay(firstTimeout), first -> Mono.never());
+            }
+
+            return attempt
+                    .doOnNext(item -> {
+                        if (started.compareAndSet(false, true) && settled.compareAndSet(false, true)) {
+                            long elapsed = System.nanoTime() - start;
+                            recordTtft(name, elapsed, streaming);
+                            breaker.onSuccess();
+                            counter("citacita.openai.calls", name, "outcome", "success").increment();
+                        }
+                    })
+                    .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                        Throwable failure = signal.failure();
+                        Duration delay = started.get() ? null : retryDelay(failure, signal.totalRetries(), streaming);
+                        if (delay != null && System.nanoTime() - start + delay.toNanos() > maxElapsed.toNanos()) {
+                            log.warn("OpenAI 调用失败（{}），重试将超出总时限 {}，不再重试", name, maxElapsed);
+                            delay = null;
+                        }
+                        if (delay == null) {
+                            return Mono.error(failure);
+                        }
+                        counter("citacita.openai.retries", name, "reason", reason(failure)).increment();
+                        log.warn("OpenAI 调用失败（{}），{} ms 后第 {} 次重试: {}",
+                                name, delay.toMillis(), signal.totalRetries() + 1, failure.toString());
+                        return Mono.delay(delay);
+                    })))
+                    .onErrorMap(failure -> !started.get() && isRetryable(failure),
+                            failure -> new UpstreamUnavailableException("OpenAI unavailable: " + unwrap(failure), unwrap(failure)))
+                    .doOnError(failure -> {
+                        if (settled.compareAndSet(false, true)) {
+                            if (failure instanceof UpstreamUnavailableException) {
+                                breaker.onFailure();
+                                counter("citacita.openai.calls", name, "outcome", "failure").increment();
+                            } else {
+                                breaker.onIgnored();
+                                counter("citacita.openai.calls", name, "outcome", "error").increment();
+                            }
+                        }
+                    })
+                    .doFinally(signal -> {
+                        // 取消或空响应：不计入熔断统计，只归还半开状态的探测名额
+                        if (settled.compareAndSet(false, true)) {
+                            breaker.onIgnored();
+                        }
+                    });
+        });
+    }
+
+    private <T> Flux<T> hedged(String name, Supplier<Flux<T>> call, UnaryOperator<Flux<T>> hedgeAdmission) {
+        Duration delay = currentHedgeDelay();
+        if (delay == null) {
+            return call.get();
+        }
+        return Flux.defer(() -> {
+            AtomicBoolean counted = new AtomicBoolean();
+            Flux<T> secondary = Mono.delay(delay)
+                    .doOnNext(tick -> counter("citacita.openai.hedges", name, "outcome", "launched").increment())
+                    .thenMany(hedgeAdmission.apply(Flux.defer(call)))
+                    .doOnNext(item -> {
+                        if (counted.compareAndSet(false, true)) {
+                            counter("citacita.openai.hedges", name, "outcome", "won").increment();
+                        }
+                    });
+            return Flux.firstWithValue(call.get(), secondary);
+        });
+    }
+
+    /**
+     * 固定延迟优先；未配置时取最近首包耗时的 p95，样本不足时不对冲
+     */
+    private Duration currentHedgeDelay() {
+        if (!hedgeDelay.isZero()) {
+            return hedgeDelay;
+        }
+        long[] samples;
+        synchronized (ttftSamples) {
+            if (ttftCount < MIN_HEDGE_SAMPLES) {
+                return null;
+            }
+            samples = Arrays.copyOf(ttftSamples, Math.min(ttftCount, TTFT_SAMPLES));
+        }
+        Arrays.sort(samples);
+        return Duration.ofMillis(samples[(int) Math.ceil(samples.length * 0.95) - 1]);
+    }
+
+    private void recordTtft(String name, long elapsedNanos, boolean streaming) {
+        Timer.builder("citacita.openai.ttft")
+                .description("Time from request to first upstream event")
+                .tag("name", name)
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (!streaming) {
+            return;
+        }
+        synchronized (ttftSamples) {
+            ttftSamples[ttftCount % TTFT_SAMPLES] = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            ttftCount++;
+        }
+    }
+
+    /**
+     * 返回 null 表示不再重试
+     */
+    private Duration retryDelay(Throwable failure, long retriesSoFar, boolean streaming) {
+        if (retriesSoFar >= maxRetries || !isRetryable(failure)) {
+            return null;
+        }
+        Throwable cause = unwrap(failure);
+        if (!streaming && cause instanceof TimeoutException) {
+            return null;
+        }
+        if (cause instanceof UpstreamStatusException status && status.getRetryAfter() != null) {
+            // 上游要求等待的时间超过上限时直接失败，交给调用方降级
+            return status.getRetryAfter().compareTo(maxRetryAfter) <= 0 ? status.getRetryAfter() : null;
+        }
+        long ceiling = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(retriesSoFar, 16));
+        // full jitter：在 [ceiling/2, ceiling] 之间随机，避免大量连接同时重试
+        long half = Math.max(1, ceiling / 2);
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+
+    private static boolean isRetryable(Throwable failure) {
+        Throwable cause = unwrap(failure);
+        if (cause instanceof UpstreamStatusException status) {
+            return status.isRetryable();
+        }
+        return cause instanceof TimeoutException
+                || cause instanceof WebClientRequestException
+                || cause instanceof IOException;
+    }
+
+    /**
+     * 对冲时两个请求都失败，Reactor 抛出带 suppressed 的 NoSuchElementException，取第一个原始异常
+     */
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof NoSuchElementException && failure.getSuppressed().length > 0) {
+            return failure.getSuppressed()[0];
+        }
+        return failure;
+    }
+
+    private static String reason(Throwable failure) {
+        Throwable cause = unwrap(failure);
+        if (cause instanceof UpstreamStatusException status) {
+            return String.valueOf(status.getStatusCode());
+        }
+        return cause instanceof TimeoutException ? "timeout" : "io";
+    }
+
+    private Counter counter(String name, String call, String tagKey, String tagValue) {
+        return Counter.builder(name)
+                .tag("name", call)
+                .tag(tagKey, tagValue)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 基于最近 N 次调用结果的熔断器，状态切换频率很低，直接同步
+     */
+    private final class CircuitBreaker {
+
+        enum State {CLOSED, OPEN, HALF_OPEN}
+
+        private final boolean[] failures;
+        private final int minimumCalls;
+        private final double failureRateThreshold;
+        private final long openNanos;
+        private final int halfOpenCalls;
+
+        private State state = State.CLOSED;
+        private int cursor;
+        private int size;
+        private int failureCount;
+        private long openUntil;
+        private int halfOpenInFlight;
+        private int halfOpenSuccesses;
+
+        CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                       Duration openDuration, int halfOpenCalls) {
+            this.failures = new boolean[windowSize];
+            this.minimumCalls = minimumCalls;
+            this.failureRateThreshold = failureRateThreshold;
+            this.openNanos = openDuration.toNanos();
+            this.halfOpenCalls = halfOpenCalls;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openUntil < 0) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenInFlight >= halfOpenCalls) {
+                    return false;
+                }
+                halfOpenInFlight++;
+            }
+            return true;
+        }
+
+        synchronized void onSuccess() {
+            if (state == State.HALF_OPEN) {
+                halfOpenInFlight--;
+                if (++halfOpenSuccesses >= halfOpenCalls) {
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+            record(false);
+        }
+
+        synchronized void onFailure() {
+            if (state == State.HALF_OPEN) {
+                transition(State.OPEN);
+                return;
+            }
+            record(true);
+            if (size >= minimumCalls && (double) failureCount / size >= failureRateThreshold) {
+                transition(State.OPEN);
+            }
+        }
+
+        synchronized void onIgnored() {
+            if (state == State.HALF_OPEN && halfOpenInFlight > 0) {
+                halfOpenInFlight--;
+            }
+        }
+
+        private void record(boolean failed) {
+            if (size == failures.length && failures[cursor]) {
+                failureCount--;
+            }
+            failures[cursor] = failed;
+            if (failed) {
+                failureCount++;
+            }
+            cursor = (cursor + 1) % failures.length;
+            size = Math.min(size + 1, failures.length);
+        }
+
+        private void transition(State next) {
+            if (state == next) {
+                return;
+            }
+            log.warn("OpenAI 熔断器状态变化: {} -> {}", state, next);
+            Counter.builder("citacita.openai.circuit.transitions")
+                    .tag("from", state.name())
+                    .tag("to", next.name())
+                    .register(meterRegistry)
+                    .increment();
+            state = next;
+            halfOpenInFlight = 0;
+            halfOpenSuccesses = 0;
+            if (next == State.OPEN) {
+                openUntil = System.nanoTime() + openNanos;
+            } else if (next == State.CLOSED) {
+                Arrays.fill(failures, false);
+                cursor = 0;
+                size = 0;
+                failureCount = 0;
+            }
+        }
+    }
+}
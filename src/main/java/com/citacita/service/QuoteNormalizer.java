@@ -0,0 +1,93 @@
+package com.citacita.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 在字节层面完成与 {@code cleanAzureResponse} 相同的替换：UTF-8 的 ’（E2 80 99）及其后紧跟的一个空格替换为 '。
+ * <p>
+ * 不含 0xE2 的缓冲区原样透传，不拷贝；只有可能命中的缓冲区才复制一次。
+ * 三字节序列可能被网络分片截断，未完成的前缀保存在每个订阅独立的状态中，下一个缓冲区再处理。
+ */
+final class QuoteNormalizer {
+
+    private static final byte B0 = (byte) 0xE2;
+    private static final byte B1 = (byte) 0x80;
+    private static final byte B2 = (byte) 0x99;
+
+    // 已匹配的前缀长度（0、1、2）
+    private int matched;
+    // 刚替换完一个 ’，下一个字节如果是空格则丢弃
+    private boolean skipSpace;
+
+    private QuoteNormalizer() {
+    }
+
+    static Flux<DataBuffer> normalize(Flux<DataBuffer> source) {
+        return Flux.defer(() -> {
+            QuoteNormalizer state = new QuoteNormalizer();
+            return source.map(state::apply)
+                    .concatWith(Flux.defer(state::flushPending));
+        });
+    }
+
+    private DataBuffer apply(DataBuffer buffer) {
+        if (matched == 0 && !skipSpace && buffer.indexOf(b -> b == B0, buffer.readPosition()) < 0) {
+            return buffer;
+        }
+        int length = buffer.readableByteCount();
+        byte[] out = new byte[length + 2];
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.getByte(buffer.readPosition() + i);
+            if (skipSpace) {
+                skipSpace = false;
+                if (b == ' ') {
+                    continue;
+                }
+            }
+            if (matched == 1 && b == B1) {
+                matched = 2;
+                continue;
+            }
+            if (matched == 2 && b == B2) {
+                matched = 0;
+                skipSpace = true;
+                out[n++] = '\'';
+                continue;
+            }
+            // 前缀中断：把已暂存的字节原样写出，当前字节重新从头匹配
+            if (matched > 0) {
+                out[n++] = B0;
+                if (matched == 2) {
+                    out[n++] = B1;
+                }
+                matched = 0;
+            }
+            if (b == B0) {
+                matched = 1;
+            } else {
+                out[n++] = b;
+            }
+        }
+        DataBuffer result = buffer.factory().wrap(ByteBuffer.wrap(out, 0, n));
+        DataBufferUtils.release(buffer);
+        return result;
+    }
+
+    /**
+     * 流结束时仍有未完成的前缀，说明它不是 ’，原样补发
+     */
+    private Flux<DataBuffer> flushPending() {
+        if (matched == 0) {
+            return Flux.empty();
+        }
+        byte[] tail = matched == 1 ? new byte[]{B0} : new byte[]{B0, B1};
+        matched = 0;
+        return Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(tail));
+    }
+}
@@ -11,10 +11,12 @@ import org.apache.poi.hwpf.HWPFDocument;
 import org.apache.poi.hwpf.extractor.WordExtractor;
 import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -34,6 +36,10 @@ public class ResumeAnalyzerService {
     private static final long MAX_FILE_SIZE = 10 * 1024 * 1024L; // 10MB
     private static final Set<String> ALLOWED_EXTENSIONS = Set.of("pdf", "doc", "docx", "txt");
     private final ResumeRagStore ragStore;
+
+    // PDF/Word 解析和文本分析都是CPU密集操作，不能占用事件循环线程
+    @Qualifier("cpuScheduler")
+    private final Scheduler cpuScheduler;
     
     // 扩展的技能库
     private static final List<String> PROGRAMMING_SKILLS = Arrays.asList(
@@ -131,6 +137,7 @@ public class ResumeAnalyzerService {
     
     private Mono<String> extractTextWebFlux(FilePart file) {
         return DataBufferUtils.join(file.content())
+            .publishOn(cpuScheduler)
             .map(dataBuffer -> {
                 try {
                     byte[] bytes = new byte[dataBuffer.readableByteCount()];
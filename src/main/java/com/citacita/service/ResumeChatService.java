@@ -1,5 +1,6 @@
 package com.citacita.service;
 
+import com.citacita.dto.ChatDelta;
 import com.citacita.dto.ChatRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -18,8 +19,13 @@ public class ResumeChatService {
     
     private final AzureStreamService azureStreamService;
     private final ResumeRagService resumeRagService; // 已经有了，保持不变
+    private final ChatDeltaParser chatDeltaParser;
+    private final ConversationCompactor conversationCompactor;
     
-    public Flux<String> streamChat(ChatRequest request) {
+    /**
+     * 发往模型的请求体（系统提示含 RAG 上下文，历史按 token 预算压缩），调用方用它计算补全预算后交给 {@link #streamChat(Map)}
+     */
+    public Map<String, Object> buildRequestBody(ChatRequest request) {
         log.info("=== ResumeChatService 开始处理 ===");
         log.info("界面语言: {}", request.getLanguage());
         
@@ -31,24 +37,18 @@ public class ResumeChatService {
             log.info("简历文件: {}", request.getRagConfig().getRetrievalContext().getResumeFile());
         }
         
-        try {
-            Map<String, Object> body = buildAiChatCompatibleBody(request);
-            
-            return azureStreamService.streamChat(body)
-                    .doOnNext(chunk -> {
-                        if (chunk.contains("\"content\":\"") && !chunk.contains("\"content\":\"\"")) {
-                            log.debug("收到正常内容");
-                        }
-                    })
-                    .doOnComplete(() -> log.info("流响应完成"));
-                    
-        } catch (Exception e) {
-            log.error("ResumeChatService 处理失败: ", e);
-            return Flux.just(
-                "data: {\"choices\":[{\"delta\":{\"content\":\"处理请求失败\"}}]}\n\n", 
-                "data: [DONE]\n\n"
-            );
-        }
+        return buildAiChatCompatibleBody(request);
+    }
+    
+    /**
+     * 上游字节流直接解析为增量事件；只下发客户端需要的事件（内容、结束原因、错误、[DONE]），
+     * prompt_filter_results 这类空事件不再转发
+     */
+    public Flux<ChatDelta> streamChat(Map<String, Object> body) {
+        return azureStreamService.streamChatDeltas(body)
+                .filter(delta -> delta.hasContent() || delta.getFinishReason() != null
+                        || delta.getError() != null || delta.isDone())
+                .doOnComplete(() -> log.info("流响应完成"));
     }
     
     private Map<String, Object> buildAiChatCompatibleBody(ChatRequest request) {
@@ -95,7 +95,8 @@ public class ResumeChatService {
         log.info("使用语言: {}, 清理后的消息数量: {} (原始: {})", 
                request.getLanguage(), cleanMessages.size(), request.getMessages().size());
         
-        return body;
+        // 长会话按 token 预算压缩历史
+        return conversationCompactor.compact("resume-chat", null, body);
     }
     
     /**
@@ -0,0 +1,213 @@
+package com.citacita.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 语义答案缓存：对近似重复的FAQ问题直接回放之前的流式回答，避免重复调用 Azure OpenAI。
+ * <p>
+ * 用户最新问题和检索到的RAG上下文分别做哈希字符n-gram向量，按余弦相似度加权匹配；
+ * 缓存按语言+模型分区，每个分区有容量上限（LRU）和TTL。多轮对话不走缓存。
+ */
+@Service
+@Slf4j
+public class SemanticAnswerCache {
+
+    private static final int DIMENSIONS = 256;
+    private static final double QUERY_WEIGHT = 0.7;
+    private static final double CONTEXT_WEIGHT = 0.3;
+
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final Duration ttl;
+    private final int maxEntriesPerPartition;
+    private final int maxChunksPerEntry;
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    public SemanticAnswerCache(
+            @Value("${citacita.chat.semantic-cache.enabled:false}") boolean enabled,
+            @Value("${citacita.chat.semantic-cache.similarity-threshold:0.92}") double similarityThreshold,
+            @Value("${citacita.chat.semantic-cache.ttl:PT30M}") Duration ttl,
+            @Value("${citacita.chat.semantic-cache.max-entries:500}") int maxEntriesPerPartition,
+            @Value("${citacita.chat.semantic-cache.max-chunks:4000}") int maxChunksPerEntry
+    ) {
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.ttl = ttl;
+        this.maxEntriesPerPartition = maxEntriesPerPartition;
+        this.maxChunksPerEntry = maxChunksPerEntry;
+    }
+
+    /**
+     * 是否可以对该请求使用缓存：需要开启缓存，且只包含一条用户消息（没有历史回答）
+     */
+    public boolean isCacheable(Map<String, Object> body) {
+        if (!enabled) {
+            return false;
+        }
+        Object messages = body.get("messages");
+        if (!(messages instanceof List<?> list)) {
+            return false;
+        }
+        int userMessages = 0;
+        for (Object item : list) {
+            if (item instanceof Map<?, ?> msg) {
+                Object role = msg.get("role");
+                if ("assistant".equals(role)) {
+                    return false;
+                }
+                if ("user".equals(role)) {
+                    userMessages++;
+                }
+            }
+        }
+        return userMessages == 1;
+    }
+
+    /**
+     * 命中时回放缓存的SSE数据块，否则调用上游并在完整结束后写入缓存
+     */
+    public Flux<String> lookupOrRecord(String language, String model, String userQuery, String ragContent,
+                                       Supplier<Flux<String>> upstream) {
+        Partition partition = partitions.computeIfAbsent(partitionKey(language, model), k -> new Partition());
+        float[] queryVector = embed(userQuery);
+        float[] contextVector = embed(ragContent);
+
+        List<String> cached = partition.find(queryVector, contextVector);
+        if (cached != null) {
+            log.debug("语义缓存命中: 语言={}, 模型={}", language, model);
+            return Flux.fromIterable(cached);
+        }
+
+        return Flux.defer(() -> {
+            List<String> recorded = new ArrayList<>();
+            AtomicBoolean truncated = new AtomicBoolean();
+            return upstream.get()
+                    .doOnNext(chunk -> {
+                        if (recorded.size() < maxChunksPerEntry) {
+                            recorded.add(chunk);
+                        } else {
+                            truncated.set(true);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        // 超过上限的回答不完整，不写入缓存
+                        if (!truncated.get() && endsWithDone(recorded)) {
+                            partition.put(new Entry(queryVector, contextVector,
+                                    Collections.unmodifiableList(recorded), System.nanoTime() + ttl.toNanos()));
+                        }
+                    });
+        });
+    }
+
+    private boolean endsWithDone(List<String> chunks) {
+        return !chunks.isEmpty() && "[DONE]".equals(chunks.get(chunks.size() - 1).trim());
+    }
+
+    private String partitionKey(String language, String model) {
+        return (language != null ? language : "english") + "|" + (model != null ? model : "");
+    }
+
+    /**
+     * 哈希字符三元组向量（L2归一化），不依赖外部 embedding 服务
+     */
+    static float[] embed(String text) {
+        float[] vector = new float[DIMENSIONS];
+        if (text == null || text.isEmpty()) {
+            return vector;
+        }
+        int prev2 = ' ';
+        int prev1 = ' ';
+        for (int i = 0; i < text.length(); ) {
+            int cp = Character.toLowerCase(text.codePointAt(i));
+            i += Character.charCount(cp);
+            if (Character.isWhitespace(cp) || Character.isISOControl(cp)) {
+                cp = ' ';
+                if (prev1 == ' ') {
+                    continue;
+                }
+            }
+            int hash = ((prev2 * 31) + prev1) * 31 + cp;
+            hash ^= (hash >>> 16);
+            vector[Math.floorMod(hash * 0x9E3779B1, DIMENSIONS)] += 1f;
+            prev2 = prev1;
+            prev1 = cp;
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float inv = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] *= inv;
+            }
+        }
+        return vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private record Entry(float[] queryVector, float[] contextVector, List<String> chunks, long expiresAtNanos) {
+    }
+
+    /**
+     * 单个语言/模型分区，访问顺序的 LinkedHashMap 实现 LRU
+     */
+    private final class Partition {
+        private long sequence;
+        private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntriesPerPartition;
+            }
+        };
+
+        synchronized List<String> find(float[] queryVector, float[] contextVector) {
+            long now = System.nanoTime();
+            Long bestKey = null;
+            double bestScore = similarityThreshold;
+            Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Entry> e = it.next();
+                Entry entry = e.getValue();
+                if (now - entry.expiresAtNanos() > 0) {
+                    it.remove();
+                    continue;
+                }
+                double score = QUERY_WEIGHT * cosine(queryVector, entry.queryVector())
+                        + CONTEXT_WEIGHT * cosine(contextVector, entry.contextVector());
+                if (score >= bestScore) {
+                    bestScore = score;
+                    bestKey = e.getKey();
+                }
+            }
+            // get() 会更新访问顺序
+            return bestKey != null ? entries.get(bestKey).chunks() : null;
+        }
+
+        synchronized void put(Entry entry) {
+            entries.put(sequence++, entry);
+        }
+    }
+}
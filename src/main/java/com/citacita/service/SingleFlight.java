@@ -0,0 +1,94 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 合并并发的相同查询：同一时刻同一个 key 只执行一次加载，其余调用方等待同一个结果（成功或异常）。
+ * <p>
+ * 加载与第一个调用方的订阅解绑，第一个请求被取消不会让其他等待者失败；
+ * 所有调用方最多等待 {@code citacita.singleflight.max-wait}，加载结束后立即从表中移除，不做缓存。
+ */
+@Component
+@Slf4j
+public class SingleFlight {
+
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final Duration maxWait;
+    private final MeterRegistry meterRegistry;
+
+    public SingleFlight(MeterRegistry meterRegistry,
+                        @Value("${citacita.singleflight.max-wait:PT5S}") Duration maxWait) {
+        this.meterRegistry = meterRegistry;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @param name   查询名称（如 mapper 方法名），用于指标标签
+     * @param key    查询参数，name + key 相同的并发调用会被合并
+     * @param loader 实际加载逻辑
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> execute(String name, String key, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> {
+            String flightKey = name + '|' + key;
+            CompletableFuture<T> future = new CompletableFuture<>();
+            CompletableFuture<T> existing = (CompletableFuture<T>) inFlight.putIfAbsent(flightKey, future);
+            if (existing != null) {
+                counter(name, "coalesced").increment();
+                return await(existing);
+            }
+            counter(name, "executed").increment();
+            try {
+                loader.get().subscribe(
+                        value -> complete(flightKey, future, value),
+                        error -> fail(flightKey, future, error),
+                        () -> complete(flightKey, future, null));
+            } catch (RuntimeException e) {
+                fail(flightKey, future, e);
+            }
+            return await(future);
+        });
+    }
+
+    /**
+     * 阻塞版本，供运行在 jdbcScheduler 上的同步服务方法使用
+     */
+    public <T> T call(String name, String key, Callable<T> callable) {
+        return execute(name, key, () -> Mono.fromCallable(callable)).block();
+    }
+
+    private <T> Mono<T> await(CompletableFuture<T> future) {
+        // suppressCancel：单个等待者取消不影响共享的加载
+        return Mono.fromFuture(future, true).timeout(maxWait);
+    }
+
+    private <T> void complete(String flightKey, CompletableFuture<T> future, T value) {
+        inFlight.remove(flightKey, future);
+        future.complete(value);
+    }
+
+    private void fail(String flightKey, CompletableFuture<?> future, Throwable error) {
+        inFlight.remove(flightKey, future);
+        future.completeExceptionally(error);
+    }
+
+    private Counter counter(String name, String outcome) {
+        return Counter.builder("citacita.singleflight.calls")
+                .description("Lookups executed vs. coalesced onto an in-flight lookup")
+                .tag("name", name)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
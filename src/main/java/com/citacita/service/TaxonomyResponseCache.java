@@ -0,0 +1,214 @@
+package com.citacita.service;
+
+import com.citacita.dto.JobDTO;
+import com.citacita.dto.ResultDTO;
+import com.citacita.entity.MascoJob;
+import com.citacita.service.LanguageDetector.Language;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 职业分类等静态接口的预序列化响应缓存。
+ * <p>
+ * 每个 "端点|参数" 在每个 MASCO 快照版本下只序列化一次，之后直接包装同一个字节数组返回（不复制），
+ * 并附带基于内容的强 ETag 与 Cache-Control；条件 GET 由 ResponseEntity 处理器自动返回 304。
+ * <p>
+ * 缓存键只由目录中存在的参数组成：语言归一为实际投影的 en / ms / zh-CN，目录中不存在的大类不缓存，
+ * 因此任意请求参数都不会占用缓存条目。快照加载后（启动完成或刷新成功）固定的列表响应
+ * （job.all、各语言各大类的 job.list、各语言的 skill.list）在 jdbcScheduler 上预先序列化，首个请求即可命中。
+ */
+@Service
+@Slf4j
+public class TaxonomyResponseCache {
+
+    private final MascoJobDatabaseService mascoJobDatabaseService;
+    private final SkillService skillService;
+    private final ObjectMapper objectMapper;
+    private final Scheduler jdbcScheduler;
+    private final CacheControl cacheControl;
+    private final int maxEntries;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long cachedVersion;
+
+    public TaxonomyResponseCache(
+            MascoJobDatabaseService mascoJobDatabaseService,
+            SkillService skillService,
+            ObjectMapper objectMapper,
+            @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+            @Value("${citacita.http.taxonomy.max-age:PT5M}") Duration maxAge,
+            @Value("${citacita.http.taxonomy.max-entries:1000}") int maxEntries) {
+        this.mascoJobDatabaseService = mascoJobDatabaseService;
+        this.skillService = skillService;
+        this.objectMapper = objectMapper;
+        this.jdbcScheduler = jdbcScheduler;
+        this.cacheControl = CacheControl.maxAge(maxAge).cachePublic();
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * job.list 的缓存键；快照未加载或目录中没有该大类时返回 null（不缓存）
+     */
+    public String jobListKey(String lang, String majorGroupCode) {
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog == null || catalog.indexesByMajorGroup(majorGroupCode).length == 0) {
+            return null;
+        }
+        return "job.list|" + restLanguage(lang).getDbCode() + "|" + majorGroupCode;
+    }
+
+    public String skillListKey(String lang) {
+        return "skill.list|" + restLanguage(lang).getDbCode();
+    }
+
+    /**
+     * 当前快照下已缓存的响应；未命中或 key 为 null 时返回 null
+     */
+    public ResponseEntity<?> lookup(ServerWebExchange exchange, String key) {
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog == null || key == null) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version() != catalog.version()) {
+            return null;
+        }
+        return toResponse(exchange, entry);
+    }
+
+    /**
+     * 序列化并缓存响应体。快照不可用或 key 为 null 时不缓存，按普通 JSON 返回
+     *
+     * @param version 计算 data 之前读取的快照版本（{@link #currentVersion()}）
+     */
+    public ResponseEntity<?> store(ServerWebExchange exchange, String key, long version, Object data) {
+        if (version == 0 || key == null) {
+            return ResponseEntity.ok(ResultDTO.success(data));
+        }
+        Entry entry = put(key, version, data);
+        return entry != null ? toResponse(exchange, entry) : ResponseEntity.ok(ResultDTO.success(data));
+    }
+
+    /**
+     * 快照加载后预先序列化固定的列表响应。启动时的首次加载发生在事件监听器注册之前，由 ApplicationReadyEvent 补上
+     */
+    @EventListener({ApplicationReadyEvent.class, JobCatalogLoadedEvent.class})
+    public void preSerialize() {
+        // skill.list 在技能视图过期时需要查库，放到 jdbcScheduler 上执行
+        Mono.fromRunnable(this::preSerializeCurrentSnapshot)
+                .subscribeOn(jdbcScheduler)
+                .subscribe(null, e -> log.warn("预序列化分类响应失败: {}", e.getMessage()));
+    }
+
+    private void preSerializeCurrentSnapshot() {
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog == null) {
+            return;
+        }
+        long version = catalog.version();
+        List<MascoJob> allJobs = new ArrayList<>(catalog.size());
+        for (int i = 0; i < catalog.size(); i++) {
+            allJobs.add(catalog.toFullJob(i));
+        }
+        put("job.all", version, allJobs);
+        for (Language language : Language.values()) {
+            for (String majorGroupCode : catalog.majorGroupCodes()) {
+                List<JobDTO> rows = new ArrayList<>();
+                for (int index : catalog.indexesByMajorGroup(majorGroupCode)) {
+                    rows.add(catalog.toListDto(index, language));
+                }
+                put("job.list|" + language.getDbCode() + "|" + majorGroupCode, version, rows);
+            }
+            put("skill.list|" + language.getDbCode(), version, skillService.getSkillsByLang(language.getDbCode()));
+        }
+        log.info("快照版本 {} 的分类响应已预序列化，共 {} 条", version, entries.size());
+    }
+
+    /**
+     * 当前快照版本，快照尚未加载时为 0
+     */
+    public long currentVersion() {
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        return catalog != null ? catalog.version() : 0;
+    }
+
+    /**
+     * 序列化并在版本仍为最新时放入缓存；序列化失败返回 null
+     */
+    private Entry put(String key, long version, Object data) {
+        if (version != cachedVersion) {
+            synchronized (this) {
+                if (version > cachedVersion) {
+                    entries.clear();
+                    cachedVersion = version;
+                }
+            }
+        }
+        try {
+            byte[] bytes = objectMapper.writeValueAsBytes(ResultDTO.success(data));
+            Entry entry = new Entry(version, bytes, "\"" + contentHash(bytes) + "\"");
+            if (version == cachedVersion && (entries.size() < maxEntries || entries.containsKey(key))) {
+                entries.put(key, entry);
+            }
+            return entry;
+        } catch (JsonProcessingException e) {
+            log.warn("预序列化响应失败 {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 与 Mapper 的 choose 语句一致：ms / zh-CN 以外的语言都使用英文列
+     */
+    private static Language restLanguage(String lang) {
+        if ("ms".equals(lang)) {
+            return Language.MALAY;
+        }
+        if ("zh-CN".equals(lang)) {
+            return Language.CHINESE;
+        }
+        return Language.ENGLISH;
+    }
+
+    private ResponseEntity<DataBuffer> toResponse(ServerWebExchange exchange, Entry entry) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(entry.etag())
+                .cacheControl(cacheControl)
+                .body(exchange.getResponse().bufferFactory().wrap(entry.bytes()));
+    }
+
+    private static String contentHash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 27);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(long version, byte[] bytes, String etag) {
+    }
+}
@@ -0,0 +1,31 @@
+package com.citacita.service;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * 上游返回错误状态码，保留状态码和 Retry-After，供重试与熔断判断
+ */
+@Getter
+public class UpstreamStatusException extends RuntimeException {
+
+    private final int statusCode;
+    /**
+     * 上游建议的重试等待时间，没有时为 null
+     */
+    private final Duration retryAfter;
+
+    public UpstreamStatusException(String message, int statusCode, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * 限流、超时和服务端错误可以重试；其余 4xx（参数错误、内容过滤等）重试也不会成功
+     */
+    public boolean isRetryable() {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+}
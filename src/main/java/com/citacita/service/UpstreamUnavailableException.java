@@ -0,0 +1,11 @@
+package com.citacita.service;
+
+/**
+ * 上游在输出第一个事件之前不可用（重试耗尽、首包超时或熔断打开），调用方可以降级
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    public UpstreamUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
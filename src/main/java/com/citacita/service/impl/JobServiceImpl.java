@@ -1,23 +1,59 @@
 package com.citacita.service.impl;
 
+import com.citacita.dto.JobBatchDTO;
 import com.citacita.dto.JobDTO;
+import com.citacita.dto.JobPageDTO;
 import com.citacita.entity.MascoJob;
 import com.citacita.mapper.MascoJobMapper;
+import com.citacita.service.JobCatalog;
 import com.citacita.service.JobService;
+import com.citacita.service.LanguageDetector.Language;
+import com.citacita.service.MascoJobDatabaseService;
+import com.citacita.service.SingleFlight;
 import jakarta.annotation.Resource;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
 
-import javax.crypto.Mac;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 @Service
 public class JobServiceImpl implements JobService {
     @Resource
     private MascoJobMapper mascoJobMapper;
 
+    @Resource
+    private MascoJobDatabaseService mascoJobDatabaseService;
+
+    // 快照不可用或必须查库时，相同参数的并发查询只打一次数据库
+    @Resource
+    private SingleFlight singleFlight;
+
+    // 流式导出需要自己管理 SqlSession，游标在会话关闭前有效
+    @Resource
+    private SqlSessionFactory sqlSessionFactory;
+
+    @Resource
+    private Scheduler jdbcScheduler;
+
     @Override
     public List<JobDTO> getJobListByLangAndId(String lang, String majorGroupCode) {
-        List<MascoJob> entities = mascoJobMapper.selectByMajorGroupCodeAndLang(lang, majorGroupCode);
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog != null) {
+            Language language = restLanguage(lang);
+            List<JobDTO> rows = new ArrayList<>();
+            for (int index : catalog.indexesByMajorGroup(majorGroupCode)) {
+                rows.add(catalog.toListDto(index, language));
+            }
+            return rows;
+        }
+        List<MascoJob> entities = singleFlight.call("masco_job.selectByMajorGroupCodeAndLang", lang + '|' + majorGroupCode,
+                () -> mascoJobMapper.selectByMajorGroupCodeAndLang(lang, majorGroupCode));
         return entities.stream()
                 .map(this::convertToDto)
                 .toList();
@@ -25,13 +61,54 @@ public class JobServiceImpl implements JobService {
 
     @Override
     public JobDTO getDetailJobByLangAndUnitGroupCode(String lang, String unitGroupCode) {
-        MascoJob entity = mascoJobMapper.selectByUnitGroupCodeAndLang(lang, unitGroupCode);
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        int index = catalog != null ? catalog.indexOf(unitGroupCode) : -1;
+        if (index >= 0) {
+            return catalog.toDetailDto(index, restLanguage(lang));
+        }
+        if (catalog != null) {
+            return null;
+        }
+        MascoJob entity = singleFlight.call("masco_job.selectByUnitGroupCodeAndLang", lang + '|' + unitGroupCode,
+                () -> mascoJobMapper.selectByUnitGroupCodeAndLang(lang, unitGroupCode));
         return (entity != null) ? convertToDto(entity) : null;
     }
 
+    @Override
+    public JobBatchDTO getDetailJobsByLangAndUnitGroupCodes(String lang, List<String> unitGroupCodes) {
+        List<String> codes = unitGroupCodes.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (codes.isEmpty()) {
+            return new JobBatchDTO(Collections.emptyList(), Collections.emptyList());
+        }
+
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog == null) {
+            // 快照不可用时一次查询取回全部记录，再用同样的投影规则按语言转换
+            List<MascoJob> rows = mascoJobMapper.selectByUnitGroupCodes(codes, lang);
+            catalog = JobCatalog.build(0, rows);
+        }
+
+        Language language = restLanguage(lang);
+        List<JobDTO> items = new ArrayList<>(codes.size());
+        List<String> missing = new ArrayList<>();
+        for (String code : codes) {
+            int index = catalog.indexOf(code);
+            if (index >= 0) {
+                items.add(catalog.toDetailDto(index, language));
+            } else {
+                missing.add(code);
+            }
+        }
+        return new JobBatchDTO(items, missing);
+    }
+
     @Override
     public List<JobDTO> getJobListByLangAndUnitGroupTitle(String lang, String unitGroupTitle) {
-        List<MascoJob> entities = mascoJobMapper.selectByLangAndUnitGroupTitle(lang, unitGroupTitle);
+        List<MascoJob> entities = singleFlight.call("masco_job.selectByLangAndUnitGroupTitle", lang + '|' + unitGroupTitle,
+                () -> mascoJobMapper.selectByLangAndUnitGroupTitle(lang, unitGroupTitle));
         return entities.stream()
                 .map(this::convertToDto)
                 .toList();
@@ -39,9 +116,103 @@ public class JobServiceImpl implements JobService {
 
     @Override
     public List<MascoJob> getAllJobs() {
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog != null) {
+            List<MascoJob> rows = new ArrayList<>(catalog.size());
+            for (int i = 0; i < catalog.size(); i++) {
+                rows.add(catalog.toFullJob(i));
+            }
+            return rows;
+        }
         return mascoJobMapper.selectAll();
     }
 
+    @Override
+    public JobPageDTO getJobPage(String lang, String after, int limit, Set<String> fields) {
+        List<JobDTO> items = new ArrayList<>(limit);
+        boolean hasMore;
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog != null) {
+            // 目录已按 unit_group_code 排序，二分定位游标位置
+            Language language = restLanguage(lang);
+            int from = catalog.firstIndexAfter(after);
+            int to = Math.min(catalog.size(), from + limit);
+            for (int i = from; i < to; i++) {
+                items.add(selectFields(catalog.toDetailDto(i, language), fields));
+            }
+            hasMore = to < catalog.size();
+        } else {
+            // 多取一条用于判断是否还有下一页
+            List<MascoJob> entities = mascoJobMapper.selectJobsAfterCode(lang, after, limit + 1);
+            hasMore = entities.size() > limit;
+            for (int i = 0; i < Math.min(limit, entities.size()); i++) {
+                items.add(selectFields(convertToDto(entities.get(i)), fields));
+            }
+        }
+
+        JobPageDTO page = new JobPageDTO();
+        page.setItems(items);
+        if (hasMore && !items.isEmpty()) {
+            JobDTO last = items.get(items.size() - 1);
+            page.setNextCursor(last.getUnitGroupCode());
+        }
+        return page;
+    }
+
+    @Override
+    public Flux<JobDTO> streamJobs(String lang, Set<String> fields) {
+        return Flux.using(
+                        sqlSessionFactory::openSession,
+                        session -> Flux.fromIterable(session.getMapper(MascoJobMapper.class).scanAllByLang(lang)),
+                        // 取消时清理会在 Netty 线程上触发，而关闭流式结果集需要读完剩余行，放回 jdbcScheduler 执行
+                        session -> jdbcScheduler.schedule(session::close))
+                .map(entity -> selectFields(convertToDto(entity), fields))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * 只保留请求的字段（JobDTO 不输出 null 字段）。unitGroupCode 作为分页游标始终保留
+     */
+    private static JobDTO selectFields(JobDTO source, Set<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return source;
+        }
+        JobDTO dto = new JobDTO();
+        dto.setUnitGroupCode(source.getUnitGroupCode());
+        for (String field : fields) {
+            switch (field) {
+                case "majorGroupCode" -> dto.setMajorGroupCode(source.getMajorGroupCode());
+                case "majorGroupTitle" -> dto.setMajorGroupTitle(source.getMajorGroupTitle());
+                case "subMajorGroupCode" -> dto.setSubMajorGroupCode(source.getSubMajorGroupCode());
+                case "subMajorGroupTitle" -> dto.setSubMajorGroupTitle(source.getSubMajorGroupTitle());
+                case "minorGroupCode" -> dto.setMinorGroupCode(source.getMinorGroupCode());
+                case "minorGroupTitle" -> dto.setMinorGroupTitle(source.getMinorGroupTitle());
+                case "unitGroupTitle" -> dto.setUnitGroupTitle(source.getUnitGroupTitle());
+                case "unitGroupDescription" -> dto.setUnitGroupDescription(source.getUnitGroupDescription());
+                case "tasksInclude" -> dto.setTasksInclude(source.getTasksInclude());
+                case "examples" -> dto.setExamples(source.getExamples());
+                case "skillLevel" -> dto.setSkillLevel(source.getSkillLevel());
+                default -> {
+                    // 未知字段忽略
+                }
+            }
+        }
+        return dto;
+    }
+
+    /**
+     * 与 Mapper 的 choose 语句一致：ms / zh-CN 以外的语言都使用英文列
+     */
+    private static Language restLanguage(String lang) {
+        if ("ms".equals(lang)) {
+            return Language.MALAY;
+        }
+        if ("zh-CN".equals(lang)) {
+            return Language.CHINESE;
+        }
+        return Language.ENGLISH;
+    }
+
     private JobDTO convertToDto(MascoJob entity) {
         JobDTO dto = new JobDTO();
         dto.setUnitGroupCode(entity.getUnitGroupCode());
@@ -3,19 +3,37 @@ package com.citacita.service.impl;
 import com.citacita.dto.SkillLevelDTO;
 import com.citacita.entity.MajorGroupSkillLevels;
 import com.citacita.mapper.MajorGroupSkillLevelsMapper;
+import com.citacita.service.MascoJobDatabaseService;
+import com.citacita.service.JobCatalog;
+import com.citacita.service.SingleFlight;
 import com.citacita.service.SkillService;
 import jakarta.annotation.Resource;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
 public class SkillServiceImpl implements SkillService {
+    private static final String[] LANGUAGES = {"en", "zh-CN", "ms"};
+
     @Resource
     private MajorGroupSkillLevelsMapper majorGroupSkillLevelsMapper;
 
+    @Resource
+    private MascoJobDatabaseService mascoJobDatabaseService;
+
+    @Resource
+    private SingleFlight singleFlight;
+
+    // 技能等级表随 MASCO 快照一起失效：快照版本变化时重新读取一次并按语言投影
+    private volatile SkillView view;
+
 
     @Override
     public List<?> getAllSkills() {
@@ -24,8 +42,14 @@ public class SkillServiceImpl implements SkillService {
 
     @Override
     public List<SkillLevelDTO> getSkillsByLang(String lang) {
+        SkillView current = currentView();
+        if (current != null) {
+            return List.copyOf(languageView(current, lang).values());
+        }
+
         // 1. Fetch the list of entities from the database.
-        List<MajorGroupSkillLevels> entities = majorGroupSkillLevelsMapper.selectByLang(lang);
+        List<MajorGroupSkillLevels> entities = singleFlight.call("major_group_skill_levels.selectByLang", lang,
+                () -> majorGroupSkillLevelsMapper.selectByLang(lang));
 
         // Handle the case where the database returns nothing.
         if (entities == null || entities.isEmpty()) {
@@ -40,13 +64,80 @@ public class SkillServiceImpl implements SkillService {
 
     @Override
     public SkillLevelDTO getSkillLevelByLangAndId(String lang, String majorGroupCode) {
+        SkillView current = currentView();
+        if (current != null) {
+            return languageView(current, lang).get(majorGroupCode);
+        }
+
         // 1. Fetch the single entity from the database.
-        MajorGroupSkillLevels entity = majorGroupSkillLevelsMapper.selectByLangAndId(lang, majorGroupCode);
+        MajorGroupSkillLevels entity = singleFlight.call("major_group_skill_levels.selectByLangAndId", lang + '|' + majorGroupCode,
+                () -> majorGroupSkillLevelsMapper.selectByLangAndId(lang, majorGroupCode));
 
         // 2. If the entity is found, convert it to a DTO; otherwise, return null.
         return (entity != null) ? convertToDto(entity) : null;
     }
 
+    /**
+     * MASCO 快照尚未加载成功时返回 null，调用方直接查询数据库
+     */
+    private SkillView currentView() {
+        JobCatalog catalog = mascoJobDatabaseService.getCatalog();
+        if (catalog == null) {
+            return null;
+        }
+        SkillView current = view;
+        if (current == null || current.version() != catalog.version()) {
+            current = rebuildView(catalog.version());
+        }
+        return current;
+    }
+
+    private Map<String, SkillLevelDTO> languageView(SkillView current, String lang) {
+        Map<String, SkillLevelDTO> byCode = current.byLang().get(lang);
+        return byCode != null ? byCode : current.byLang().get("en");
+    }
+
+    private synchronized SkillView rebuildView(long version) {
+        SkillView current = view;
+        if (current != null && current.version() == version) {
+            return current;
+        }
+        List<MajorGroupSkillLevels> entities = new ArrayList<>(majorGroupSkillLevelsMapper.selectAll());
+        Map<String, Map<String, SkillLevelDTO>> byLang = new HashMap<>();
+        for (String lang : LANGUAGES) {
+            Map<String, SkillLevelDTO> byCode = new LinkedHashMap<>();
+            for (MajorGroupSkillLevels entity : entities) {
+                byCode.put(entity.getMajorGroupCode(), toLocalizedDto(entity, lang));
+            }
+            byLang.put(lang, Collections.unmodifiableMap(byCode));
+        }
+        SkillView rebuilt = new SkillView(version, Map.copyOf(byLang));
+        view = rebuilt;
+        return rebuilt;
+    }
+
+    /**
+     * 与 selectByLang / selectByLangAndId 的投影一致
+     */
+    private SkillLevelDTO toLocalizedDto(MajorGroupSkillLevels entity, String lang) {
+        SkillLevelDTO dto = new SkillLevelDTO();
+        dto.setMajorGroupCode(entity.getMajorGroupCode());
+        if ("ms".equals(lang)) {
+            dto.setMajorGroupTitle(entity.getMajorGroupTitleMalay());
+            dto.setEducationLevel(entity.getEducationLevelMalay());
+            dto.setSkillLevel(entity.getSkillLevelMalay());
+        } else if ("zh-CN".equals(lang)) {
+            dto.setMajorGroupTitle(entity.getMajorGroupTitleChinese());
+            dto.setEducationLevel(entity.getEducationLevelChinese());
+            dto.setSkillLevel(entity.getSkillLevelChinese());
+        } else {
+            dto.setMajorGroupTitle(entity.getMajorGroupTitle());
+            dto.setEducationLevel(entity.getEducationLevel());
+            dto.setSkillLevel(entity.getSkillLevel());
+        }
+        return dto;
+    }
+
     private SkillLevelDTO convertToDto(MajorGroupSkillLevels entity) {
         SkillLevelDTO dto = new SkillLevelDTO();
         dto.setMajorGroupCode(entity.getMajorGroupCode());
@@ -55,4 +146,7 @@ public class SkillServiceImpl implements SkillService {
         dto.setSkillLevel(entity.getSkillLevel());
         return dto;
     }
+
+    private record SkillView(long version, Map<String, Map<String, SkillLevelDTO>> byLang) {
+    }
 }
@@ -0,0 +1,24 @@
+-- masco_job 全文检索：每种语言一个 STORED 生成列汇总可搜索文本，并建立 FULLTEXT 索引。
+-- 中文使用 ngram 解析器（默认 ngram_token_size = 2）。
+-- 执行后设置 citacita.search.fulltext.enabled=true，缓存未就绪时的数据库搜索改走 searchJobsByFulltext。
+
+ALTER TABLE masco_job
+    ADD COLUMN search_text_en TEXT GENERATED ALWAYS AS (
+        CONCAT_WS(' ', unit_group_title, unit_group_description, tasks_include, examples,
+                  major_group_title, sub_major_group_title, minor_group_title)) STORED,
+    ADD COLUMN search_text_ms TEXT GENERATED ALWAYS AS (
+        CONCAT_WS(' ', unit_group_title_malay, unit_group_description_malay, tasks_include_malay, examples_malay,
+                  major_group_title_malay, sub_major_group_title_malay, minor_group_title_malay)) STORED,
+    ADD COLUMN search_text_zh TEXT GENERATED ALWAYS AS (
+        CONCAT_WS(' ', unit_group_title_chinese, unit_group_description_chinese, tasks_include_chinese, examples_chinese,
+                  major_group_title_chinese, sub_major_group_title_chinese, minor_group_title_chinese)) STORED;
+
+-- InnoDB 每条语句只能新建一个 FULLTEXT 索引
+ALTER TABLE masco_job ADD FULLTEXT INDEX ft_masco_job_search_en (search_text_en);
+ALTER TABLE masco_job ADD FULLTEXT INDEX ft_masco_job_search_ms (search_text_ms);
+ALTER TABLE masco_job ADD FULLTEXT INDEX ft_masco_job_search_zh (search_text_zh) WITH PARSER ngram;
+
+-- 标题单独建索引，用于相关度加权
+ALTER TABLE masco_job ADD FULLTEXT INDEX ft_masco_job_title_en (unit_group_title);
+ALTER TABLE masco_job ADD FULLTEXT INDEX ft_masco_job_title_ms (unit_group_title_malay);
+ALTER TABLE masco_job ADD FULLTEXT INDEX ft_masco_job_title_zh (unit_group_title_chinese) WITH PARSER ngram;
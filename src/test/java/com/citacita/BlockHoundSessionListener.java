@@ -0,0 +1,27 @@
+package com.citacita;
+
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.LauncherSessionListener;
+import reactor.blockhound.BlockHound;
+
+/**
+ * 在任何测试运行、任何调度器线程启动之前安装 BlockHound。
+ * <p>
+ * 在测试类里安装时，BlockHound 重新转换 park 等方法，会打断已经在等待的 parallel 调度器线程，
+ * 同一个 JVM 里后续测试的定时任务（心跳、超时）随之不再触发。
+ */
+public class BlockHoundSessionListener implements LauncherSessionListener {
+
+    @Override
+    public void launcherSessionOpened(LauncherSession session) {
+        BlockHound.install(builder -> builder
+                // 文档解析在 cpuScheduler 上执行，PDFBox/POI 内部会读取字体和资源文件
+                .allowBlockingCallsInside("com.citacita.service.ResumeAnalyzerService", "extractTextFromBytes")
+                // Logback 异步队列满时 neverBlock，但入队本身使用锁
+                .allowBlockingCallsInside("ch.qos.logback.core.AsyncAppenderBase", "put")
+                // 简历临时ID使用 SecureRandom，NativePRNG 偶尔从 /dev/urandom 补充缓冲，不会真正阻塞
+                .allowBlockingCallsInside("java.util.UUID", "randomUUID")
+                // 测试客户端生成 multipart 边界时读取 SecureRandom，与服务端无关
+                .allowBlockingCallsInside("org.springframework.util.MimeTypeUtils", "generateMultipartBoundary"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.citacita.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClientKeyWebFilterTest {
+
+    @Test
+    void forwardedHeaderFromAnUntrustedPeerIsIgnored() {
+        ClientKeyWebFilter filter = new ClientKeyWebFilter(List.of());
+
+        assertEquals("203.0.113.7", filter.resolve(request("203.0.113.7", "198.51.100.1")));
+        assertEquals("203.0.113.7", filter.resolve(request("203.0.113.7", "198.51.100.2")));
+    }
+
+    @Test
+    void trustedProxiesAreSkippedFromTheRight() {
+        ClientKeyWebFilter filter = new ClientKeyWebFilter(List.of("10.0.0.0/8", "192.168.1.5"));
+
+        // 客户端伪造的最左侧地址不会被采用，取最右侧不可信的一跳
+        assertEquals("198.51.100.9", filter.resolve(request("10.1.2.3", "1.2.3.4, 198.51.100.9, 192.168.1.5")));
+        assertEquals("10.1.2.3", filter.resolve(request("10.1.2.3", null)));
+        assertEquals("203.0.113.7", filter.resolve(request("203.0.113.7", "1.2.3.4")));
+    }
+
+    private static MockServerHttpRequest request(String remote, String forwardedFor) {
+        MockServerHttpRequest.BaseBuilder<?> builder = MockServerHttpRequest.get("/api/stream-chat")
+                .remoteAddress(new InetSocketAddress(remote, 40000));
+        if (forwardedFor != null) {
+            builder.header("X-Forwarded-For", forwardedFor);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,268 @@
+package com.citacita.controller;
+
+import com.citacita.entity.MajorGroupSkillLevels;
+import com.citacita.entity.MascoJob;
+import com.citacita.mapper.MajorGroupSkillLevelsMapper;
+import com.citacita.mapper.MascoJobMapper;
+import com.citacita.mapper.TestTableMapper;
+import com.citacita.service.MascoJobDatabaseService;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 在真实的 Netty 服务器上调用工作、技能、简历接口，BlockHound 检测到事件循环或并行调度器线程上的阻塞调用时请求失败。
+ * Mapper 的替身会 sleep，模拟 JDBC 的阻塞行为：只有被正确转移到 jdbcScheduler 时才不会报错。
+ * BlockHound 由 {@link com.citacita.BlockHoundSessionListener} 在所有测试开始前安装。
+ * 工作、技能接口分别在快照已加载（走内存视图）和未加载（每次请求都查询 Mapper）两种状态下验证。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+                + "org.mybatis.spring.boot.autoconfigure.MybatisAutoConfiguration",
+        "azure.openai.endpoint=http://localhost:1",
+        "azure.speech.endpoint=http://localhost:1", "azure.speech.apiKey=test",
+        "azure.tts.endpoint=http://localhost:1", "azure.tts.apiKey=test",
+        "azure.stt.endpoint=http://localhost:1", "azure.stt.apiKey=test",
+        "citacita.job.stream.timeout=PT1S"
+})
+class NonBlockingEndpointsTest {
+
+    @MockitoBean
+    private MascoJobMapper mascoJobMapper;
+
+    @MockitoBean
+    private MajorGroupSkillLevelsMapper skillLevelsMapper;
+
+    @MockitoBean
+    private TestTableMapper testTableMapper;
+
+    @MockitoBean
+    private SqlSessionFactory sqlSessionFactory;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MascoJobDatabaseService mascoJobDatabaseService;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        MascoJob job = job();
+        when(mascoJobMapper.selectAll()).thenAnswer(invocation -> slow(List.of(job)));
+        when(mascoJobMapper.selectByMajorGroupCodeAndLang(anyString(), anyString())).thenAnswer(invocation -> slow(List.of(job)));
+        when(mascoJobMapper.selectByUnitGroupCodeAndLang(anyString(), anyString())).thenAnswer(invocation -> slow(job));
+        when(mascoJobMapper.selectByLangAndUnitGroupTitle(anyString(), anyString())).thenAnswer(invocation -> slow(List.of(job)));
+        when(mascoJobMapper.selectByUnitGroupCodes(any(), anyString())).thenAnswer(invocation -> slow(List.of(job)));
+        when(mascoJobMapper.selectJobsAfterCode(anyString(), any(), anyInt())).thenAnswer(invocation -> slow(List.of(job)));
+        MajorGroupSkillLevels level = skillLevel();
+        when(skillLevelsMapper.selectAll()).thenAnswer(invocation -> slow(List.of(level)));
+        when(skillLevelsMapper.selectByLang(anyString())).thenAnswer(invocation -> slow(List.of(level)));
+        when(skillLevelsMapper.selectByLangAndId(anyString(), anyString())).thenAnswer(invocation -> slow(level));
+        mascoJobDatabaseService.refreshCache().block();
+
+        client = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .responseTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @ParameterizedTest(name = "snapshotLoaded={0}")
+    @ValueSource(booleans = {true, false})
+    void jobEndpointsDoNotBlockTheEventLoop(boolean snapshotLoaded) {
+        useSnapshot(snapshotLoaded);
+        client.get().uri("/api/job/getJobListByLangAndMajorGroupCode?lang=en&majorGroupCode=2")
+                .exchange().expectStatus().isOk();
+        client.get().uri("/api/job/getDetailJobByLangAndUnitGroupCode?lang=en&unitGroupCode=2511")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data").exists();
+        client.get().uri("/api/job/autoCompleteJobByLangAndUnitGroupTitle?lang=en&unitGroupTitle=Software")
+                .exchange().expectStatus().isOk();
+        client.post().uri("/api/job/getDetailJobsByLangAndUnitGroupCodes")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"lang\":\"en\",\"unitGroupCodes\":[\"2511\",\"9999\",\"2511\"]}")
+                .exchange().expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.data.items.length()").isEqualTo(1)
+                .jsonPath("$.data.items[0].unitGroupCode").isEqualTo("2511")
+                .jsonPath("$.data.missing").isEqualTo(List.of("9999"));
+        client.get().uri("/api/job/getAllJobs").exchange().expectStatus().isOk();
+        client.get().uri("/api/job/getJobPage?lang=en&limit=10").exchange().expectStatus().isOk();
+    }
+
+    @Test
+    void streamAllJobsReadsTheCursorOffTheEventLoopAndClosesTheSession() {
+        SqlSession session = openSession(List.of(job()));
+
+        client.get().uri("/api/job/streamAllJobs?lang=en&fields=unitGroupTitle")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange().expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("{\"unitGroupCode\":\"2511\",\"unitGroupTitle\":\"Software Developers\"}\n");
+        verify(session, timeout(5000)).close();
+    }
+
+    @Test
+    void streamAllJobsIsCutOffAfterTheOverallTimeout() {
+        MascoJob job = job();
+        SqlSession session = openSession(() -> Stream.generate(() -> {
+            try {
+                return slow(job);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }).iterator());
+
+        long started = System.nanoTime();
+        client.get().uri("/api/job/streamAllJobs?lang=en")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange().expectStatus().isOk()
+                .returnResult(String.class).getResponseBody()
+                .onErrorResume(e -> Flux.empty())
+                .blockLast(Duration.ofSeconds(10));
+
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5), "stream was not cut off");
+        verify(session, timeout(5000)).close();
+    }
+
+    @ParameterizedTest(name = "snapshotLoaded={0}")
+    @ValueSource(booleans = {true, false})
+    void skillEndpointsDoNotBlockTheEventLoop(boolean snapshotLoaded) {
+        useSnapshot(snapshotLoaded);
+        client.get().uri("/api/skill/getSkillLevelByLang?lang=en")
+                .exchange().expectStatus().isOk();
+        client.get().uri("/api/skill/getSkillLevelByLangAndId?lang=en&majorGroupCode=2")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data").exists();
+    }
+
+    @Test
+    void resumeEndpointsDoNotBlockTheEventLoop() {
+        String resume = "Jane Doe\njane@example.com\nSkills: Java, Spring Boot, MySQL, Docker, Git\n"
+                + "Experience: Software engineer at Example Sdn Bhd, 2021-2024, built REST APIs.\n"
+                + "Education: Bachelor of Computer Science, Universiti Malaya\n";
+        MultipartBodyBuilder multipart = new MultipartBodyBuilder();
+        multipart.part("file", new ByteArrayResource(resume.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public String getFilename() {
+                return "resume.txt";
+            }
+        }).contentType(MediaType.TEXT_PLAIN);
+        multipart.part("language", "en");
+
+        client.post().uri("/api/resume-analyze")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(multipart.build()))
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.success").isEqualTo(true);
+        client.get().uri("/api/health").exchange().expectStatus().isOk();
+    }
+
+    /**
+     * 流式导出自己打开 SqlSession 并通过游标读取
+     */
+    private SqlSession openSession(Iterable<MascoJob> rows) {
+        Cursor<MascoJob> cursor = new Cursor<>() {
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public boolean isConsumed() {
+                return false;
+            }
+
+            @Override
+            public int getCurrentIndex() {
+                return -1;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public Iterator<MascoJob> iterator() {
+                return rows.iterator();
+            }
+        };
+        MascoJobMapper streamingMapper = mock(MascoJobMapper.class);
+        when(streamingMapper.scanAllByLang(anyString())).thenReturn(cursor);
+        SqlSession session = mock(SqlSession.class);
+        when(session.getMapper(MascoJobMapper.class)).thenReturn(streamingMapper);
+        when(sqlSessionFactory.openSession()).thenReturn(session);
+        return session;
+    }
+
+    /**
+     * 快照未加载时内存视图和响应缓存都不可用，请求直接落到 Mapper 上
+     */
+    private void useSnapshot(boolean loaded) {
+        if (!loaded) {
+            ReflectionTestUtils.setField(mascoJobDatabaseService, "catalog", null);
+        }
+    }
+
+    /**
+     * 模拟 JDBC 往返：在非阻塞线程上调用会被 BlockHound 拦截
+     */
+    private static <T> T slow(T value) throws InterruptedException {
+        Thread.sleep(5);
+        return value;
+    }
+
+    private static MascoJob job() {
+        MascoJob job = new MascoJob();
+        job.setUnitGroupCode("2511");
+        job.setMajorGroupCode("2");
+        job.setMajorGroupTitle("Professionals");
+        job.setSubMajorGroupCode("25");
+        job.setMinorGroupCode("251");
+        job.setUnitGroupTitle("Software Developers");
+        job.setUnitGroupDescription("Software developers research, analyse and evaluate requirements.");
+        job.setSkillLevel("4");
+        return job;
+    }
+
+    private static MajorGroupSkillLevels skillLevel() {
+        MajorGroupSkillLevels level = new MajorGroupSkillLevels();
+        level.setMajorGroupCode("2");
+        level.setMajorGroupTitle("Professionals");
+        level.setEducationLevel("Tertiary");
+        level.setSkillLevel("4");
+        return level;
+    }
+}
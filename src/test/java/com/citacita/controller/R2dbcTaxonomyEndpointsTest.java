@@ -0,0 +1,175 @@
+package com.citacita.controller;
+
+import com.citacita.entity.MajorGroupSkillLevels;
+import com.citacita.entity.MascoJob;
+import com.citacita.mapper.MajorGroupSkillLevelsMapper;
+import com.citacita.mapper.MascoJobMapper;
+import com.citacita.mapper.TestTableMapper;
+import com.citacita.service.MascoJobDatabaseService;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * citacita.data.access=r2dbc 时的工作、技能接口，数据库使用内存 H2：
+ * 快照未加载时走 R2DBC（可选参数缺失不报错），快照加载后由内存视图提供并进入带 ETag 的响应缓存。
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+                + "org.mybatis.spring.boot.autoconfigure.MybatisAutoConfiguration",
+        "citacita.data.access=r2dbc",
+        "citacita.r2dbc.url=r2dbc:h2:mem:///citacita?options=DB_CLOSE_DELAY=-1",
+        "citacita.r2dbc.username=sa",
+        "azure.openai.endpoint=http://localhost:1",
+        "azure.speech.endpoint=http://localhost:1", "azure.speech.apiKey=test",
+        "azure.tts.endpoint=http://localhost:1", "azure.tts.apiKey=test",
+        "azure.stt.endpoint=http://localhost:1", "azure.stt.apiKey=test"
+})
+class R2dbcTaxonomyEndpointsTest {
+
+    private static final String JOB_COLUMNS = "major_group_title, sub_major_group_title, minor_group_title, "
+            + "unit_group_title, unit_group_description, tasks_include, examples, skill_level";
+
+    @MockitoBean
+    private MascoJobMapper mascoJobMapper;
+
+    @MockitoBean
+    private MajorGroupSkillLevelsMapper skillLevelsMapper;
+
+    @MockitoBean
+    private TestTableMapper testTableMapper;
+
+    @MockitoBean
+    private SqlSessionFactory sqlSessionFactory;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private MascoJobDatabaseService mascoJobDatabaseService;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        StringBuilder jobTable = new StringBuilder("CREATE TABLE masco_job (unit_group_code VARCHAR(10) PRIMARY KEY, "
+                + "major_group_code VARCHAR(10), sub_major_group_code VARCHAR(10), minor_group_code VARCHAR(10)");
+        for (String column : JOB_COLUMNS.split(", ")) {
+            for (String suffix : List.of("", "_malay", "_chinese")) {
+                jobTable.append(", ").append(column).append(suffix).append(" VARCHAR(255)");
+            }
+        }
+        jobTable.append(')');
+        Flux.just("DROP TABLE IF EXISTS masco_job", "DROP TABLE IF EXISTS major_group_skill_levels",
+                        jobTable.toString(),
+                        "CREATE TABLE major_group_skill_levels (major_group_code VARCHAR(10) PRIMARY KEY, "
+                                + "major_group_title VARCHAR(255), major_group_title_malay VARCHAR(255), major_group_title_chinese VARCHAR(255), "
+                                + "education_level VARCHAR(255), education_level_malay VARCHAR(255), education_level_chinese VARCHAR(255), "
+                                + "skill_level VARCHAR(255), skill_level_malay VARCHAR(255), skill_level_chinese VARCHAR(255))",
+                        "INSERT INTO masco_job (unit_group_code, major_group_code, sub_major_group_code, minor_group_code, "
+                                + "unit_group_title, unit_group_title_malay, unit_group_title_chinese) "
+                                + "VALUES ('2511', '2', '25', '251', 'Software Developers', 'Pembangun Perisian', '软件开发人员')",
+                        "INSERT INTO major_group_skill_levels (major_group_code, major_group_title, major_group_title_malay, major_group_title_chinese) "
+                                + "VALUES ('2', 'Professionals', 'Profesional', '专业人员')")
+                .concatMap(sql -> databaseClient.sql(sql).then())
+                .blockLast();
+
+        MascoJob job = new MascoJob();
+        job.setUnitGroupCode("2511");
+        job.setMajorGroupCode("2");
+        job.setSubMajorGroupCode("25");
+        job.setMinorGroupCode("251");
+        job.setUnitGroupTitle("Software Developers");
+        job.setUnitGroupTitleMalay("Pembangun Perisian");
+        when(mascoJobMapper.selectAll()).thenReturn(List.of(job));
+        MajorGroupSkillLevels level = new MajorGroupSkillLevels();
+        level.setMajorGroupCode("2");
+        level.setMajorGroupTitle("Professionals");
+        level.setMajorGroupTitleMalay("Profesional");
+        when(skillLevelsMapper.selectAll()).thenReturn(List.of(level));
+
+        client = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .responseTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @Test
+    void withoutSnapshotQueriesGoThroughR2dbcAndToleratesMissingParameters() {
+        ReflectionTestUtils.setField(mascoJobDatabaseService, "catalog", null);
+
+        client.get().uri("/api/job/getJobListByLangAndMajorGroupCode?lang=ms&majorGroupCode=2")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data[0].unitGroupTitle").isEqualTo("Pembangun Perisian");
+        client.get().uri("/api/job/getJobListByLangAndMajorGroupCode?lang=en")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data").isEmpty();
+        client.get().uri("/api/job/getDetailJobByLangAndUnitGroupCode?lang=zh-CN&unitGroupCode=2511")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data.unitGroupTitle").isEqualTo("软件开发人员");
+        client.get().uri("/api/job/getDetailJobByLangAndUnitGroupCode?lang=en")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data").doesNotExist();
+        client.get().uri("/api/job/autoCompleteJobByLangAndUnitGroupTitle?lang=en")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data").isEmpty();
+        client.get().uri("/api/job/autoCompleteJobByLangAndUnitGroupTitle?lang=en&unitGroupTitle=Software")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data[0].unitGroupCode").isEqualTo("2511");
+        client.post().uri("/api/job/getDetailJobsByLangAndUnitGroupCodes")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"lang\":\"ms\",\"unitGroupCodes\":[\"9999\",\"2511\",\"2511\"]}")
+                .exchange().expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.data.items.length()").isEqualTo(1)
+                .jsonPath("$.data.items[0].unitGroupTitle").isEqualTo("Pembangun Perisian")
+                .jsonPath("$.data.missing").isEqualTo(List.of("9999"));
+        client.get().uri("/api/skill/getSkillLevelByLangAndId?lang=ms&majorGroupCode=2")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data.majorGroupTitle").isEqualTo("Profesional");
+
+        verify(mascoJobMapper, never()).selectByMajorGroupCodeAndLang(anyString(), anyString());
+        verify(mascoJobMapper, never()).selectByUnitGroupCodes(any(), anyString());
+        verify(skillLevelsMapper, never()).selectByLangAndId(anyString(), anyString());
+    }
+
+    @Test
+    void withSnapshotResponsesAreServedFromTheEtagCache() {
+        mascoJobDatabaseService.refreshCache().block();
+
+        for (String uri : List.of("/api/job/getJobListByLangAndMajorGroupCode?lang=ms&majorGroupCode=2",
+                "/api/skill/getSkillLevelByLang?lang=ms")) {
+            String etag = client.get().uri(uri)
+                    .exchange().expectStatus().isOk()
+                    .returnResult(String.class).getResponseHeaders().getETag();
+            assertThat(etag).isNotNull();
+            client.get().uri(uri).ifNoneMatch(etag)
+                    .exchange().expectStatus().isNotModified();
+        }
+        client.get().uri("/api/skill/getSkillLevelByLangAndId?lang=ms&majorGroupCode=2")
+                .exchange().expectStatus().isOk()
+                .expectBody().jsonPath("$.data.majorGroupTitle").isEqualTo("Profesional");
+    }
+}
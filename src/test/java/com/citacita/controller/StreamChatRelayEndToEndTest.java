@@ -0,0 +1,217 @@
+package com.citacita.controller;
+
+import com.citacita.mapper.MajorGroupSkillLevelsMapper;
+import com.citacita.mapper.MascoJobMapper;
+import com.citacita.mapper.TestTableMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * /stream-chat 与 /resume-chat 经过真实的 Netty 服务器和 WebClient 转发本地桩上游（reactor-netty）：
+ * 客户端取消后上游连接被关闭、空闲时发送心跳、慢客户端触发 close 溢出策略
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+                + "org.mybatis.spring.boot.autoconfigure.MybatisAutoConfiguration",
+        "azure.openai.apiKey=test",
+        "azure.speech.endpoint=http://localhost:1", "azure.speech.apiKey=test",
+        "azure.tts.endpoint=http://localhost:1", "azure.tts.apiKey=test",
+        "azure.stt.endpoint=http://localhost:1", "azure.stt.apiKey=test",
+        "citacita.sse.heartbeat-interval=PT0.2S",
+        "citacita.sse.max-buffered-events=4",
+        "citacita.sse.overflow-policy=close"
+})
+class StreamChatRelayEndToEndTest {
+
+    private static final String CHUNK = "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"hello world\"}}]}\n\n";
+    private static final String REQUEST = "{\"max_tokens\":100,\"messages\":[{\"role\":\"system\",\"content\":\"You are a test.\"}]}";
+    private static final String RESUME_REQUEST = "{\"language\":\"en\",\"messages\":[{\"role\":\"user\",\"content\":\"Is my resume good?\"}]}";
+
+    private static volatile Supplier<Flux<String>> upstream;
+    private static volatile CountDownLatch upstreamCancelled;
+
+    private static final DisposableServer STUB = HttpServer.create()
+            .port(0)
+            .route(routes -> routes.route(request -> true, (request, response) -> response
+                    .header("Content-Type", "text/event-stream")
+                    .sendString(Flux.defer(() -> upstream.get())
+                            .doOnCancel(() -> upstreamCancelled.countDown()), StandardCharsets.UTF_8)))
+            .bindNow();
+
+    @DynamicPropertySource
+    static void upstreamProperties(DynamicPropertyRegistry registry) {
+        registry.add("azure.openai.endpoint", () -> "http://localhost:" + STUB.port());
+    }
+
+    @AfterAll
+    static void stopStub() {
+        STUB.disposeNow();
+    }
+
+    @MockitoBean
+    private MascoJobMapper mascoJobMapper;
+
+    @MockitoBean
+    private MajorGroupSkillLevelsMapper skillLevelsMapper;
+
+    @MockitoBean
+    private TestTableMapper testTableMapper;
+
+    @MockitoBean
+    private SqlSessionFactory sqlSessionFactory;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        upstreamCancelled = new CountDownLatch(1);
+        client = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .responseTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @Test
+    void clientCancelClosesTheUpstreamStream() throws InterruptedException {
+        upstream = () -> Flux.interval(Duration.ofMillis(50)).map(tick -> CHUNK);
+        double generatedBefore = summaryTotal("citacita.sse.tokens.generated");
+
+        StepVerifier.create(streamChat())
+                .thenConsumeWhile(text -> text.startsWith(": ping"))
+                .expectNextMatches(text -> text.contains("hello world"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+
+        assertTrue(upstreamCancelled.await(5, TimeUnit.SECONDS), "upstream response was not cancelled");
+        awaitTrue(() -> streams("cancelled") >= 1);
+        // 每个增量 "hello world" 估算 3 个 token，取消前至少输出了一个
+        awaitTrue(() -> summaryTotal("citacita.sse.tokens.generated") - generatedBefore >= 3);
+    }
+
+    @Test
+    void resumeChatCancelClosesTheUpstreamAndRecordsSavedTokens() throws InterruptedException {
+        upstream = () -> Flux.interval(Duration.ofMillis(50)).map(tick -> CHUNK);
+        long savedBefore = summaryCount("citacita.sse.tokens.saved", "resume-chat");
+
+        StepVerifier.create(chat("/api/resume-chat", RESUME_REQUEST))
+                .thenConsumeWhile(text -> text.startsWith(":ping") || text.startsWith(": ping"))
+                .expectNextMatches(text -> text.contains("hello world"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+
+        assertTrue(upstreamCancelled.await(5, TimeUnit.SECONDS), "upstream response was not cancelled");
+        // 请求体没有 max_tokens 时按准入控制的默认补全预算估算节省量
+        awaitTrue(() -> summaryCount("citacita.sse.tokens.saved", "resume-chat") > savedBefore);
+    }
+
+    @Test
+    void heartbeatIsSentWhileTheUpstreamIsIdle() {
+        upstream = () -> Flux.just(CHUNK)
+                .concatWith(Mono.delay(Duration.ofSeconds(1)).thenReturn("data: [DONE]\n\n"));
+
+        StepVerifier.create(streamChat())
+                .thenConsumeWhile(text -> text.startsWith(": ping"))
+                .expectNextMatches(text -> text.contains("hello world"))
+                .expectNextMatches(text -> text.startsWith(": ping"))
+                .thenConsumeWhile(text -> !text.contains("[DONE]"))
+                .expectNextMatches(text -> text.contains("[DONE]"))
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void slowClientTriggersTheCloseOverflowPolicy() throws InterruptedException {
+        String large = CHUNK.replace("hello world", "x".repeat(16 * 1024));
+        upstream = () -> Flux.range(0, 100_000).map(i -> large);
+        double overflowBefore = streams("overflow");
+
+        // 只请求一个缓冲区后不再读取，服务端写不出去，转发缓冲很快超过上限
+        streamChat().subscribe(new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                subscription.request(1);
+            }
+        });
+
+        awaitTrue(() -> streams("overflow") > overflowBefore);
+        assertTrue(upstreamCancelled.await(5, TimeUnit.SECONDS), "upstream response was not cancelled");
+    }
+
+    private Flux<String> streamChat() {
+        return chat("/api/stream-chat", REQUEST);
+    }
+
+    private Flux<String> chat(String uri, String request) {
+        return client.post().uri(uri)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(DataBuffer.class)
+                .getResponseBody()
+                .map(buffer -> {
+                    String text = buffer.toString(StandardCharsets.UTF_8);
+                    DataBufferUtils.release(buffer);
+                    return text;
+                });
+    }
+
+    private double streams(String outcome) {
+        return meterRegistry.find("citacita.sse.streams").tag("endpoint", "stream-chat").tag("outcome", outcome)
+                .counters().stream().mapToDouble(counter -> counter.count()).sum();
+    }
+
+    private double summaryTotal(String name) {
+        return meterRegistry.find(name).tag("endpoint", "stream-chat")
+                .summaries().stream().mapToDouble(summary -> summary.totalAmount()).sum();
+    }
+
+    private long summaryCount(String name, String endpoint) {
+        return meterRegistry.find(name).tag("endpoint", endpoint)
+                .summaries().stream().mapToLong(summary -> summary.count()).sum();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met within 10s");
+            Thread.sleep(20);
+        }
+    }
+}
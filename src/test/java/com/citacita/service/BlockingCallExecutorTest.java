@@ -0,0 +1,133 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlockingCallExecutorTest {
+
+    private final Scheduler jdbcScheduler = Schedulers.newBoundedElastic(4, 100, "jdbc-test");
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        jdbcScheduler.dispose();
+    }
+
+    @Test
+    void waitingForAPermitDoesNotHoldAJdbcThreadAndTimesOutWith503() throws InterruptedException {
+        BlockingCallExecutor executor = executor(1, 10, Duration.ofMillis(200));
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Disposable first = executor.execute("job", () -> {
+            running.countDown();
+            finish.await();
+            return "first";
+        }).subscribe();
+        running.await();
+
+        AtomicInteger started = new AtomicInteger();
+        StepVerifier.create(executor.execute("job", started::incrementAndGet))
+                .expectError(BlockingCallRejectedException.class)
+                .verify(Duration.ofSeconds(5));
+        assertEquals(0, started.get());
+        assertEquals(1, meterRegistry.counter("citacita.blocking.rejected", "endpoint", "job", "reason", "timeout").count());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, AnnotatedElementUtils
+                .findMergedAnnotation(BlockingCallRejectedException.class, ResponseStatus.class).code());
+
+        finish.countDown();
+        first.dispose();
+    }
+
+    @Test
+    void permitIsHandedToTheNextWaiterAndQueueOverflowIsRejected() throws InterruptedException {
+        BlockingCallExecutor executor = executor(1, 1, Duration.ofSeconds(5));
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        executor.execute("skill", () -> {
+            running.countDown();
+            finish.await();
+            return "first";
+        }).subscribe();
+        running.await();
+
+        StepVerifier.create(executor.execute("skill", () -> "second"))
+                .then(() -> StepVerifier.create(executor.execute("skill", () -> "third"))
+                        .expectError(BlockingCallRejectedException.class)
+                        .verify(Duration.ofSeconds(5)))
+                .then(finish::countDown)
+                .expectNext("second")
+                .verifyComplete();
+        assertEquals(1, meterRegistry.counter("citacita.blocking.rejected", "endpoint", "skill", "reason", "queue-full").count());
+    }
+
+    @Test
+    void streamHoldsItsPermitUntilTheStreamEnds() {
+        BlockingCallExecutor executor = executor(1, 10, Duration.ofMillis(200));
+        Sinks.Many<String> rows = Sinks.many().unicast().onBackpressureBuffer();
+        Disposable first = executor.stream("job.stream", rows::asFlux).subscribe();
+        rows.tryEmitNext("row");
+
+        // 游标还开着：后来的流拿不到许可，排队超时后 503
+        StepVerifier.create(executor.stream("job.stream", () -> Flux.just("second")))
+                .expectError(BlockingCallRejectedException.class)
+                .verify(Duration.ofSeconds(5));
+
+        first.dispose();
+        StepVerifier.create(executor.stream("job.stream", () -> Flux.just("third")))
+                .expectNext("third")
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void virtualThreadModeCapsAllEndpointsAtThePoolSize() throws InterruptedException {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("citacita.scheduler.jdbc.mode", "virtual")
+                .withProperty("citacita.datasource.maximum-pool-size", "1");
+        BlockingCallExecutor executor = new BlockingCallExecutor(jdbcScheduler, meterRegistry, environment,
+                16, 10, Duration.ofMillis(200));
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Disposable first = executor.execute("job.list", () -> {
+            running.countDown();
+            finish.await();
+            return "first";
+        }).subscribe();
+        running.await();
+
+        // 另一个端点自己的许可还有空余，但唯一的连接已被占用
+        AtomicInteger started = new AtomicInteger();
+        StepVerifier.create(executor.execute("skill.list", started::incrementAndGet))
+                .expectError(BlockingCallRejectedException.class)
+                .verify(Duration.ofSeconds(5));
+        assertEquals(0, started.get());
+        assertEquals(1, meterRegistry.counter("citacita.blocking.rejected", "endpoint", "jdbc.pool", "reason", "timeout").count());
+
+        finish.countDown();
+        first.dispose();
+        StepVerifier.create(executor.execute("skill.list", () -> "after"))
+                .expectNext("after")
+                .verifyComplete();
+    }
+
+    private BlockingCallExecutor executor(int limit, int maxQueue, Duration acquireTimeout) {
+        return new BlockingCallExecutor(jdbcScheduler, meterRegistry, new MockEnvironment(), limit, maxQueue, acquireTimeout);
+    }
+}
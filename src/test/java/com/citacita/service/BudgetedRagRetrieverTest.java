@@ -0,0 +1,80 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 时限覆盖检索的同步部分（调用线程不做检索工作），超时降级复用同一份内存知识结果
+ */
+class BudgetedRagRetrieverTest {
+
+    private final Scheduler cpuScheduler = Schedulers.newParallel("cpu-test", 2);
+    private final EnhancedFAQRAGService ragService = mock(EnhancedFAQRAGService.class);
+    private final BudgetedRagRetriever retriever = new BudgetedRagRetriever(ragService, new SimpleMeterRegistry(),
+            cpuScheduler, Duration.ofMillis(50), Duration.ofSeconds(5), Duration.ofMinutes(10), 100);
+
+    @AfterEach
+    void tearDown() {
+        cpuScheduler.dispose();
+    }
+
+    @Test
+    void deadlineCoversSynchronousRetrievalWork() {
+        when(ragService.needsJobSearch(anyString(), anyString())).thenReturn(true);
+        // 同步计算 300ms 后才返回 Mono：旧实现在调用线程上执行完才开始计时
+        when(ragService.retrieveRelevantContent(anyString(), anyString())).thenAnswer(invocation -> {
+            spin(300);
+            return Mono.just("full");
+        });
+        when(ragService.retrieveInMemoryContent(anyString(), anyString())).thenReturn("partial");
+
+        long start = System.nanoTime();
+        StepVerifier.create(retriever.retrieve("software engineer jobs", "english"))
+                .expectNext("partial")
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250), "caller waited for the retrieval");
+    }
+
+    @Test
+    void fallbackReusesTheInMemoryResultInsteadOfRecomputingIt() {
+        when(ragService.needsJobSearch(anyString(), anyString())).thenReturn(false);
+        when(ragService.retrieveInMemoryContent(anyString(), anyString())).thenAnswer(invocation -> {
+            spin(150);
+            return "faq";
+        });
+
+        StepVerifier.create(retriever.retrieve("how do I apply for a grant", "english"))
+                .expectNext("faq")
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        verify(ragService, times(1)).retrieveInMemoryContent(anyString(), anyString());
+    }
+
+    /**
+     * 模拟 CPU 密集的检索（cpuScheduler 线程上 BlockHound 不允许 sleep / onSpinWait）
+     */
+    private static void spin(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long iterations = 0;
+        while (System.nanoTime() < until) {
+            iterations++;
+        }
+        assertTrue(iterations > 0);
+    }
+}
@@ -0,0 +1,113 @@
+package com.citacita.service;
+
+import com.citacita.dto.ChatDelta;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 透传字节流上的用量处理：去掉只有用量的事件、截取 usage 对象，事件和对象可能跨缓冲区
+ */
+class ChatDeltaParserTest {
+
+    private static final String FILTER_RESULTS = "data: {\"choices\":[],\"prompt_filter_results\":[]}\n\n";
+    private static final String CONTENT = "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"hi\"}}]}\n\n";
+    private static final String USAGE_ONLY = "data: {\"choices\":[],\"id\":\"x\",\"usage\":"
+            + "{\"completion_tokens\":2,\"prompt_tokens\":5,\"total_tokens\":7}}\n\n";
+    private static final String DONE = "data: [DONE]\n\n";
+
+    private final ChatDeltaParser parser = new ChatDeltaParser(new ObjectMapper());
+
+    @Test
+    void usageOnlyEventIsDroppedWhereverTheBuffersAreSplit() {
+        String stream = FILTER_RESULTS + CONTENT + USAGE_ONLY + DONE;
+        String expected = FILTER_RESULTS + CONTENT + DONE;
+        byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+
+        for (int split = 0; split <= bytes.length; split++) {
+            Flux<DataBuffer> body = Flux.just(slice(bytes, 0, split), slice(bytes, split, bytes.length));
+            assertEquals(expected, join(parser.dropUsageOnlyEvents(body)), "split at " + split);
+        }
+
+        List<DataBuffer> single = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i++) {
+            single.add(slice(bytes, i, i + 1));
+        }
+        assertEquals(expected, join(parser.dropUsageOnlyEvents(Flux.fromIterable(single))));
+    }
+
+    @Test
+    void eventsAreFramedAndParsedWhereverTheBuffersAreSplit() {
+        // 多字节字符（中文、’）和 CRLF 分隔的事件也可能在任意字节处被切开
+        String stream = FILTER_RESULTS + CONTENT.replace("hi", "你好’ world")
+                + "data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}\r\n\r\n"
+                + USAGE_ONLY + DONE;
+        byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+        List<ChatDelta> expected = parser.parse(Flux.just(slice(bytes, 0, bytes.length))).collectList().block();
+        assertEquals(5, expected.size());
+        assertEquals("你好’ world", expected.get(1).getContent());
+        assertEquals("stop", expected.get(2).getFinishReason());
+        assertEquals(new ChatDelta.Usage(5, 2, 7, 0), expected.get(3).getUsage());
+        assertEquals(ChatDelta.ofDone(), expected.get(4));
+
+        for (int split = 0; split <= bytes.length; split++) {
+            Flux<DataBuffer> body = Flux.just(slice(bytes, 0, split), slice(bytes, split, bytes.length));
+            assertEquals(expected, parser.parse(body).collectList().block(), "split at " + split);
+        }
+        for (int first = 1; first < bytes.length; first += 7) {
+            for (int second = first + 1; second < bytes.length; second += 5) {
+                Flux<DataBuffer> body = Flux.just(slice(bytes, 0, first), slice(bytes, first, second),
+                        slice(bytes, second, bytes.length));
+                assertEquals(expected, parser.parse(body).collectList().block(), "split at " + first + ", " + second);
+            }
+        }
+    }
+
+    @Test
+    void usageObjectIsReadAcrossBuffersIgnoringBracesInStrings() {
+        String stream = CONTENT + "data: {\"choices\":[],\"usage\":{\"note\":\"}{\\\"\",\"completion_tokens\":2,"
+                + "\"prompt_tokens\":5,\"total_tokens\":7}}\n\n" + DONE;
+        byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+        int middle = stream.indexOf("prompt_tokens");
+
+        List<ChatDelta.Usage> usages = new ArrayList<>();
+        join(parser.tapUsage(Flux.just(slice(bytes, 0, middle), slice(bytes, middle, bytes.length)), usages::add));
+
+        assertEquals(List.of(new ChatDelta.Usage(5, 2, 7, 0)), usages);
+    }
+
+    @Test
+    void unterminatedUsageObjectIsAbandonedAndScanningResumes() {
+        String runaway = "data: {\"choices\":[],\"usage\":{\"note\":{" + "x".repeat(10_000) + "\n\n";
+        byte[] bytes = (runaway + USAGE_ONLY + DONE).getBytes(StandardCharsets.UTF_8);
+
+        List<ChatDelta.Usage> usages = new ArrayList<>();
+        join(parser.tapUsage(Flux.just(slice(bytes, 0, bytes.length)), usages::add));
+
+        assertEquals(List.of(new ChatDelta.Usage(5, 2, 7, 0)), usages);
+    }
+
+    private static DataBuffer slice(byte[] bytes, int from, int to) {
+        byte[] part = new byte[to - from];
+        System.arraycopy(bytes, from, part, 0, part.length);
+        return DefaultDataBufferFactory.sharedInstance.wrap(part);
+    }
+
+    private static String join(Flux<DataBuffer> body) {
+        StringBuilder text = new StringBuilder();
+        body.doOnNext(buffer -> {
+            text.append(buffer.toString(StandardCharsets.UTF_8));
+            DataBufferUtils.release(buffer);
+        }).blockLast();
+        return text.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.NullSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 滚动摘要只回给产生它的那段会话：开场白相同、甚至会话ID相同的另一位用户拿不到别人的摘要
+ */
+class ConversationCompactorTest {
+
+    private static final String OPENER = "Hi, can you review my resume?";
+
+    private ConversationCompactor compactor;
+
+    @BeforeEach
+    void setUp() {
+        AzureStreamService azureStreamService = mock(AzureStreamService.class);
+        // 摘要直接回显被摘要的对话，泄露时能在结果中看到对方的内容
+        when(azureStreamService.complete(eq("summarize"), any())).thenAnswer(invocation -> {
+            Map<String, Object> request = invocation.getArgument(1);
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> messages = (List<Map<String, Object>>) request.get("messages");
+            return Mono.just(String.valueOf(messages.get(1).get("content")));
+        });
+        compactor = new ConversationCompactor(azureStreamService, new SimpleMeterRegistry(),
+                true, 30, true, 1, 300, Duration.ofSeconds(5), Duration.ofMinutes(30), 100);
+    }
+
+    @ParameterizedTest
+    @NullSource
+    @ValueSource(strings = "shared-conversation")
+    void usersWithTheSameOpenerDoNotShareSummaries(String conversationId) {
+        List<Map<String, Object>> alice = conversation(
+                "Sure. Alice Tan, phone 012-3456789, five years in nursing.",
+                "Registered nurse or clinical educator roles.");
+        compactor.compact("resume-chat", conversationId, body(alice));
+        assertTrue(text(compactor.compact("resume-chat", conversationId, body(alice))).contains("Alice Tan"),
+                "the conversation that produced the summary should get it back");
+
+        List<Map<String, Object>> bob = conversation(
+                "Sure. Bob Lim, phone 019-8765432, eight years in accounting.",
+                "Auditor or financial controller roles, mostly.");
+        String compacted = text(compactor.compact("resume-chat", conversationId, body(bob)));
+        assertFalse(compacted.contains("Alice"), compacted);
+        assertFalse(compacted.contains("012-3456789"), compacted);
+    }
+
+    private static List<Map<String, Object>> conversation(String firstAnswer, String secondAnswer) {
+        return List.of(
+                message("system", "You are a career assistant."),
+                message("user", OPENER),
+                message("assistant", firstAnswer),
+                message("user", "What jobs fit me?"),
+                message("assistant", secondAnswer),
+                message("user", "And the salary range?"));
+    }
+
+    private static Map<String, Object> body(List<Map<String, Object>> messages) {
+        return Map.of("messages", messages);
+    }
+
+    private static Map<String, Object> message(String role, String content) {
+        return Map.of("role", role, "content", content);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String text(Map<String, Object> body) {
+        StringBuilder text = new StringBuilder();
+        for (Map<String, Object> message : (List<Map<String, Object>>) body.get("messages")) {
+            text.append(message.get("content")).append('\n');
+        }
+        return text.toString();
+    }
+}
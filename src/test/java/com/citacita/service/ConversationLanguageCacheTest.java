@@ -0,0 +1,52 @@
+package com.citacita.service;
+
+import com.citacita.service.LanguageDetector.Language;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConversationLanguageCacheTest {
+
+    private final ConversationLanguageCache cache =
+            new ConversationLanguageCache(new LanguageDetector(), 0.6, Duration.ofMinutes(30), 100);
+
+    @Test
+    void anonymousConversationsWithTheSameOpenerDoNotShareLanguage() {
+        List<Map<String, String>> chinese = List.of(
+                Map.of("role", "user", "content", "hi"),
+                Map.of("role", "assistant", "content", "你好！有什么可以帮你？"),
+                Map.of("role", "user", "content", "我想找一份软件工程师的工作"));
+        assertThat(cache.resolve(null, "zh-CN", chinese)).isEqualTo(Language.CHINESE);
+
+        List<Map<String, String>> english = List.of(
+                Map.of("role", "user", "content", "hi"),
+                Map.of("role", "assistant", "content", "Hello! How can I help you today?"),
+                Map.of("role", "user", "content", "ok"));
+        assertThat(cache.resolve(null, "en", english)).isEqualTo(Language.ENGLISH);
+    }
+
+    @Test
+    void firstTurnWithoutConversationIdIsNotCached() {
+        assertThat(cache.conversationKey(null, List.of(Map.of("role", "user", "content", "hi")))).isNull();
+        assertThat(cache.conversationKey(" abc ", List.of())).isEqualTo("id:abc");
+    }
+
+    @Test
+    void sameConversationKeepsItsLanguageForShortFollowUps() {
+        List<Map<String, String>> first = List.of(
+                Map.of("role", "user", "content", "hello"),
+                Map.of("role", "assistant", "content", "Halo! Apa yang boleh saya bantu?"),
+                Map.of("role", "user", "content", "Saya mahu mencari kerja sebagai jurutera perisian"));
+        assertThat(cache.resolve(null, "en", first)).isEqualTo(Language.MALAY);
+
+        List<Map<String, String>> followUp = List.of(
+                first.get(0), first.get(1), first.get(2),
+                Map.of("role", "assistant", "content", "Baik, berikut ialah beberapa cadangan."),
+                Map.of("role", "user", "content", "ok"));
+        assertThat(cache.resolve(null, "en", followUp)).isEqualTo(Language.MALAY);
+    }
+}
@@ -0,0 +1,110 @@
+package com.citacita.service;
+
+import com.citacita.config.UpstreamHttpClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+/**
+ * 本地桩服务上的端点池：stalled 只返回响应头、不输出事件，fast 立即返回一个事件
+ */
+class OpenAiEndpointPoolTest {
+
+    private static final Function<WebClient, Flux<String>> CHAT =
+            client -> client.post().uri("/chat").retrieve().bodyToFlux(String.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DisposableServer server;
+    private UpstreamHttpClients httpClients;
+
+    @BeforeEach
+    void startStub() {
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .post("/stalled/chat", (request, response) -> response
+                                .header("Content-Type", "text/event-stream")
+                                .sendString(Flux.never()))
+                        .post("/fast/chat", (request, response) -> response
+                                .header("Content-Type", "text/event-stream")
+                                .sendString(Flux.just("data: hello\n\n"))))
+                .bindNow();
+    }
+
+    @AfterEach
+    void stopStub() {
+        if (httpClients != null) {
+            httpClients.dispose();
+        }
+        server.disposeNow();
+    }
+
+    @Test
+    void firstEventTimeoutIsSignalledByThePoolAndCountedAgainstTheEndpoint() {
+        OpenAiEndpointPool pool = pool("stalled");
+
+        StepVerifier.create(pool.stream(CHAT))
+                .expectError(TimeoutException.class)
+                .verify(Duration.ofSeconds(5));
+        assertEquals(1, ejections("stalled"));
+
+        StepVerifier.create(resilience(0).stream("chat", () -> pool.stream(CHAT)))
+                .expectErrorSatisfies(error -> {
+                    assertInstanceOf(UpstreamUnavailableException.class, error);
+                    assertInstanceOf(TimeoutException.class, error.getCause());
+                })
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void stalledEndpointIsEjectedAndRetriesMoveToTheHealthyOne() {
+        OpenAiEndpointPool pool = pool("stalled", "fast");
+        OpenAiResilience resilience = resilience(1);
+
+        for (int i = 0; i < 10; i++) {
+            StepVerifier.create(resilience.stream("chat", () -> pool.stream(CHAT)))
+                    .expectNext("hello")
+                    .verifyComplete();
+        }
+
+        // 没有延迟样本的 stalled 端点成本最低，很快被选中；超时后摘除一分钟，之后不再被选中
+        assertEquals(1, meterRegistry.counter("citacita.openai.endpoint.selected", "endpoint", "stalled").count());
+        assertEquals(1, ejections("stalled"));
+    }
+
+    private OpenAiEndpointPool pool(String... names) {
+        MockEnvironment environment = new MockEnvironment();
+        for (int i = 0; i < names.length; i++) {
+            environment.setProperty("citacita.openai.endpoints[" + i + "].name", names[i]);
+            environment.setProperty("citacita.openai.endpoints[" + i + "].url", "http://localhost:" + server.port() + "/" + names[i]);
+            environment.setProperty("citacita.openai.endpoints[" + i + "].api-key", "test");
+        }
+        httpClients = new UpstreamHttpClients(environment);
+        return new OpenAiEndpointPool(environment, httpClients, meterRegistry, "", "",
+                1, Duration.ofMinutes(1), Duration.ofSeconds(3));
+    }
+
+    private OpenAiResilience resilience(int maxRetries) {
+        return new OpenAiResilience(meterRegistry, maxRetries, Duration.ofMillis(10), Duration.ofMillis(20),
+                Duration.ofSeconds(1), Duration.ofSeconds(30), Duration.ofSeconds(5), false, Duration.ZERO,
+                50, 20, 0.5, Duration.ofSeconds(30), 3);
+    }
+
+    private double ejections(String endpoint) {
+        return meterRegistry.counter("citacita.openai.endpoint.ejections", "endpoint", endpoint, "reason", "failures").count();
+    }
+}
@@ -0,0 +1,73 @@
+package com.citacita.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 重试的总时限、非流式调用的补全超时和对冲请求的准入
+ */
+class OpenAiResilienceTest {
+
+    @Test
+    void nonStreamingCompletionTimeoutIsNotRetried() {
+        OpenAiResilience resilience = resilience(2, Duration.ofMillis(10), Duration.ofSeconds(30), false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        StepVerifier.create(resilience.call("complete", () -> Mono.<String>never()
+                        .doOnSubscribe(subscription -> attempts.incrementAndGet())))
+                .expectError(UpstreamUnavailableException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void retriesStopAtTheOverallDeadline() {
+        OpenAiResilience resilience = resilience(100, Duration.ofMillis(40), Duration.ofMillis(100), false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        StepVerifier.create(resilience.stream("chat", () -> Flux.<String>error(new IOException("reset"))
+                        .doOnSubscribe(subscription -> attempts.incrementAndGet())))
+                .expectError(UpstreamUnavailableException.class)
+                .verify(Duration.ofSeconds(5));
+
+        // 每次退避 20~40 ms，100 ms 内最多重试 5 次
+        assertTrue(attempts.get() > 1 && attempts.get() <= 6, "attempts: " + attempts.get());
+    }
+
+    @Test
+    void hedgedAttemptGoesThroughHedgeAdmission() {
+        OpenAiResilience resilience = resilience(0, Duration.ofMillis(10), Duration.ofSeconds(30), true);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger hedgeAdmissions = new AtomicInteger();
+
+        StepVerifier.create(resilience.stream("chat",
+                        () -> attempts.incrementAndGet() == 1 ? Flux.never() : Flux.just("hedged"),
+                        hedge -> {
+                            hedgeAdmissions.incrementAndGet();
+                            return hedge;
+                        }))
+                .expectNext("hedged")
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1, hedgeAdmissions.get());
+        assertEquals(2, attempts.get());
+    }
+
+    private static OpenAiResilience resilience(int maxRetries, Duration backoff, Duration maxElapsed, boolean hedge) {
+        return new OpenAiResilience(new SimpleMeterRegistry(), maxRetries, backoff, backoff,
+                Duration.ofSeconds(1), maxElapsed, Duration.ofMillis(100), hedge, Duration.ofMillis(20),
+                50, 20, 0.5, Duration.ofSeconds(30), 3);
+    }
+}
@@ -0,0 +1,78 @@
+package com.citacita.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 字节层面的引号规范化与 cleanAzureResponse 结果一致，无论 ’ 的三个字节和其后的空格被切在哪里
+ */
+class QuoteNormalizerTest {
+
+    // ‘（E2 80 98）、…（E2 80 A6）与 ’ 前两个字节相同，不应被替换
+    private static final String TEXT = "data: {\"content\":\"It’s a dog’ s life’’ ok ‘quoted’ … 你好’ 世界 ’\"}\n\n";
+
+    @Test
+    void matchesCleanAzureResponseAtEverySplitPoint() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        byte[] expected = AzureStreamService.cleanAzureResponse(TEXT).getBytes(StandardCharsets.UTF_8);
+
+        for (int split = 0; split <= bytes.length; split++) {
+            assertArrayEquals(expected, normalize(bytes, split), "split at " + split);
+        }
+        for (int first = 1; first < bytes.length; first++) {
+            for (int second = first; second <= bytes.length; second += 3) {
+                assertArrayEquals(expected, normalize(bytes, first, second), "split at " + first + ", " + second);
+            }
+        }
+    }
+
+    @Test
+    void spaceAtTheStartOfTheNextBufferIsDropped() {
+        byte[] quote = "dog’".getBytes(StandardCharsets.UTF_8);
+        byte[] next = " s life".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = Arrays.copyOf(quote, quote.length + next.length);
+        System.arraycopy(next, 0, bytes, quote.length, next.length);
+
+        assertEquals("dog's life", new String(normalize(bytes, quote.length), StandardCharsets.UTF_8));
+        assertEquals(AzureStreamService.cleanAzureResponse("dog’ s life"),
+                new String(normalize(bytes, quote.length), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void streamEndingMidSequenceIsFlushedUnchanged() {
+        byte[] text = "abc".getBytes(StandardCharsets.UTF_8);
+        for (byte[] tail : new byte[][]{{(byte) 0xE2}, {(byte) 0xE2, (byte) 0x80}}) {
+            byte[] bytes = Arrays.copyOf(text, text.length + tail.length);
+            System.arraycopy(tail, 0, bytes, text.length, tail.length);
+            for (int split = 0; split <= bytes.length; split++) {
+                assertArrayEquals(bytes, normalize(bytes, split), "split at " + split);
+            }
+        }
+    }
+
+    private static byte[] normalize(byte[] bytes, int... splits) {
+        Flux<DataBuffer> body = Flux.range(0, splits.length + 1).map(i -> {
+            int from = i == 0 ? 0 : splits[i - 1];
+            int to = i == splits.length ? bytes.length : splits[i];
+            return DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes, from, to));
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        QuoteNormalizer.normalize(body).doOnNext(buffer -> {
+            byte[] chunk = new byte[buffer.readableByteCount()];
+            buffer.read(chunk);
+            out.writeBytes(chunk);
+            DataBufferUtils.release(buffer);
+        }).blockLast();
+        return out.toByteArray();
+    }
+}
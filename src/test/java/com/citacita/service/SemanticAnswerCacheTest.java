@@ -0,0 +1,65 @@
+package com.citacita.service;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 256 维哈希三元组向量 + 0.92 阈值：只差一个词的不同问题不能共用答案，超过分块上限的回答不写入缓存
+ */
+class SemanticAnswerCacheTest {
+
+    private static final String CONTEXT = "Software engineers in Malaysia typically need Java, Python and SQL.";
+
+    @Test
+    void nearDuplicateQuestionsDoNotCollide() {
+        SemanticAnswerCache cache = cache(4000);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        ask(cache, "software engineer salary", upstreamCalls);
+        ask(cache, "Software engineer salary", upstreamCalls);
+        assertEquals(1, upstreamCalls.get(), "the same question should be served from the cache");
+
+        // 检索上下文完全相同时，问题向量的差异必须足以把总分拉到阈值以下
+        ask(cache, "software engineer skills", upstreamCalls);
+        assertEquals(2, upstreamCalls.get(), "a different question must not replay the cached answer");
+    }
+
+    @Test
+    void answersLongerThanTheChunkLimitAreNotCached() {
+        SemanticAnswerCache cache = cache(2);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            cache.lookupOrRecord("english", "gpt", "long answer", CONTEXT, () -> {
+                upstreamCalls.incrementAndGet();
+                return Flux.just("a", "b", "[DONE]");
+            }).blockLast(Duration.ofSeconds(5));
+        }
+        assertEquals(2, upstreamCalls.get());
+
+        for (int i = 0; i < 2; i++) {
+            cache.lookupOrRecord("english", "gpt", "short answer", CONTEXT, () -> {
+                upstreamCalls.incrementAndGet();
+                return Flux.just("a", "[DONE]");
+            }).blockLast(Duration.ofSeconds(5));
+        }
+        assertEquals(3, upstreamCalls.get());
+    }
+
+    private static List<String> ask(SemanticAnswerCache cache, String question, AtomicInteger upstreamCalls) {
+        return cache.lookupOrRecord("english", "gpt", question, CONTEXT, () -> {
+            upstreamCalls.incrementAndGet();
+            return Flux.just("answer to " + question, "[DONE]");
+        }).collectList().block(Duration.ofSeconds(5));
+    }
+
+    private static SemanticAnswerCache cache(int maxChunks) {
+        return new SemanticAnswerCache(true, 0.92, Duration.ofMinutes(30), 500, maxChunks);
+    }
+}
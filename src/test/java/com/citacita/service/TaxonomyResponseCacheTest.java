@@ -0,0 +1,75 @@
+package com.citacita.service;
+
+import com.citacita.dto.SkillLevelDTO;
+import com.citacita.entity.MascoJob;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 缓存键只由目录中存在的参数组成；快照加载后固定的列表响应无需等首个请求即可命中
+ */
+class TaxonomyResponseCacheTest {
+
+    private TaxonomyResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        MascoJob job = new MascoJob();
+        job.setUnitGroupCode("2511");
+        job.setMajorGroupCode("2");
+        job.setUnitGroupTitle("Software Developers");
+        MascoJobDatabaseService mascoJobDatabaseService = mock(MascoJobDatabaseService.class);
+        when(mascoJobDatabaseService.getCatalog()).thenReturn(JobCatalog.build(1, List.of(job)));
+        SkillService skillService = mock(SkillService.class);
+        when(skillService.getSkillsByLang(anyString())).thenReturn(List.of(new SkillLevelDTO()));
+        cache = new TaxonomyResponseCache(mascoJobDatabaseService, skillService, new ObjectMapper(),
+                Schedulers.immediate(), Duration.ofMinutes(5), 1000);
+    }
+
+    @Test
+    void keysAreNormalisedAndUnknownCodesAreNotCached() {
+        assertEquals("job.list|en|2", cache.jobListKey("fr", "2"));
+        assertEquals("job.list|ms|2", cache.jobListKey("ms", "2"));
+        assertNull(cache.jobListKey("en", "no-such-group"));
+        assertNull(cache.jobListKey("en", null));
+        assertEquals("skill.list|en", cache.skillListKey("anything"));
+        assertEquals("skill.list|zh-CN", cache.skillListKey("zh-CN"));
+
+        ResponseEntity<?> uncached = cache.store(exchange(), null, 1, List.of());
+        assertNull(uncached.getHeaders().getETag());
+        assertNull(cache.lookup(exchange(), null));
+    }
+
+    @Test
+    void fixedListResponsesArePreSerializedWhenTheSnapshotLoads() {
+        assertNull(cache.lookup(exchange(), "job.all"));
+
+        cache.preSerialize();
+
+        for (String key : List.of("job.all", "job.list|en|2", "job.list|ms|2", "job.list|zh-CN|2",
+                "skill.list|en", "skill.list|ms", "skill.list|zh-CN")) {
+            ResponseEntity<?> cached = cache.lookup(exchange(), key);
+            assertNotNull(cached, key);
+            assertNotNull(cached.getHeaders().getETag(), key);
+        }
+    }
+
+    private static MockServerWebExchange exchange() {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+    }
+}